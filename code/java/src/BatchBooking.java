@@ -0,0 +1,291 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * This class books a file of requests without prompting, for group and
+ * charter loads.  Each input line is "cid,fnum" or "cid,fnum,N" to refuse
+ * the waitlist; blank lines and lines starting with '#' are skipped.
+ *
+ * Requests are grouped by flight and each flight is booked in one
+ * transaction: its Flight row is locked, the free seats go to the first
+ * requests in input order, the rest are waitlisted, all reservations are
+ * inserted as one JDBC batch and num_sold is updated once.  Flights are
+ * booked in parallel on separate connections.  One outcome line per request
+ * is written in input order: "line,cid,fnum,rnum,outcome".
+ *
+ *   java -cp lib/*:bin/ BatchBooking <dbname> <port> <user> <requests file|-> <outcome file|->
+ *
+ */
+
+public class BatchBooking {
+	static final String LOCK_FLIGHT =
+		"SELECT F.num_sold, COALESCE(P.seats, 0), F.actual_departure_date FROM Flight F " +
+		"LEFT JOIN FlightInfo I ON I.flight_id = F.fnum LEFT JOIN Plane P ON P.id = I.plane_id " +
+		"WHERE F.fnum = ? FOR UPDATE OF F";
+	static final String INSERT_RESERVATION = "INSERT INTO Reservation (rnum, cid, fid, status, departure_date) VALUES (?, ?, ?, ?, ?)";
+	static final String ADD_SEATS_SOLD = "UPDATE Flight SET num_sold = num_sold + ? WHERE fnum = ?";
+	static final String CUSTOMER_IDS = "SELECT id FROM Customer";
+
+	/**
+	 * One input line and, once booked, its outcome.
+	 */
+	static final class Request {
+		final int line;
+		final int cid;
+		final int fnum;
+		final boolean allowWaitlist;
+		int rnum = -1;
+		String outcome;
+
+		Request(int line, int cid, int fnum, boolean allowWaitlist) {
+			this.line = line;
+			this.cid = cid;
+			this.fnum = fnum;
+			this.allowWaitlist = allowWaitlist;
+		}
+	}
+
+	private final DBproject _db;
+	private final int _threads;
+
+	public BatchBooking(DBproject db, int threads) {
+		this._db = db;
+		this._threads = threads;
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length != 5) {
+			System.err.println("Usage: java [-classpath <classpath>] " + BatchBooking.class.getName() +
+				" <dbname> <port> <user> <requests file|-> <outcome file|->");
+			return;
+		}
+		int threads = Integer.getInteger("airline.batch.threads", 4);
+		if (System.getProperty("airline.pool.max") == null) {
+			// one connection per worker plus one for id blocks.
+			System.setProperty("airline.pool.max", String.valueOf(threads + 1));
+		}
+
+		Class.forName("org.postgresql.Driver");
+		DBproject esql = new DBproject(args[0], args[1], args[2], "");
+		try {
+			InputStream input = args[3].equals("-") ? System.in : new FileInputStream(args[3]);
+			List<Request> requests = read(new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8)));
+
+			long start = System.nanoTime();
+			new BatchBooking(esql, threads).book(requests);
+			double seconds = (System.nanoTime() - start) / 1e9;
+
+			Writer output = new BufferedWriter(new OutputStreamWriter(
+				args[4].equals("-") ? System.out : new FileOutputStream(args[4]), StandardCharsets.UTF_8), 1 << 16);
+			Map<String, Integer> totals = write(requests, output);
+			System.err.println(String.format("%d requests in %.2f s (%.0f requests/sec): %s",
+				requests.size(), seconds, requests.size() / seconds, totals));
+		} finally {
+			esql.cleanup();
+		}
+	}
+
+	/**
+	 * Method to parse booking requests.  Lines that do not parse are kept
+	 * with the outcome INVALID so they still get an outcome line.
+	 *
+	 * @param in the request lines
+	 * @return the requests in input order
+	 * @throws java.io.IOException when the input cannot be read
+	 */
+	static List<Request> read(BufferedReader in) throws IOException {
+		List<Request> requests = new ArrayList<Request>();
+		String line;
+		int lineNumber = 0;
+		while ((line = in.readLine()) != null) {
+			lineNumber++;
+			line = line.trim();
+			if (line.isEmpty() || line.startsWith("#")) {
+				continue;
+			}
+			String[] fields = line.split(",");
+			try {
+				boolean allowWaitlist = fields.length < 3 || !fields[2].trim().equalsIgnoreCase("N");
+				requests.add(new Request(lineNumber, Integer.parseInt(fields[0].trim()), Integer.parseInt(fields[1].trim()), allowWaitlist));
+			}catch (RuntimeException e) {
+				Request invalid = new Request(lineNumber, -1, -1, false);
+				invalid.outcome = "INVALID";
+				requests.add(invalid);
+			}
+		}
+		return requests;
+	}
+
+	/**
+	 * Method to book every request that does not have an outcome yet.
+	 *
+	 * @param requests the requests, in input order
+	 * @throws java.lang.Exception when the workers cannot be run
+	 */
+	public void book(List<Request> requests) throws Exception {
+		// customers are checked up front so one bad id cannot fail a whole flight.
+		BitSet customers = new BitSet();
+		for (int cid : this._db.queryForIntColumn(CUSTOMER_IDS)) {
+			customers.set(cid);
+		}
+
+		Map<Integer, List<Request>> flights = new LinkedHashMap<Integer, List<Request>>();
+		for (Request request : requests) {
+			if (request.outcome != null) {
+				continue;
+			}
+			if (request.cid < 0 || !customers.get(request.cid)) {
+				request.outcome = SeatAllocator.Outcome.NO_SUCH_CUSTOMER.name();
+				continue;
+			}
+			List<Request> group = flights.get(request.fnum);
+			if (group == null) {
+				group = new ArrayList<Request>();
+				flights.put(request.fnum, group);
+			}
+			group.add(request);
+		}
+
+		ExecutorService workers = Executors.newFixedThreadPool(this._threads);
+		try {
+			List<Future<?>> done = new ArrayList<Future<?>>();
+			for (final Map.Entry<Integer, List<Request>> flight : flights.entrySet()) {
+				done.add(workers.submit(new Callable<Void>() {
+					public Void call() {
+						bookFlight(flight.getKey(), flight.getValue());
+						return null;
+					}
+				}));
+			}
+			for (Future<?> f : done) {
+				f.get();
+			}
+		} finally {
+			workers.shutdownNow();
+		}
+	}//end book
+
+	/**
+	 * Method to book all requests for one flight in a single transaction.  A
+	 * failure marks every request of the flight as ERROR and leaves the
+	 * database unchanged, so the other flights still get their outcomes
+	 * written.
+	 */
+	void bookFlight(int fnum, List<Request> group) {
+		try {
+			// reserves the ids before borrowing, a new id block needs a connection of its own.
+			int[] rnums = new int[group.size()];
+			for (int i = 0; i < rnums.length; i++) {
+				rnums[i] = this._db.getIdGenerator().next(IdGenerator.RESERVATION);
+			}
+
+			PooledConnection conn = this._db.getConnection(fnum);
+			try {
+				Connection c = conn.getConnection();
+				c.setAutoCommit(false);
+				ResultSet rs = conn.prepare(LOCK_FLIGHT, fnum).executeQuery();
+				int free;
+				Date departure;
+				try {
+					if (!rs.next()) {
+						for (Request request : group) {
+							request.outcome = SeatAllocator.Outcome.NO_SUCH_FLIGHT.name();
+						}
+						return;
+					}
+					free = Math.max(0, rs.getInt(2) - rs.getInt(1));
+					departure = rs.getDate(3);
+				} finally {
+					rs.close();
+				}
+
+				int reserved = 0;
+				PreparedStatement insert = null;
+				for (int i = 0; i < group.size(); i++) {
+					Request request = group.get(i);
+					String status;
+					if (reserved < free) {
+						status = "R";
+						request.outcome = SeatAllocator.Outcome.RESERVED.name();
+						reserved++;
+					}
+					else if (request.allowWaitlist) {
+						status = "W";
+						request.outcome = SeatAllocator.Outcome.WAITLISTED.name();
+					}
+					else {
+						request.outcome = SeatAllocator.Outcome.SOLD_OUT.name();
+						continue;
+					}
+					request.rnum = rnums[i];
+					insert = conn.prepare(INSERT_RESERVATION, request.rnum, request.cid, fnum, status, departure);
+					insert.addBatch();
+				}
+				if (insert != null) {
+					try {
+						insert.executeBatch();
+					} finally {
+						// the statement is cached, it must not keep a failed batch.
+						insert.clearBatch();
+					}
+				}
+				if (reserved > 0) {
+					conn.prepare(ADD_SEATS_SOLD, reserved, fnum).executeUpdate();
+				}
+				c.commit();
+				// the flight is not under a SeatAllocator stripe here, so the next read refreshes it.
+				this._db.getSeatCache().invalidate(fnum);
+			} finally {
+				conn.close();
+			}
+		}catch (SQLException | RuntimeException e) {
+			for (Request request : group) {
+				request.outcome = "ERROR " + String.valueOf(e.getMessage()).replace('\n', ' ').replace(',', ';');
+				request.rnum = -1;
+			}
+		}
+	}//end bookFlight
+
+	/**
+	 * Method to write one outcome line per request and total the outcomes.
+	 *
+	 * @return the number of requests per outcome
+	 */
+	static Map<String, Integer> write(List<Request> requests, Writer out) throws IOException {
+		Map<String, Integer> totals = new LinkedHashMap<String, Integer>();
+		try {
+			out.write("line,cid,fnum,rnum,outcome\n");
+			for (Request request : requests) {
+				out.write(request.line + "," + request.cid + "," + request.fnum + "," + request.rnum + "," + request.outcome + "\n");
+				String key = request.outcome.startsWith("ERROR") ? "ERROR" : request.outcome;
+				Integer count = totals.get(key);
+				totals.put(key, count == null ? 1 : count + 1);
+			}
+		} finally {
+			out.close();
+		}
+		return totals;
+	}
+}
@@ -0,0 +1,122 @@
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * This class is a small measurement harness for the data-access paths.  It
+ * runs an operation for a number of warm-up iterations, then times the
+ * measured iterations on the calling thread and reports the average time,
+ * throughput, bytes allocated per operation (from the HotSpot thread
+ * allocation counter) and the garbage collections that happened meanwhile.
+ *
+ */
+
+public final class Bench {
+	private Bench() {
+	}
+
+	/**
+	 * The operation being measured.
+	 */
+	public interface Op {
+		void run() throws Exception;
+	}
+
+	/**
+	 * The measurements of one operation.
+	 */
+	public static final class Result {
+		public final String name;
+		public final long operations;
+		public final double nanosPerOp;
+		public final double opsPerSecond;
+		//NaN when the JVM does not expose per-thread allocation
+		public final double bytesPerOp;
+		public final long gcCount;
+		public final long gcMillis;
+
+		Result(String name, long operations, long elapsedNanos, long allocatedBytes, long gcCount, long gcMillis) {
+			this.name = name;
+			this.operations = operations;
+			this.nanosPerOp = (double) elapsedNanos / operations;
+			this.opsPerSecond = operations / (elapsedNanos / 1e9);
+			this.bytesPerOp = allocatedBytes < 0 ? Double.NaN : (double) allocatedBytes / operations;
+			this.gcCount = gcCount;
+			this.gcMillis = gcMillis;
+		}
+
+		public static String header() {
+			return String.format("%-40s %10s %14s %14s %14s %8s %8s", "benchmark", "ops", "avg(us/op)", "thrpt(ops/s)", "alloc(B/op)", "gc", "gc(ms)");
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%-40s %10d %14.3f %14.1f %14.1f %8d %8d", this.name, this.operations,
+				this.nanosPerOp / 1e3, this.opsPerSecond, this.bytesPerOp, this.gcCount, this.gcMillis);
+		}
+	}
+
+	/**
+	 * Method to measure an operation.
+	 *
+	 * @param name the name reported for the operation
+	 * @param warmup the number of unmeasured iterations run first
+	 * @param iterations the number of measured iterations
+	 * @param op the operation
+	 * @return the measurements
+	 * @throws java.lang.Exception when the operation fails
+	 */
+	public static Result measure(String name, int warmup, int iterations, Op op) throws Exception {
+		for (int i = 0; i < warmup; i++) {
+			op.run();
+		}
+		System.gc();
+
+		long gcCount = gcCount();
+		long gcMillis = gcMillis();
+		long allocated = allocatedBytes();
+		long start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			op.run();
+		}
+		long elapsed = System.nanoTime() - start;
+		long allocatedAfter = allocatedBytes();
+
+		return new Result(name, iterations, elapsed,
+			allocated < 0 ? -1 : allocatedAfter - allocated,
+			gcCount() - gcCount, gcMillis() - gcMillis);
+	}//end measure
+
+	/**
+	 * Method to read the number of bytes allocated so far by the calling
+	 * thread.
+	 *
+	 * @return the allocated bytes, or -1 when the JVM does not support it
+	 */
+	static long allocatedBytes() {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (threads instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean hotspot = (com.sun.management.ThreadMXBean) threads;
+			if (hotspot.isThreadAllocatedMemorySupported() && hotspot.isThreadAllocatedMemoryEnabled()) {
+				return hotspot.getThreadAllocatedBytes(Thread.currentThread().getId());
+			}
+		}
+		return -1;
+	}
+
+	static long gcCount() {
+		long count = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			count += Math.max(0, gc.getCollectionCount());
+		}
+		return count;
+	}
+
+	static long gcMillis() {
+		long millis = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			millis += Math.max(0, gc.getCollectionTime());
+		}
+		return millis;
+	}
+}
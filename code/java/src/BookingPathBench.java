@@ -0,0 +1,142 @@
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * This class compares three ways of booking a seat, one booking at a time,
+ * at several simulated network round-trip times (see LatencyProxy):
+ *
+ *   legacy     the menu's original sequence of auto-commit statements: scan
+ *              every reservation number, read the seats left, insert the
+ *              reservation, read num_sold and write it back (five round
+ *              trips, and racy under concurrency)
+ *   statement  SeatAllocator's single data-modifying statement, with the
+ *              reservation number taken from IdGenerator
+ *   procedure  the book_flight function of create_booking_function.sql
+ *
+ * It prints latency percentiles and bookings/sec per path and round-trip
+ * time, then deletes the reservations it made and gives their seats back.
+ * Run it against a scratch database with create_booking_function.sql
+ * applied:
+ *
+ *   java -cp lib/*:bin/ BookingPathBench <dbname> <port> <user> [bookings] [round trips in ms, e.g. 0,1,5]
+ *
+ */
+
+public class BookingPathBench {
+	static final String ALL_RESERVATION_NUMBERS = DataAccessBench.ALL_RESERVATION_NUMBERS;
+	static final String INSERT_RESERVATION =
+		"INSERT INTO Reservation (rnum, cid, fid, status, departure_date) SELECT ?, ?, fnum, ?, actual_departure_date FROM Flight WHERE fnum = ?";
+	static final String SEATS_SOLD = "SELECT num_sold FROM Flight WHERE fnum = ?";
+	static final String SET_SEATS_SOLD = "UPDATE Flight SET num_sold = ? WHERE fnum = ?";
+
+	enum Path {
+		LEGACY, STATEMENT, PROCEDURE
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 3) {
+			System.err.println("Usage: java [-classpath <classpath>] " + BookingPathBench.class.getName() +
+				" <dbname> <port> <user> [bookings] [round trips in ms, e.g. 0,1,5]");
+			return;
+		}
+		int bookings = args.length > 3 ? Integer.parseInt(args[3]) : 500;
+		String[] roundTrips = (args.length > 4 ? args[4] : "0,1,5").split(",");
+
+		Class.forName("org.postgresql.Driver");
+		System.out.println(String.format("%8s %-10s %9s %9s %9s %9s %9s %12s", "rtt(ms)", "path", "bookings",
+			"mean(ms)", "p50(ms)", "p99(ms)", "max(ms)", "bookings/sec"));
+		for (String value : roundTrips) {
+			double rtt = Double.parseDouble(value.trim());
+			LatencyProxy proxy = rtt > 0 ? new LatencyProxy(Integer.parseInt(args[1]), Math.round(rtt * 1000)) : null;
+			DBproject esql = new DBproject(args[0], proxy == null ? args[1] : String.valueOf(proxy.getPort()), args[2], "");
+			try {
+				for (Path path : Path.values()) {
+					run(esql, path, rtt, bookings);
+				}
+			} finally {
+				esql.cleanup();
+				if (proxy != null) {
+					proxy.close();
+				}
+			}
+		}
+	}
+
+	private static void run(DBproject db, Path path, double rtt, int bookings) throws Exception {
+		int[] flights = db.queryForIntColumn(Queries.FLIGHT_NUMBERS);
+		int[] customers = db.queryForIntColumn(DataAccessBench.CUSTOMER_IDS);
+		if (flights.length == 0 || customers.length == 0) {
+			throw new IllegalStateException("The database has no flights or customers to book.");
+		}
+		Random random = new Random(42);
+		List<Integer> booked = new ArrayList<Integer>();
+		LatencyHistogram latency = new LatencyHistogram();
+		try {
+			// the first tenth warms up the statement caches and the JIT and is not counted.
+			int warmup = Math.max(10, bookings / 10);
+			long began = 0;
+			for (int i = -warmup; i < bookings; i++) {
+				if (i == 0) {
+					began = System.nanoTime();
+				}
+				long start = System.nanoTime();
+				int rnum = book(db, path, customers[random.nextInt(customers.length)], flights[random.nextInt(flights.length)]);
+				if (i >= 0) {
+					latency.recordSince(start);
+				}
+				if (rnum >= 0) {
+					booked.add(rnum);
+				}
+			}
+			double seconds = (System.nanoTime() - began) / 1e9;
+			System.out.println(String.format("%8.1f %-10s %9d %9.3f %9.3f %9.3f %9.3f %12.1f", rtt, path.name().toLowerCase(), bookings,
+				latency.getMean() / 1000, latency.getPercentile(50) / 1000.0, latency.getPercentile(99) / 1000.0,
+				latency.getMax() / 1000.0, bookings / seconds));
+		} finally {
+			release(db, booked);
+		}
+	}
+
+	/**
+	 * Books one seat, waitlisting when the flight is full, and returns the
+	 * reservation number or -1.
+	 */
+	static int book(DBproject db, Path path, int cid, int fnum) throws SQLException {
+		switch (path) {
+			case STATEMENT:
+				return db.getSeatAllocator().book(cid, fnum, true, false).rnum;
+			case PROCEDURE:
+				return db.getSeatAllocator().book(cid, fnum, true, true).rnum;
+			default:
+				// the full scan stood in for picking the next number; the number itself
+				// comes from IdGenerator so repeated runs do not collide.
+				db.executeQueryAndReturnResult(ALL_RESERVATION_NUMBERS);
+				int seatsLeft = db.queryForInt(Queries.SEATS_LEFT, Integer.MIN_VALUE, fnum);
+				if (seatsLeft == Integer.MIN_VALUE) {
+					return -1;
+				}
+				int rnum = db.getIdGenerator().next(IdGenerator.RESERVATION);
+				if (seatsLeft <= 0) {
+					db.executeUpdate(INSERT_RESERVATION, rnum, cid, "W", fnum);
+					return rnum;
+				}
+				db.executeUpdate(INSERT_RESERVATION, rnum, cid, "R", fnum);
+				int sold = db.queryForInt(SEATS_SOLD, 0, fnum);
+				db.executeUpdate(SET_SEATS_SOLD, sold + 1, fnum);
+				db.getSeatCache().invalidate(fnum);
+				return rnum;
+		}
+	}//end book
+
+	private static void release(DBproject db, List<Integer> rnums) throws SQLException {
+		int[] values = new int[rnums.size()];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = rnums.get(i);
+		}
+		db.executeUpdate(DataAccessBench.RELEASE_SEATS, (Object) values);
+		db.executeUpdate(DataAccessBench.DELETE_RESERVATIONS, (Object) values);
+		db.getSeatCache().clear();
+	}
+}
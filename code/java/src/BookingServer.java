@@ -0,0 +1,490 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * This class serves the DBproject operations over HTTP with JSON bodies, so
+ * many agents can use one process at the same time:
+ *
+ *   POST /planes        {"make", "model", "age", "seats"}
+ *   POST /pilots        {"fullname", "nationality"}
+ *   POST /flights       {"cost", "num_sold", "num_stops", "departure_date", "arrival_date", "departure_airport", "arrival_airport"}
+ *   POST /technicians   {"full_name"}
+ *   POST /bookings      {"cid", "fnum", "allow_waitlist"}
+ *   DELETE /bookings/{rnum}
+ *   GET  /flights?from=&to=&first=&last=[&seats=true][&after=][&limit=]
+ *   GET  /flights/{fnum}/seats
+ *   GET  /flights/{fnum}/passengers[?status=R|C|W]
+ *   GET  /passengers?fnums=1,2,3
+ *   GET  /itineraries?from=&to=&first=&last=[&connections=2][&connect=60][&by=arrival|cost]
+ *   GET  /reports/repairs-per-plane
+ *   GET  /reports/repairs-per-year
+ *   GET  /stats
+ *
+ * Requests run on virtual threads when the JVM has them (Java 21 and
+ * later) and on a bounded platform thread pool otherwise; either way they
+ * share the DBproject connection pool.  At most airline.server.maxInFlight
+ * requests are admitted at once.  A request that cannot be admitted within
+ * airline.server.admissionTimeoutMs is answered 503 with Retry-After, so an
+ * overloaded server sheds load instead of queueing without bound.
+ *
+ * With replicas, every response carries the X-Write-Token header once the
+ * client has written; a client that sends it back on its next requests
+ * reads its own writes whichever thread serves them, see ReplicaRouter.
+ *
+ *   java -cp lib/*:bin/ BookingServer <dbname> <port> <user> [http port]
+ *
+ */
+
+public class BookingServer implements HttpHandler {
+	static final String WRITE_TOKEN = "X-Write-Token";
+
+	private final DBproject _db;
+	private final Semaphore _admission;
+	private final long _admissionTimeoutMillis;
+
+	//statistics
+	private final AtomicLong _requests = new AtomicLong();
+	private final AtomicLong _rejected = new AtomicLong();
+	private final AtomicLong _errors = new AtomicLong();
+	private final LatencyHistogram _latency = new LatencyHistogram();
+
+	public BookingServer(DBproject db, int maxInFlight, long admissionTimeoutMillis) {
+		this._db = db;
+		this._admission = new Semaphore(maxInFlight);
+		this._admissionTimeoutMillis = admissionTimeoutMillis;
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 3) {
+			System.err.println("Usage: java [-classpath <classpath>] " + BookingServer.class.getName() +
+				" <dbname> <port> <user> [http port]");
+			return;
+		}
+		int httpPort = args.length > 3 ? Integer.parseInt(args[3]) : 8080;
+		if (System.getProperty("airline.pool.max") == null) {
+			System.setProperty("airline.pool.max", "32");
+		}
+
+		Class.forName("org.postgresql.Driver");
+		final DBproject esql = new DBproject(args[0], args[1], args[2], "");
+		BookingServer service = new BookingServer(esql,
+			Integer.getInteger("airline.server.maxInFlight", 512),
+			Long.getLong("airline.server.admissionTimeoutMs", 250L));
+
+		HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), httpPort),
+			Integer.getInteger("airline.server.backlog", 4096));
+		server.createContext("/", service);
+		final ExecutorService executor = newExecutor(Integer.getInteger("airline.server.threads", 256));
+		server.setExecutor(executor);
+		server.start();
+		System.out.println("Booking server listening on http://localhost:" + httpPort + "/");
+
+		final HttpServer running = server;
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+			public void run() {
+				running.stop(1);
+				executor.shutdown();
+				esql.cleanup();
+			}
+		}));
+	}
+
+	/**
+	 * Method to create the request executor: one virtual thread per request
+	 * when the JVM supports it, otherwise a bounded platform pool whose
+	 * dispatcher runs requests itself when the queue is full.
+	 *
+	 * @param platformThreads the pool size used without virtual threads
+	 * @return the executor
+	 */
+	static ExecutorService newExecutor(int platformThreads) {
+		try {
+			Method virtual = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) virtual.invoke(null);
+		}catch (ReflectiveOperationException e) {
+			return new ThreadPoolExecutor(platformThreads, platformThreads, 60, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(platformThreads * 16), new ThreadPoolExecutor.CallerRunsPolicy());
+		}
+	}
+
+	@Override
+	public void handle(HttpExchange exchange) throws IOException {
+		long start = System.nanoTime();
+		this._requests.incrementAndGet();
+		// the thread may have served another client last.
+		this._db.readAfter(exchange.getRequestHeaders().getFirst(WRITE_TOKEN));
+		try {
+			boolean admitted;
+			try {
+				admitted = this._admission.tryAcquire(this._admissionTimeoutMillis, TimeUnit.MILLISECONDS);
+			}catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				admitted = false;
+			}
+			if (!admitted) {
+				this._rejected.incrementAndGet();
+				exchange.getResponseHeaders().set("Retry-After", "1");
+				send(exchange, 503, error("server busy, retry later"));
+				return;
+			}
+			try {
+				route(exchange);
+			}catch (IllegalArgumentException e) {
+				send(exchange, 400, error(e.getMessage()));
+			}catch (SQLException e) {
+				String state = e.getSQLState();
+				if (state != null && (state.startsWith("22") || state.startsWith("23"))) {
+					// bad data or a violated constraint: the request is at fault, not the server.
+					send(exchange, 400, error(e.getMessage()));
+					return;
+				}
+				this._errors.incrementAndGet();
+				send(exchange, 500, error(e.getMessage()));
+			}finally {
+				this._admission.release();
+			}
+		}finally {
+			exchange.close();
+			this._latency.recordSince(start);
+		}
+	}//end handle
+
+	private void route(HttpExchange exchange) throws IOException, SQLException {
+		String method = exchange.getRequestMethod();
+		String[] path = exchange.getRequestURI().getPath().replaceAll("^/+|/+$", "").split("/");
+		Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+
+		if (method.equals("POST") && path.length == 1) {
+			Map<String, Object> body = Json.parseObject(readBody(exchange));
+			switch (path[0]) {
+				case "planes":
+					send(exchange, 201, new Json.ObjectWriter().field("id", this._db.addPlane(
+						stringField(body, "make", 32), stringField(body, "model", 64),
+						intField(body, "age", 0, Integer.MAX_VALUE), intField(body, "seats", 1, 499))).toString());
+					return;
+				case "pilots":
+					send(exchange, 201, new Json.ObjectWriter().field("id", this._db.addPilot(
+						stringField(body, "fullname", 128), stringField(body, "nationality", 24))).toString());
+					return;
+				case "flights":
+					send(exchange, 201, new Json.ObjectWriter().field("fnum", this._db.addFlight(
+						intField(body, "cost", 1, Integer.MAX_VALUE), intField(body, "num_sold", 0, Integer.MAX_VALUE),
+						intField(body, "num_stops", 0, Integer.MAX_VALUE),
+						dateField(body, "departure_date"), dateField(body, "arrival_date"),
+						airportField(body, "arrival_airport"), airportField(body, "departure_airport"))).toString());
+					return;
+				case "technicians":
+					send(exchange, 201, new Json.ObjectWriter().field("id", this._db.addTechnician(
+						stringField(body, "full_name", 128))).toString());
+					return;
+				case "bookings":
+					Object allow = body.get("allow_waitlist");
+					SeatAllocator.Result result = this._db.bookFlight(intField(body, "cid"), intField(body, "fnum"),
+						allow == null || Boolean.TRUE.equals(allow));
+					int status = result.rnum >= 0 ? 201 : result.outcome == SeatAllocator.Outcome.SOLD_OUT ? 409 : 404;
+					send(exchange, status, new Json.ObjectWriter()
+						.field("outcome", result.outcome.name()).field("rnum", result.rnum).toString());
+					return;
+				default:
+					break;
+			}
+		}
+		else if (method.equals("DELETE") && path.length == 2 && path[0].equals("bookings")) {
+			int rnum = parseInt(path[1], "rnum");
+			SeatAllocator.Cancellation result = this._db.cancelReservation(rnum);
+			if (result == null) {
+				send(exchange, 404, error("reservation " + rnum + " does not exist"));
+				return;
+			}
+			send(exchange, 200, new Json.ObjectWriter()
+				.field("rnum", rnum).field("fnum", result.fnum).field("status", String.valueOf(result.status))
+				.field("promoted", result.promoted).toString());
+			return;
+		}
+		else if (method.equals("GET")) {
+			if (path.length == 1 && path[0].equals("flights")) {
+				String limit = query.get("limit");
+				FlightSearch.Page page = this._db.searchFlights(queryField(query, "from"), queryField(query, "to"),
+					dateQuery(query, "first"), dateQuery(query, "last"),
+					"true".equals(query.get("seats")), query.get("after"),
+					limit == null ? 20 : parseInt(limit, "limit"));
+				StringBuilder sb = new StringBuilder("[");
+				for (FlightOffer offer : page.offers) {
+					if (sb.length() > 1) {
+						sb.append(',');
+					}
+					Flight f = offer.flight;
+					Json.ObjectWriter o = new Json.ObjectWriter().field("fnum", f.fnum).field("cost", f.cost)
+						.field("num_stops", f.numStops).field("departure_date", f.actualDepartureDate.toString())
+						.field("arrival_date", f.actualArrivalDate.toString())
+						.field("departure_airport", f.departureAirport.trim()).field("arrival_airport", f.arrivalAirport.trim());
+					sb.append(offer.seatsLeft == Integer.MIN_VALUE ? o.raw("seats_left", "null") : o.field("seats_left", offer.seatsLeft));
+				}
+				send(exchange, 200, new Json.ObjectWriter().raw("flights", sb.append(']').toString())
+					.field("next", page.next).toString());
+				return;
+			}
+			if (path.length == 3 && path[0].equals("flights") && path[2].equals("seats")) {
+				int fnum = parseInt(path[1], "fnum");
+				int seats = this._db.seatsAvailable(fnum);
+				if (seats == Integer.MIN_VALUE) {
+					send(exchange, 404, error("flight " + fnum + " does not exist"));
+					return;
+				}
+				send(exchange, 200, new Json.ObjectWriter().field("fnum", fnum).field("seats_available", seats).toString());
+				return;
+			}
+			if (path.length == 3 && path[0].equals("flights") && path[2].equals("passengers")) {
+				int fnum = parseInt(path[1], "fnum");
+				String status = query.get("status");
+				if (status == null) {
+					send(exchange, 200, breakdown(this._db.passengerBreakdown(fnum).get(0)));
+					return;
+				}
+				if (status.length() != 1 || "RCW".indexOf(status.charAt(0)) < 0) {
+					throw new IllegalArgumentException("status must be R, C or W");
+				}
+				send(exchange, 200, new Json.ObjectWriter().field("fnum", fnum).field("status", status)
+					.field("count", this._db.passengerCount(fnum, status.charAt(0))).toString());
+				return;
+			}
+			if (path.length == 1 && path[0].equals("passengers")) {
+				String list = query.get("fnums");
+				if (list == null || list.isEmpty()) {
+					throw new IllegalArgumentException("fnums must list flight numbers");
+				}
+				String[] values = list.split(",");
+				if (values.length > 10000) {
+					throw new IllegalArgumentException("at most 10000 flights per request");
+				}
+				int[] fnums = new int[values.length];
+				for (int i = 0; i < values.length; i++) {
+					fnums[i] = parseInt(values[i].trim(), "fnums");
+				}
+				StringBuilder sb = new StringBuilder("[");
+				for (PassengerBreakdown b : this._db.passengerBreakdown(fnums)) {
+					if (sb.length() > 1) {
+						sb.append(',');
+					}
+					sb.append(breakdown(b));
+				}
+				send(exchange, 200, sb.append(']').toString());
+				return;
+			}
+			if (path.length == 1 && path[0].equals("itineraries")) {
+				String connections = query.get("connections");
+				String connect = query.get("connect");
+				String by = query.get("by");
+				if (by != null && !by.equals("arrival") && !by.equals("cost")) {
+					throw new IllegalArgumentException("by must be arrival or cost");
+				}
+				RouteGraph.Itinerary itinerary = this._db.findItinerary(queryField(query, "from"), queryField(query, "to"),
+					dateQuery(query, "first"), dateQuery(query, "last"),
+					connections == null ? 2 : parseInt(connections, "connections"), connect == null ? 60 : parseInt(connect, "connect"),
+					"cost".equals(by) ? RouteGraph.Objective.CHEAPEST : RouteGraph.Objective.EARLIEST_ARRIVAL);
+				if (itinerary == null) {
+					send(exchange, 404, error("no itinerary"));
+					return;
+				}
+				StringBuilder sb = new StringBuilder("[");
+				for (RouteGraph.Leg leg : itinerary.legs) {
+					if (sb.length() > 1) {
+						sb.append(',');
+					}
+					sb.append(new Json.ObjectWriter().field("fnum", leg.fnum).field("from", leg.from).field("to", leg.to)
+						.field("departure", RouteGraph.time(leg.departure).toString())
+						.field("arrival", RouteGraph.time(leg.arrival).toString()).field("cost", leg.cost));
+				}
+				send(exchange, 200, new Json.ObjectWriter().raw("legs", sb.append(']').toString())
+					.field("cost", itinerary.cost).toString());
+				return;
+			}
+			if (path.length == 2 && path[0].equals("reports") && path[1].equals("repairs-per-plane")) {
+				send(exchange, 200, pairs(this._db.repairsPerPlane(), "plane_id", "repairs"));
+				return;
+			}
+			if (path.length == 2 && path[0].equals("reports") && path[1].equals("repairs-per-year")) {
+				send(exchange, 200, pairs(this._db.repairsPerYear(), "year", "repairs"));
+				return;
+			}
+			if (path.length == 1 && path[0].equals("stats")) {
+				send(exchange, 200, new Json.ObjectWriter()
+					.field("requests", this._requests.get())
+					.field("rejected", this._rejected.get())
+					.field("errors", this._errors.get())
+					.field("pool_active", (long) this._db.getPool().getActiveCount())
+					.field("pool", this._db.getPool().getStats())
+					.field("seat_cache", this._db.getSeatCache().getStats())
+					.field("search_cache", this._db.getFlightSearch().getCache().getStats())
+					.field("reference", this._db.getReferenceData().getStats())
+					.field("replicas", this._db.getReplicaRouter() == null ? "none" : this._db.getReplicaRouter().getStats())
+					.field("shards", this._db.getShardRouter() == null ? "none" : this._db.getShardRouter().getStats())
+					.raw("latency", this._latency.toJson())
+					.raw("operations", this._db.getMetrics().toJson())
+					.toString());
+				return;
+			}
+		}
+		send(exchange, 404, error("no such resource: " + method + " " + exchange.getRequestURI().getPath()));
+	}//end route
+
+	static String pairs(List<int[]> rows, String first, String second) {
+		StringBuilder sb = new StringBuilder("[");
+		for (int i = 0; i < rows.size(); i++) {
+			if (i > 0) {
+				sb.append(',');
+			}
+			sb.append(new Json.ObjectWriter().field(first, rows.get(i)[0]).field(second, rows.get(i)[1]));
+		}
+		return sb.append(']').toString();
+	}
+
+	static String breakdown(PassengerBreakdown b) {
+		return new Json.ObjectWriter().field("fnum", b.fnum).field("reserved", b.reserved)
+			.field("confirmed", b.confirmed).field("waitlisted", b.waitlisted).toString();
+	}
+
+	static String error(String message) {
+		return new Json.ObjectWriter().field("error", message).toString();
+	}
+
+	private void send(HttpExchange exchange, int status, String json) throws IOException {
+		byte[] body = json.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+		String token = this._db.getWriteToken();
+		if (token != null) {
+			exchange.getResponseHeaders().set(WRITE_TOKEN, token);
+		}
+		exchange.sendResponseHeaders(status, body.length);
+		OutputStream out = exchange.getResponseBody();
+		out.write(body);
+		out.close();
+	}
+
+	static String readBody(HttpExchange exchange) throws IOException {
+		InputStream in = exchange.getRequestBody();
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int n;
+		while ((n = in.read(buffer)) > 0) {
+			body.write(buffer, 0, n);
+			if (body.size() > 65536) {
+				throw new IllegalArgumentException("request body too large");
+			}
+		}
+		return new String(body.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	static Map<String, String> parseQuery(String raw) throws IOException {
+		Map<String, String> query = new HashMap<String, String>();
+		if (raw == null) {
+			return query;
+		}
+		for (String pair : raw.split("&")) {
+			int eq = pair.indexOf('=');
+			if (eq > 0) {
+				query.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"), URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+			}
+		}
+		return query;
+	}
+
+	static int parseInt(String value, String name) {
+		try {
+			return Integer.parseInt(value);
+		}catch (NumberFormatException e) {
+			throw new IllegalArgumentException(name + " must be an integer");
+		}
+	}
+
+	static String stringField(Map<String, Object> body, String name) {
+		Object value = body.get(name);
+		if (!(value instanceof String)) {
+			throw new IllegalArgumentException(name + " must be a string");
+		}
+		return (String) value;
+	}
+
+	//a string of at most maxLength characters, the width of its CHAR column
+	static String stringField(Map<String, Object> body, String name, int maxLength) {
+		String value = stringField(body, name);
+		if (value.length() > maxLength) {
+			throw new IllegalArgumentException(name + " must be at most " + maxLength + " characters");
+		}
+		return value;
+	}
+
+	static int intField(Map<String, Object> body, String name) {
+		Object value = body.get(name);
+		if (!(value instanceof Long) || (Long) value != ((Long) value).intValue()) {
+			throw new IllegalArgumentException(name + " must be an integer");
+		}
+		return ((Long) value).intValue();
+	}
+
+	//an integer from min to max, the range of its column's domain in create.sql
+	static int intField(Map<String, Object> body, String name, int min, int max) {
+		int value = intField(body, name);
+		if (value < min || value > max) {
+			throw new IllegalArgumentException(name + " must be " + (max == Integer.MAX_VALUE ? "at least " + min : "from " + min + " to " + max));
+		}
+		return value;
+	}
+
+	static String queryField(Map<String, String> query, String name) {
+		String value = query.get(name);
+		if (value == null || value.isEmpty()) {
+			throw new IllegalArgumentException(name + " is required");
+		}
+		return value;
+	}
+
+	static LocalDate dateQuery(Map<String, String> query, String name) {
+		try {
+			return LocalDate.parse(queryField(query, name));
+		}catch (DateTimeParseException e) {
+			throw new IllegalArgumentException(name + " must be a YYYY-MM-DD date");
+		}
+	}
+
+	static Date dateField(Map<String, Object> body, String name) {
+		try {
+			return Date.valueOf(stringField(body, name));
+		}catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException(name + " must be a YYYY-MM-DD date");
+		}
+	}
+
+	static String airportField(Map<String, Object> body, String name) {
+		String code = stringField(body, name);
+		if (code.length() != 5) {
+			throw new IllegalArgumentException(name + " must be a 5 character airport code");
+		}
+		return code;
+	}
+}
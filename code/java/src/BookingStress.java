@@ -0,0 +1,268 @@
+import java.sql.Array;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * This class hammers a single flight with concurrent bookings through
+ * SeatAllocator and checks that it is never oversold: after each round the
+ * number of 'R' reservations created must equal the increase of
+ * Flight.num_sold and num_sold must not exceed the plane's capacity.  It
+ * prints bookings/sec for every thread count, then deletes the reservations
+ * it created and restores num_sold so rounds are comparable.  The seat
+ * count cached by the bookings must match the database as well.
+ *
+ * A last round mixes bookings with cancellations of the bookings made so
+ * far, half and half, on the largest thread count.  Afterwards num_sold
+ * must have moved by exactly the number of seats held by the round's own
+ * reservations (including waitlisted ones promoted into freed seats), and
+ * no reservation may be left waiting while the flight has a free seat.
+ *
+ * Run it against a scratch copy of the database:
+ *   java -cp lib/*:bin/ BookingStress <dbname> <port> <user> <fnum> [bookings per thread] [thread counts...]
+ *
+ */
+
+public class BookingStress {
+	static final String FLIGHT_STATE = "SELECT F.num_sold, P.seats FROM Flight F, Plane P, FlightInfo I WHERE F.fnum = I.flight_id AND I.plane_id = P.id AND F.fnum = ?";
+	static final String CUSTOMER_IDS = "SELECT id FROM Customer";
+	static final String DELETE_RESERVATIONS = "DELETE FROM Reservation WHERE rnum = ANY(?)";
+	static final String RESTORE_SEATS_SOLD = "UPDATE Flight SET num_sold = ? WHERE fnum = ?";
+	static final String WAITLISTED = "SELECT rnum FROM Reservation WHERE fid = ? AND status = 'W'";
+	static final String RESERVED_AMONG = "SELECT COUNT(*) FROM Reservation WHERE rnum = ANY(?) AND status = 'R'";
+	static final String RESTORE_WAITLIST = "UPDATE Reservation SET status = 'W' WHERE rnum = ANY(?)";
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 4) {
+			System.err.println("Usage: java [-classpath <classpath>] " + BookingStress.class.getName() +
+				" <dbname> <port> <user> <fnum> [bookings per thread] [thread counts...]");
+			return;
+		}
+		final int fnum = Integer.parseInt(args[3]);
+		final int perThread = args.length > 4 ? Integer.parseInt(args[4]) : 50;
+		int[] threadCounts = {1, 2, 4, 8, 16, 32};
+		if (args.length > 5) {
+			threadCounts = new int[args.length - 5];
+			for (int i = 5; i < args.length; i++) {
+				threadCounts[i - 5] = Integer.parseInt(args[i]);
+			}
+		}
+		int maxThreads = 0;
+		for (int t : threadCounts) {
+			maxThreads = Math.max(maxThreads, t);
+		}
+		if (System.getProperty("airline.pool.max") == null) {
+			System.setProperty("airline.pool.max", String.valueOf(maxThreads));
+		}
+
+		Class.forName("org.postgresql.Driver");
+		DBproject esql = new DBproject(args[0], args[1], args[2], "");
+		try {
+			final int[] cids = esql.queryForIntColumn(CUSTOMER_IDS);
+
+			boolean ok = true;
+			System.out.println("threads\tbookings\treserved\twaitlisted\tretries\tbookings/sec\tresult");
+			for (int threads : threadCounts) {
+				ok &= round(esql, fnum, cids, threads, perThread);
+			}
+			System.out.println();
+			System.out.println("threads\tbookings\tcancels\tpromotions\tretries\tops/sec\tresult");
+			ok &= storm(esql, fnum, cids, maxThreads, perThread);
+			System.out.println(ok ? "No oversell or missed promotion detected." : "OVERSELL OR MISSED PROMOTION DETECTED.");
+			if (!ok) {
+				System.exit(1);
+			}
+		} finally {
+			esql.cleanup();
+		}
+	}
+
+	private static boolean round(final DBproject esql, final int fnum, final int[] cids, int threads, final int perThread) throws Exception {
+		List<List<String>> before = esql.executeQueryAndReturnResult(FLIGHT_STATE, fnum);
+		if (before.isEmpty()) {
+			throw new SQLException("Flight " + fnum + " has no plane assigned");
+		}
+		int soldBefore = Integer.parseInt(before.get(0).get(0));
+		int seats = Integer.parseInt(before.get(0).get(1));
+		long retriesBefore = esql.getSeatAllocator().getRetryCount();
+
+		final ConcurrentLinkedQueue<Integer> created = new ConcurrentLinkedQueue<Integer>();
+		final AtomicInteger reserved = new AtomicInteger();
+		final AtomicInteger waitlisted = new AtomicInteger();
+		final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+		final CountDownLatch start = new CountDownLatch(1);
+		List<Thread> workers = new ArrayList<Thread>();
+		for (int t = 0; t < threads; t++) {
+			final Random random = new Random(t);
+			Thread worker = new Thread(new Runnable() {
+				public void run() {
+					try {
+						start.await();
+						for (int i = 0; i < perThread; i++) {
+							SeatAllocator.Result result = esql.getSeatAllocator().book(cids[random.nextInt(cids.length)], fnum, true);
+							if (result.rnum >= 0) {
+								created.add(result.rnum);
+							}
+							if (result.outcome == SeatAllocator.Outcome.RESERVED) {
+								reserved.incrementAndGet();
+							}
+							else if (result.outcome == SeatAllocator.Outcome.WAITLISTED) {
+								waitlisted.incrementAndGet();
+							}
+						}
+					}catch (Exception e) {
+						failure.compareAndSet(null, e);
+					}
+				}
+			});
+			worker.start();
+			workers.add(worker);
+		}
+
+		long began = System.nanoTime();
+		start.countDown();
+		for (Thread worker : workers) {
+			worker.join();
+		}
+		double seconds = (System.nanoTime() - began) / 1e9;
+
+		int soldAfter = Integer.parseInt(esql.executeQueryAndReturnResult(FLIGHT_STATE, fnum).get(0).get(0));
+		// the written-through seat count must match the database.
+		Integer cached = esql.getSeatCache().get(fnum);
+		boolean ok = failure.get() == null
+			&& (cached == null || cached == seats - soldAfter)
+			&& soldAfter <= Math.max(seats, soldBefore)
+			&& soldAfter - soldBefore == reserved.get()
+			&& reserved.get() == Math.min(threads * perThread, Math.max(0, seats - soldBefore));
+		int bookings = reserved.get() + waitlisted.get();
+		System.out.println(String.format("%d\t%d\t%d\t%d\t%d\t%.1f\t%s", threads, bookings, reserved.get(), waitlisted.get(),
+			esql.getSeatAllocator().getRetryCount() - retriesBefore, bookings / seconds,
+			ok ? "ok" : "FAILED (num_sold " + soldBefore + " -> " + soldAfter + ", seats " + seats + ")"));
+		if (failure.get() != null) {
+			failure.get().printStackTrace();
+		}
+
+		// removes what this round created so the next round starts from the same state.
+		PooledConnection conn = esql.getConnection();
+		try {
+			Array rnums = conn.getConnection().createArrayOf("integer", created.toArray(new Integer[0]));
+			conn.prepare(DELETE_RESERVATIONS, rnums).executeUpdate();
+			conn.prepare(RESTORE_SEATS_SOLD, soldBefore, fnum).executeUpdate();
+		} finally {
+			conn.close();
+		}
+		esql.getSeatCache().invalidate(fnum);
+		return ok;
+	}
+
+	/**
+	 * Runs bookings and cancellations of the flight side by side, then
+	 * checks the seat accounting and that the waitlist was drained into
+	 * every freed seat.  Reservations waitlisted before the round may be
+	 * promoted by it; they are put back on the waitlist afterwards.
+	 */
+	private static boolean storm(final DBproject esql, final int fnum, final int[] cids, int threads, final int perThread) throws Exception {
+		List<List<String>> before = esql.executeQueryAndReturnResult(FLIGHT_STATE, fnum);
+		if (before.isEmpty()) {
+			throw new SQLException("Flight " + fnum + " has no plane assigned");
+		}
+		int soldBefore = Integer.parseInt(before.get(0).get(0));
+		int seats = Integer.parseInt(before.get(0).get(1));
+		final int[] waitingBefore = esql.queryForIntColumn(WAITLISTED, fnum);
+		long retriesBefore = esql.getSeatAllocator().getRetryCount();
+
+		// reservations of this round still in the table, cancelled from the front.
+		final ConcurrentLinkedDeque<Integer> live = new ConcurrentLinkedDeque<Integer>();
+		final AtomicInteger bookings = new AtomicInteger();
+		final AtomicInteger cancels = new AtomicInteger();
+		final AtomicInteger promotions = new AtomicInteger();
+		final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+		final CountDownLatch start = new CountDownLatch(1);
+		List<Thread> workers = new ArrayList<Thread>();
+		for (int t = 0; t < threads; t++) {
+			final Random random = new Random(1000 + t);
+			Thread worker = new Thread(new Runnable() {
+				public void run() {
+					try {
+						start.await();
+						for (int i = 0; i < perThread; i++) {
+							Integer victim = random.nextBoolean() ? live.pollFirst() : null;
+							if (victim != null) {
+								SeatAllocator.Cancellation result = esql.getSeatAllocator().cancel(victim);
+								if (result == null) {
+									throw new IllegalStateException("Reservation " + victim + " vanished before it was cancelled");
+								}
+								cancels.incrementAndGet();
+								if (result.promoted >= 0) {
+									promotions.incrementAndGet();
+								}
+								continue;
+							}
+							SeatAllocator.Result result = esql.getSeatAllocator().book(cids[random.nextInt(cids.length)], fnum, true);
+							if (result.rnum >= 0) {
+								live.addLast(result.rnum);
+								bookings.incrementAndGet();
+							}
+						}
+					}catch (Exception e) {
+						failure.compareAndSet(null, e);
+					}
+				}
+			});
+			worker.start();
+			workers.add(worker);
+		}
+
+		long began = System.nanoTime();
+		start.countDown();
+		for (Thread worker : workers) {
+			worker.join();
+		}
+		double seconds = (System.nanoTime() - began) / 1e9;
+
+		List<Integer> touched = new ArrayList<Integer>(live);
+		for (int rnum : waitingBefore) {
+			touched.add(rnum);
+		}
+		int[] rnums = new int[touched.size()];
+		for (int i = 0; i < rnums.length; i++) {
+			rnums[i] = touched.get(i);
+		}
+		int soldAfter = Integer.parseInt(esql.executeQueryAndReturnResult(FLIGHT_STATE, fnum).get(0).get(0));
+		// every seat taken or given back by the round shows up as an 'R' among its rows.
+		int heldSeats = esql.queryForInt(RESERVED_AMONG, 0, (Object) rnums);
+		int stillWaiting = esql.queryForIntColumn(WAITLISTED, fnum).length;
+		Integer cached = esql.getSeatCache().get(fnum);
+		boolean ok = failure.get() == null
+			&& (cached == null || cached == seats - soldAfter)
+			&& soldAfter <= Math.max(seats, soldBefore)
+			&& soldAfter - soldBefore == heldSeats
+			&& (soldAfter >= seats || stillWaiting == 0 || (soldBefore < seats && waitingBefore.length > 0));
+		int ops = bookings.get() + cancels.get();
+		System.out.println(String.format("%d\t%d\t%d\t%d\t%d\t%.1f\t%s", threads, bookings.get(), cancels.get(), promotions.get(),
+			esql.getSeatAllocator().getRetryCount() - retriesBefore, ops / seconds,
+			ok ? "ok" : "FAILED (num_sold " + soldBefore + " -> " + soldAfter + ", seats " + seats
+				+ ", seats held by the round " + heldSeats + ", still waiting " + stillWaiting + ")"));
+		if (failure.get() != null) {
+			failure.get().printStackTrace();
+		}
+
+		// removes the round's reservations and puts the earlier waitlist back.
+		int[] created = new int[live.size()];
+		int i = 0;
+		for (Integer rnum : live) {
+			created[i++] = rnum;
+		}
+		esql.executeUpdate(DELETE_RESERVATIONS, (Object) created);
+		esql.executeUpdate(RESTORE_WAITLIST, (Object) waitingBefore);
+		esql.executeUpdate(RESTORE_SEATS_SOLD, soldBefore, fnum);
+		esql.getSeatCache().invalidate(fnum);
+		return ok;
+	}
+}
@@ -0,0 +1,451 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.postgresql.PGConnection;
+
+/**
+ * This class loads the code/data CSV files into the tables created by
+ * create.sql.  Unlike the server-side COPY in create.sql, the files are
+ * read on the client and streamed through the driver's CopyManager, so they
+ * do not have to be on the database host.
+ *
+ * Tables load in dependency order, and tables of the same phase load in
+ * parallel on their own connections: Customer, Pilot, Plane and Technician
+ * first, then Flight, then Reservation, FlightInfo, Schedule and Repairs.
+ * Every line is validated and its dates normalized to ISO format while it
+ * streams; rejected lines are reported and skipped.  The secondary indexes
+ * of create_indexes.sql are dropped before the load and rebuilt after it,
+ * the id sequences are moved past the loaded keys, and the repair counter
+ * triggers are dropped during the load and recreated with fresh counts by
+ * create_repair_counters.sql.  Before the last phase, the monthly
+ * partitions of Reservation and Schedule are created for every departure
+ * month in Flight and a year beyond, see PartitionManager.
+ *
+ *   java -cp lib/*:bin/ BulkLoader <dbname> <port> <user> [data dir] [sql dir] [--truncate]
+ *
+ */
+
+public class BulkLoader {
+	enum ColumnType {
+		INT, TEXT, DATE
+	}
+
+	/**
+	 * A table to load: its CSV file and the type of each column, in file
+	 * order.  A staged table is copied into a temporary table first, created
+	 * by staging, and moved into place by insert, for tables that need
+	 * columns the file does not have.
+	 */
+	static final class Table {
+		final String name;
+		final String file;
+		final String staging;
+		final String insert;
+		final String[] columns;
+		final ColumnType[] types;
+
+		Table(String name, String file, String[] columns, ColumnType... types) {
+			this(name, file, null, null, columns, types);
+		}
+
+		Table(String name, String file, String staging, String insert, String[] columns, ColumnType... types) {
+			this.name = name;
+			this.file = file;
+			this.staging = staging;
+			this.insert = insert;
+			this.columns = columns;
+			this.types = types;
+		}
+
+		String copySql() {
+			StringBuilder sql = new StringBuilder("COPY ").append(this.staging == null ? this.name : this.name + "Load").append(" (");
+			for (int i = 0; i < this.columns.length; i++) {
+				sql.append(i == 0 ? "" : ", ").append(this.columns[i]);
+			}
+			return sql.append(") FROM STDIN WITH (FORMAT csv)").toString();
+		}
+	}
+
+	static final ColumnType INT = ColumnType.INT;
+	static final ColumnType TEXT = ColumnType.TEXT;
+	static final ColumnType DATE = ColumnType.DATE;
+
+	static final Table CUSTOMER = new Table("Customer", "customer.csv",
+		new String[] {"id", "fname", "lname", "gtype", "dob", "address", "phone", "zipcode"},
+		INT, TEXT, TEXT, TEXT, DATE, TEXT, TEXT, TEXT);
+	static final Table PILOT = new Table("Pilot", "pilots.csv",
+		new String[] {"id", "fullname", "nationality"},
+		INT, TEXT, TEXT);
+	static final Table PLANE = new Table("Plane", "planes.csv",
+		new String[] {"id", "make", "model", "age", "seats"},
+		INT, TEXT, TEXT, INT, INT);
+	static final Table TECHNICIAN = new Table("Technician", "technician.csv",
+		new String[] {"id", "full_name"},
+		INT, TEXT);
+	static final Table FLIGHT = new Table("Flight", "flights.csv",
+		new String[] {"fnum", "cost", "num_sold", "num_stops", "actual_departure_date", "actual_arrival_date", "arrival_airport", "departure_airport"},
+		INT, INT, INT, INT, DATE, DATE, TEXT, TEXT);
+	//the partition key departure_date is copied from Flight
+	static final Table RESERVATION = new Table("Reservation", "reservation.csv",
+		"CREATE TEMP TABLE ReservationLoad (rnum INTEGER, cid INTEGER, fid INTEGER, status CHAR(1))",
+		"INSERT INTO Reservation (rnum, cid, fid, status, departure_date) " +
+		"SELECT R.rnum, R.cid, R.fid, R.status, F.actual_departure_date FROM ReservationLoad R JOIN Flight F ON F.fnum = R.fid",
+		new String[] {"rnum", "cid", "fid", "status"},
+		INT, INT, INT, TEXT);
+	static final Table FLIGHT_INFO = new Table("FlightInfo", "flightinfo.csv",
+		new String[] {"fiid", "flight_id", "pilot_id", "plane_id"},
+		INT, INT, INT, INT);
+	static final Table REPAIRS = new Table("Repairs", "repairs.csv",
+		new String[] {"rid", "repair_date", "repair_code", "pilot_id", "plane_id", "technician_id"},
+		INT, DATE, TEXT, INT, INT, INT);
+	static final Table SCHEDULE = new Table("Schedule", "schedule.csv",
+		new String[] {"id", "flightNum", "departure_time", "arrival_time"},
+		INT, INT, DATE, DATE);
+
+	//tables of one phase only reference tables of earlier phases
+	static final Table[][] PHASES = {
+		{CUSTOMER, PILOT, PLANE, TECHNICIAN},
+		{FLIGHT},
+		{RESERVATION, FLIGHT_INFO, SCHEDULE, REPAIRS},
+	};
+
+	//date formats found in the data files; customer.csv uses M/d/yyyy
+	static final DateTimeFormatter US_DATE = DateTimeFormatter.ofPattern("M/d/yyyy");
+	static final Pattern INDEX_NAME = Pattern.compile("CREATE\\s+INDEX\\s+(\\w+)", Pattern.CASE_INSENSITIVE);
+	//rejected lines printed per table before going quiet
+	static final int MAX_REPORTED_REJECTS = 10;
+
+	private final DBproject _db;
+	private final File _dataDir;
+	private final File _sqlDir;
+
+	public BulkLoader(DBproject db, File dataDir, File sqlDir) {
+		this._db = db;
+		this._dataDir = dataDir;
+		this._sqlDir = sqlDir;
+	}
+
+	public static void main(String[] args) throws Exception {
+		List<String> positional = new ArrayList<String>();
+		boolean truncate = false;
+		for (String arg : args) {
+			if (arg.equals("--truncate")) {
+				truncate = true;
+			}
+			else {
+				positional.add(arg);
+			}
+		}
+		if (positional.size() < 3) {
+			System.err.println("Usage: java [-classpath <classpath>] " + BulkLoader.class.getName() +
+				" <dbname> <port> <user> [data dir] [sql dir] [--truncate]");
+			return;
+		}
+		File dataDir = new File(positional.size() > 3 ? positional.get(3) : "../data");
+		File sqlDir = new File(positional.size() > 4 ? positional.get(4) : "../sql");
+		if (System.getProperty("airline.pool.max") == null) {
+			System.setProperty("airline.pool.max", "4");
+		}
+
+		Class.forName("org.postgresql.Driver");
+		DBproject esql = new DBproject(positional.get(0), positional.get(1), positional.get(2), "");
+		try {
+			new BulkLoader(esql, dataDir, sqlDir).load(truncate);
+		} finally {
+			esql.cleanup();
+		}
+	}
+
+	/**
+	 * Method to load every table.
+	 *
+	 * @param truncate whether to empty the tables first
+	 * @throws java.lang.Exception when a table fails to load
+	 */
+	public void load(boolean truncate) throws Exception {
+		long start = System.nanoTime();
+		if (truncate) {
+			this._db.executeUpdate("TRUNCATE Customer, Pilot, Plane, Technician, Flight, Reservation, ReservationNumber, FlightInfo, Repairs, Schedule");
+		}
+
+		File indexes = new File(this._sqlDir, "create_indexes.sql");
+		String indexScript = indexes.isFile() ? new String(Files.readAllBytes(indexes.toPath()), StandardCharsets.UTF_8) : null;
+		if (indexScript != null) {
+			Matcher m = INDEX_NAME.matcher(indexScript);
+			while (m.find()) {
+				this._db.executeUpdate("DROP INDEX IF EXISTS " + m.group(1));
+			}
+		}
+		File counters = new File(this._sqlDir, "create_repair_counters.sql");
+		if (counters.isFile()) {
+			// counting row by row would slow COPY down, the counters are rebuilt afterwards.
+			this._db.executeUpdate("DROP TRIGGER IF EXISTS repair_counters ON Repairs");
+		}
+
+		System.out.println(String.format("%-12s %10s %9s %9s %12s", "table", "rows", "rejected", "seconds", "rows/sec"));
+		long rows = 0;
+		ExecutorService workers = Executors.newFixedThreadPool(4);
+		try {
+			for (Table[] phase : PHASES) {
+				if (phase == PHASES[PHASES.length - 1]) {
+					// the partitioned tables need partitions for every departure month first.
+					this._db.executeQuery(PartitionManager.CREATE_FOR_FLIGHTS);
+				}
+				List<Future<Long>> loads = new ArrayList<Future<Long>>();
+				for (final Table table : phase) {
+					loads.add(workers.submit(new Callable<Long>() {
+						public Long call() throws Exception {
+							return loadTable(table);
+						}
+					}));
+				}
+				for (Future<Long> load : loads) {
+					try {
+						rows += load.get();
+					}catch (ExecutionException e) {
+						throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+					}
+				}
+			}
+		} finally {
+			workers.shutdownNow();
+		}
+		double loadSeconds = (System.nanoTime() - start) / 1e9;
+
+		long indexStart = System.nanoTime();
+		if (indexScript != null) {
+			runScript(indexScript);
+		}
+		File sequences = new File(this._sqlDir, "create_sequences.sql");
+		if (sequences.isFile()) {
+			runScript(new String(Files.readAllBytes(sequences.toPath()), StandardCharsets.UTF_8));
+			// the sequences start over past the loaded rows.
+			this._db.getIdGenerator().reset();
+		}
+		if (counters.isFile()) {
+			runScript(new String(Files.readAllBytes(counters.toPath()), StandardCharsets.UTF_8));
+		}
+		double indexSeconds = (System.nanoTime() - indexStart) / 1e9;
+
+		System.out.println(String.format("Loaded %d rows in %.2f s (%.0f rows/sec), indexes, sequences and counters in %.2f s.",
+			rows, loadSeconds, rows / loadSeconds, indexSeconds));
+	}//end load
+
+	/**
+	 * Method to stream one CSV file into its table.
+	 *
+	 * @param table the table to load
+	 * @return the number of rows loaded
+	 * @throws java.lang.Exception when the file cannot be read or COPY fails
+	 */
+	long loadTable(Table table) throws Exception {
+		File file = new File(this._dataDir, table.file);
+		long start = System.nanoTime();
+		PooledConnection conn = this._db.getConnection();
+		TransformReader reader = new TransformReader(table,
+			new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8), 1 << 16));
+		try {
+			PGConnection pg = conn.getConnection().unwrap(PGConnection.class);
+			Statement stmt = conn.getConnection().createStatement();
+			long rows;
+			try {
+				if (table.staging != null) {
+					stmt.execute("DROP TABLE IF EXISTS " + table.name + "Load");
+					stmt.execute(table.staging);
+				}
+				rows = pg.getCopyAPI().copyIn(table.copySql(), reader, 1 << 16);
+				if (table.staging != null) {
+					// rows of unknown flights are dropped by the join, where COPY into the table
+					// would have failed on the foreign key: they count as rejected.
+					long staged = rows;
+					rows = stmt.executeUpdate(table.insert);
+					if (rows < staged) {
+						reader.rejected += staged - rows;
+						System.err.println(table.file + ": " + (staged - rows) + " rows reference a flight that does not exist");
+					}
+					stmt.execute("DROP TABLE " + table.name + "Load");
+				}
+			} finally {
+				stmt.close();
+			}
+			double seconds = (System.nanoTime() - start) / 1e9;
+			System.out.println(String.format("%-12s %10d %9d %9.2f %12.0f", table.name, rows, reader.rejected, seconds, rows / seconds));
+			return rows;
+		} finally {
+			reader.close();
+			conn.close();
+		}
+	}//end loadTable
+
+	private void runScript(String script) throws SQLException {
+		PooledConnection conn = this._db.getConnection();
+		try {
+			Statement stmt = conn.getConnection().createStatement();
+			try {
+				stmt.execute(script);
+			} finally {
+				stmt.close();
+			}
+		} finally {
+			conn.close();
+		}
+	}
+
+	/**
+	 * This reader turns the lines of a data file into COPY csv input one line
+	 * at a time: it checks the column count, parses integers, rewrites dates
+	 * as yyyy-MM-dd and quotes text, and skips lines that fail.
+	 */
+	static final class TransformReader extends Reader {
+		private final Table _table;
+		private final BufferedReader _source;
+		private final StringBuilder _buffer = new StringBuilder(256);
+		private int _position = 0;
+		long lineNumber = 0;
+		long rejected = 0;
+
+		TransformReader(Table table, BufferedReader source) {
+			this._table = table;
+			this._source = source;
+		}
+
+		@Override
+		public int read(char[] cbuf, int off, int len) throws IOException {
+			while (this._position >= this._buffer.length()) {
+				if (!fill()) {
+					return -1;
+				}
+			}
+			int n = Math.min(len, this._buffer.length() - this._position);
+			this._buffer.getChars(this._position, this._position + n, cbuf, off);
+			this._position += n;
+			return n;
+		}
+
+		private boolean fill() throws IOException {
+			this._buffer.setLength(0);
+			this._position = 0;
+			String line;
+			while ((line = this._source.readLine()) != null) {
+				this.lineNumber++;
+				if (line.endsWith("\r")) {
+					line = line.substring(0, line.length() - 1);
+				}
+				if (line.isEmpty()) {
+					continue;
+				}
+				String error = transform(line);
+				if (error == null) {
+					return true;
+				}
+				this._buffer.setLength(0);
+				if (++this.rejected <= MAX_REPORTED_REJECTS) {
+					System.err.println(this._table.file + ":" + this.lineNumber + ": " + error + ": " + line);
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * Method to append the csv form of one line to the buffer.
+		 *
+		 * @return null on success, or why the line was rejected
+		 */
+		private String transform(String line) {
+			ColumnType[] types = this._table.types;
+			int start = 0;
+			for (int column = 0; column < types.length; column++) {
+				int end = column == types.length - 1 ? line.length() : line.indexOf(',', start);
+				if (end < 0) {
+					return "expected " + types.length + " columns, found " + (column + 1);
+				}
+				if (column == types.length - 1 && line.indexOf(',', start) >= 0) {
+					return "expected " + types.length + " columns, found more";
+				}
+				String value = line.substring(start, end);
+				if (column > 0) {
+					this._buffer.append(',');
+				}
+				switch (types[column]) {
+					case INT:
+						try {
+							this._buffer.append(Integer.parseInt(value.trim()));
+						}catch (NumberFormatException e) {
+							return "column " + this._table.columns[column] + " is not an integer";
+						}
+						break;
+					case DATE:
+						LocalDate date = parseDate(value.trim());
+						if (date == null) {
+							return "column " + this._table.columns[column] + " is not a date";
+						}
+						this._buffer.append(date);
+						break;
+					default:
+						appendQuoted(value);
+						break;
+				}
+				start = end + 1;
+			}
+			this._buffer.append('\n');
+			return null;
+		}
+
+		private void appendQuoted(String value) {
+			this._buffer.append('"');
+			for (int i = 0; i < value.length(); i++) {
+				char c = value.charAt(i);
+				if (c == '"') {
+					this._buffer.append('"');
+				}
+				this._buffer.append(c);
+			}
+			this._buffer.append('"');
+		}
+
+		@Override
+		public void close() throws IOException {
+			this._source.close();
+		}
+	}
+
+	/**
+	 * Method to parse the date formats found in the data files: yyyy-MM-dd,
+	 * yyyy-MM-dd HH:mm (the time is dropped, the columns are DATE) and
+	 * M/d/yyyy.
+	 *
+	 * @param value the text to parse
+	 * @return the date, or null when the text is not a date
+	 */
+	static LocalDate parseDate(String value) {
+		try {
+			if (value.indexOf('/') >= 0) {
+				return LocalDate.parse(value, US_DATE);
+			}
+			int space = value.indexOf(' ');
+			return LocalDate.parse(space < 0 ? value : value.substring(0, space));
+		}catch (DateTimeParseException e) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,363 @@
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class defines a bounded pool of physical PostgreSQL connections.
+ * Connections are borrowed per operation and returned when the operation is
+ * done, so several threads can work against the database at the same time.
+ * The pool keeps at least minSize connections open, never opens more than
+ * maxSize, validates connections that sat idle before handing them out,
+ * closes connections that stay idle too long and reports connections that
+ * are held longer than the leak threshold.
+ *
+ */
+
+public class ConnectionPool implements ConnectionPoolMBean {
+	//connections idle for less than this are handed out without validation
+	private static final long VALIDATION_BYPASS_MILLIS = 1000;
+	//seconds allowed for Connection.isValid
+	private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+
+	private final String _url;
+	private final String _user;
+	private final String _passwd;
+	private final int _minSize;
+	private final int _maxSize;
+	private final long _borrowTimeoutMillis;
+	private final long _idleTimeoutMillis;
+	private final long _leakThresholdMillis;
+	private final int _statementCacheSize;
+
+	//one permit per connection that may be borrowed
+	private final Semaphore _permits;
+	//idle connections, most recently returned first
+	private final LinkedBlockingDeque<PooledConnection> _idle = new LinkedBlockingDeque<PooledConnection>();
+	private final Set<PooledConnection> _borrowed = ConcurrentHashMap.<PooledConnection>newKeySet();
+	private final AtomicInteger _total = new AtomicInteger();
+	private final ScheduledExecutorService _housekeeper;
+	private volatile boolean _closed = false;
+
+	//statistics
+	private final AtomicLong _borrows = new AtomicLong();
+	private final AtomicLong _waitNanos = new AtomicLong();
+	private final AtomicLong _maxWaitNanos = new AtomicLong();
+	private final AtomicLong _timeouts = new AtomicLong();
+	private final AtomicLong _created = new AtomicLong();
+	private final AtomicLong _evicted = new AtomicLong();
+	private final AtomicLong _invalid = new AtomicLong();
+	private final AtomicLong _leaks = new AtomicLong();
+	private final LatencyHistogram _waits = new LatencyHistogram();
+
+	public ConnectionPool(String url, String user, String passwd, int minSize, int maxSize,
+			long borrowTimeoutMillis, long idleTimeoutMillis, long leakThresholdMillis,
+			int statementCacheSize) throws SQLException {
+		if (minSize < 0 || maxSize <= 0 || minSize > maxSize) {
+			throw new IllegalArgumentException("Invalid pool size: min=" + minSize + ", max=" + maxSize);
+		}
+		this._url = url;
+		this._user = user;
+		this._passwd = passwd;
+		this._minSize = minSize;
+		this._maxSize = maxSize;
+		this._borrowTimeoutMillis = borrowTimeoutMillis;
+		this._idleTimeoutMillis = idleTimeoutMillis;
+		this._leakThresholdMillis = leakThresholdMillis;
+		this._statementCacheSize = statementCacheSize;
+		this._permits = new Semaphore(maxSize, true);
+
+		// opens the minimum number of connections up front so a bad url fails here.
+		try {
+			for (int i = 0; i < minSize; i++) {
+				this._idle.addLast(open());
+			}
+		}catch (SQLException e) {
+			close();
+			throw e;
+		}
+
+		this._housekeeper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "connection-pool-housekeeper");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		long period = Math.max(1000, Math.min(idleTimeoutMillis, leakThresholdMillis > 0 ? leakThresholdMillis : idleTimeoutMillis) / 2);
+		this._housekeeper.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				housekeep();
+			}
+		}, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Method to create a pool configured from the airline.pool.* system
+	 * properties.
+	 *
+	 * @param url the JDBC connection URL
+	 * @param user the database user
+	 * @param passwd the database password
+	 * @return the new pool
+	 * @throws java.sql.SQLException when the initial connections cannot be opened
+	 */
+	public static ConnectionPool fromSystemProperties(String url, String user, String passwd) throws SQLException {
+		return new ConnectionPool(url, user, passwd,
+			Integer.getInteger("airline.pool.min", 1),
+			Integer.getInteger("airline.pool.max", 10),
+			Long.getLong("airline.pool.borrowTimeoutMs", 30000L),
+			Long.getLong("airline.pool.idleTimeoutMs", 600000L),
+			Long.getLong("airline.pool.leakThresholdMs", 60000L),
+			DBproject.STATEMENT_CACHE_SIZE);
+	}
+
+	/**
+	 * Method to borrow a connection, waiting up to the borrow timeout for
+	 * one to become free.  The caller must close the returned connection to
+	 * give it back.
+	 *
+	 * @return a validated connection
+	 * @throws java.sql.SQLException when no connection frees up in time or a new one cannot be opened
+	 */
+	public PooledConnection borrow() throws SQLException {
+		if (this._closed) {
+			throw new SQLException("Connection pool is closed");
+		}
+		long start = System.nanoTime();
+		try {
+			if (!this._permits.tryAcquire(this._borrowTimeoutMillis, TimeUnit.MILLISECONDS)) {
+				this._timeouts.incrementAndGet();
+				throw new SQLException("Timed out after " + this._borrowTimeoutMillis + " ms waiting for a database connection (" + getStats() + ")");
+			}
+		}catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while waiting for a database connection", e);
+		}
+
+		PooledConnection conn = null;
+		try {
+			while (conn == null) {
+				conn = this._idle.pollFirst();
+				if (conn == null) {
+					conn = open();
+				}
+				else if (!validate(conn)) {
+					this._invalid.incrementAndGet();
+					discard(conn);
+					conn = null;
+				}
+			}
+		}catch (SQLException e) {
+			this._permits.release();
+			throw e;
+		}
+
+		long waited = System.nanoTime() - start;
+		this._borrows.incrementAndGet();
+		this._waitNanos.addAndGet(waited);
+		this._waits.record(waited / 1000);
+		long max;
+		while (waited > (max = this._maxWaitNanos.get()) && !this._maxWaitNanos.compareAndSet(max, waited)) {
+			// retry until the maximum is published.
+		}
+
+		conn._borrowedAtMillis = System.currentTimeMillis();
+		conn._borrowSite = this._leakThresholdMillis > 0 ? new Throwable("Connection borrowed here") : null;
+		conn._leakReported = false;
+		this._borrowed.add(conn);
+		return conn;
+	}//end borrow
+
+	/**
+	 * Method to take a connection back.  A connection left inside a
+	 * transaction is rolled back, and a broken one is closed instead of
+	 * being pooled again.
+	 */
+	void release(PooledConnection conn) {
+		if (!this._borrowed.remove(conn)) {
+			return; // already released.
+		}
+		conn._lastUsedMillis = System.currentTimeMillis();
+		conn._borrowSite = null;
+		boolean reusable = !this._closed;
+		try {
+			Connection c = conn.getConnection();
+			if (c.isClosed()) {
+				reusable = false;
+			}
+			else if (!c.getAutoCommit()) {
+				c.rollback();
+				c.setAutoCommit(true);
+			}
+		}catch (SQLException e) {
+			reusable = false;
+		}
+		if (reusable) {
+			this._idle.addFirst(conn);
+		}
+		else {
+			discard(conn);
+		}
+		this._permits.release();
+	}//end release
+
+	private PooledConnection open() throws SQLException {
+		Connection c = DriverManager.getConnection(this._url, this._user, this._passwd);
+		this._total.incrementAndGet();
+		this._created.incrementAndGet();
+		return new PooledConnection(this, c, this._statementCacheSize);
+	}
+
+	private boolean validate(PooledConnection conn) {
+		if (System.currentTimeMillis() - conn._lastUsedMillis < VALIDATION_BYPASS_MILLIS) {
+			return true;
+		}
+		try {
+			return conn.getConnection().isValid(VALIDATION_TIMEOUT_SECONDS);
+		}catch (SQLException e) {
+			return false;
+		}
+	}
+
+	private void discard(PooledConnection conn) {
+		this._total.decrementAndGet();
+		conn.destroy();
+	}
+
+	/**
+	 * Method run periodically to close connections idle longer than the idle
+	 * timeout (down to the minimum size), top the pool back up to the
+	 * minimum size and report connections held past the leak threshold.
+	 */
+	private void housekeep() {
+		long now = System.currentTimeMillis();
+
+		Iterator<PooledConnection> it = this._idle.descendingIterator();
+		while (it.hasNext() && this._total.get() > this._minSize) {
+			PooledConnection conn = it.next();
+			if (now - conn._lastUsedMillis > this._idleTimeoutMillis && this._idle.removeLastOccurrence(conn)) {
+				this._evicted.incrementAndGet();
+				discard(conn);
+			}
+		}
+
+		while (!this._closed && this._total.get() < this._minSize) {
+			try {
+				this._idle.addLast(open());
+			}catch (SQLException e) {
+				System.err.println("Connection pool: unable to open connection: " + e.getMessage());
+				break;
+			}
+		}
+
+		if (this._leakThresholdMillis > 0) {
+			for (PooledConnection conn : this._borrowed) {
+				Throwable site = conn._borrowSite;
+				if (!conn._leakReported && site != null && now - conn._borrowedAtMillis > this._leakThresholdMillis) {
+					conn._leakReported = true;
+					this._leaks.incrementAndGet();
+					System.err.println("Connection pool: connection held for " + (now - conn._borrowedAtMillis) + " ms, possible leak");
+					site.printStackTrace();
+				}
+			}
+		}
+	}//end housekeep
+
+	public int getActiveCount() {
+		return this._borrowed.size();
+	}
+
+	public int getIdleCount() {
+		return this._idle.size();
+	}
+
+	public int getTotalCount() {
+		return this._total.get();
+	}
+
+	public int getMaxSize() {
+		return this._maxSize;
+	}
+
+	public long getBorrowCount() {
+		return this._borrows.get();
+	}
+
+	public long getTotalWaitNanos() {
+		return this._waitNanos.get();
+	}
+
+	public long getMaxWaitNanos() {
+		return this._maxWaitNanos.get();
+	}
+
+	public long getTimeoutCount() {
+		return this._timeouts.get();
+	}
+
+	public long getLeakCount() {
+		return this._leaks.get();
+	}
+
+	public double getMeanWaitMicros() {
+		return this._waits.getMean();
+	}
+
+	public long getP99WaitMicros() {
+		return this._waits.getPercentile(99);
+	}
+
+	public long getMaxWaitMicros() {
+		return this._waits.getMax();
+	}
+
+	/**
+	 * Method to return the distribution of borrow wait times, in
+	 * microseconds.
+	 *
+	 * @return the wait histogram
+	 */
+	public LatencyHistogram getWaitHistogram() {
+		return this._waits;
+	}
+
+	/**
+	 * Method to summarize the pool statistics on one line.
+	 *
+	 * @return the statistics
+	 */
+	public String getStats() {
+		long borrows = this._borrows.get();
+		double avgWaitMs = borrows == 0 ? 0 : this._waitNanos.get() / 1e6 / borrows;
+		return String.format("active=%d, idle=%d, total=%d/%d, borrows=%d, avgWait=%.3fms, maxWait=%.3fms, timeouts=%d, created=%d, evicted=%d, invalid=%d, leaks=%d",
+			getActiveCount(), getIdleCount(), getTotalCount(), this._maxSize, borrows, avgWaitMs,
+			this._maxWaitNanos.get() / 1e6, this._timeouts.get(), this._created.get(),
+			this._evicted.get(), this._invalid.get(), this._leaks.get());
+	}
+
+	/**
+	 * Method to close the idle connections and stop the housekeeping thread.
+	 * Borrowed connections are closed as they are returned.
+	 */
+	public void close() {
+		this._closed = true;
+		if (this._housekeeper != null) {
+			this._housekeeper.shutdownNow();
+		}
+		PooledConnection conn;
+		while ((conn = this._idle.pollFirst()) != null) {
+			discard(conn);
+		}
+	}//end close
+}
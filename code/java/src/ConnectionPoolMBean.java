@@ -0,0 +1,27 @@
+/**
+ * This interface is the JMX view of a ConnectionPool.  Wait times are the
+ * time borrow() spent before handing out a connection.
+ *
+ */
+
+public interface ConnectionPoolMBean {
+	int getActiveCount();
+
+	int getIdleCount();
+
+	int getTotalCount();
+
+	int getMaxSize();
+
+	long getBorrowCount();
+
+	long getTimeoutCount();
+
+	long getLeakCount();
+
+	double getMeanWaitMicros();
+
+	long getP99WaitMicros();
+
+	long getMaxWaitMicros();
+}
@@ -1,26 +1,68 @@
-import java.sql.DriverManager;
-import java.sql.Connection;
 import java.sql.Statement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.Types;
+import java.sql.Date;
 import java.io.File;
 import java.io.FileReader;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
+import java.io.IOException;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.Scanner;
+import java.time.LocalDate;
 
 /**
  * This class defines a simple embedded SQL utility class that is designed to
  * work with PostgreSQL JDBC drivers.
  *
+ * The query methods and the menu operations record their latency,
+ * rows and errors in Metrics, which publishes them over JMX and, when
+ * airline.metrics.file is set, writes them to that file periodically.
+ * Every statement is also timed by query shape in SlowQueryLog, which logs
+ * the slow ones (airline.slowQuery.*) with a sample of their plans.
+ * With airline.replicas set, reports 6 to 9 read from streaming replicas
+ * that are recent enough, see ReplicaRouter.  With airline.shards set, the
+ * flights and their reservations are spread over several databases and the
+ * flight operations go to the shard of the flight, see ShardRouter; ad hoc
+ * queries and the tools built on them still run on the first database.
+ *
  */
 
 public class DBproject{
-	//reference to physical database connection
-	private Connection _connection = null;
+	//pool of physical database connections, borrowed per operation
+	private ConnectionPool _pool = null;
+	//hands out primary keys for new rows
+	private IdGenerator _ids = null;
+	//books seats for BookFlight
+	private SeatAllocator _allocator = null;
+	//seats left per flight number, written through by bookings
+	private TtlCache<Integer, Integer> _seatCache = null;
+	//latency, rows and errors per operation, published over JMX
+	private Metrics _metrics = null;
+	//finds flights by route and date, caching popular pages
+	private FlightSearch _search = null;
+	//connecting itineraries, loaded on first use and kept up to date by addFlight
+	private volatile RouteGraph _routes = null;
+	//memory-mapped plane, pilot, technician and flight-to-plane data
+	private ReferenceData _reference = null;
+	//time per query shape, with slow statements and sampled plans logged
+	private SlowQueryLog _slowQueries = null;
+	//sends the read-only reports to replicas, null without airline.replicas
+	private ReplicaRouter _replicas = null;
+	//places flights on shards by flight number, null without airline.shards
+	private ShardRouter _shards = null;
+	//upper bound on the number of statements kept prepared per connection
+	static final int STATEMENT_CACHE_SIZE = Integer.getInteger("airline.statementCacheSize", 64);
+	//rows fetched per round trip by streaming queries
+	static final int FETCH_SIZE = Integer.getInteger("airline.fetchSize", 1000);
+	static final Object[] NO_PARAMS = new Object[0];
 	static BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
 
 	public DBproject(String dbname, String dbport, String user, String passwd) throws SQLException {
@@ -29,13 +71,34 @@ public class DBproject{
 		System.out.print("\033[0m"); // reset color
 		try{
 			// constructs the connection URL
-			String url = "jdbc:postgresql://localhost:" + dbport + "/" + dbname;
+			// (batched inserts are rewritten into multi-row INSERTs by the driver)
+			String url = "jdbc:postgresql://localhost:" + dbport + "/" + dbname + "?reWriteBatchedInserts=true";
 			System.out.print("\033[1;32m"); // bold green
 			System.out.println ("Connection URL: " + url + "\n");
 			System.out.print("\033[0m"); // reset color
 
-			// obtain a physical connection
-	        this._connection = DriverManager.getConnection(url, user, passwd);
+			// open the connection pool
+	        this._pool = ConnectionPool.fromSystemProperties(url, user, passwd);
+	        this._shards = ShardRouter.fromSystemProperties(this._pool, "localhost:" + dbport, dbname, user, passwd);
+	        if (this._shards == null) {
+	        	this._replicas = ReplicaRouter.fromSystemProperties(this._pool, dbname, user, passwd);
+	        }
+	        else if (!System.getProperty("airline.replicas", "").trim().isEmpty()) {
+	        	System.err.println("airline.replicas is ignored with airline.shards: reports read from the shards");
+	        }
+	        this._metrics = Metrics.fromSystemProperties(this._pool);
+	        this._slowQueries = SlowQueryLog.fromSystemProperties();
+	        this._ids = new IdGenerator(this);
+	        this._seatCache = new TtlCache<Integer, Integer>(Integer.getInteger("airline.seatCache.size", 10000), Long.getLong("airline.seatCache.ttlMs", 5000L));
+	        this._search = new FlightSearch(this, Integer.getInteger("airline.search.cacheSize", 1000), Long.getLong("airline.search.ttlMs", 2000L));
+	        boolean procedure = Boolean.getBoolean("airline.booking.procedure");
+	        if (procedure && this._shards != null) {
+	        	// book_flight numbers reservations from the sequence of the shard it runs on.
+	        	System.err.println("airline.booking.procedure is ignored with airline.shards: reservation numbers would repeat across shards");
+	        	procedure = false;
+	        }
+	        this._allocator = new SeatAllocator(this, Integer.getInteger("airline.booking.stripes", 64), Integer.getInteger("airline.booking.maxRetries", 5), procedure);
+	        this._reference = ReferenceData.fromSystemProperties(this);
 					System.out.print("\033[1;32m"); // bold green
 	        System.out.println("Done");
 					System.out.print("\033[0m"); // reset color
@@ -54,74 +117,135 @@ public class DBproject{
 	 * @throws java.sql.SQLException when update failed
 	 * */
 	public void executeUpdate (String sql) throws SQLException {
-		// creates a statement object
-		Statement stmt = this._connection.createStatement ();
+		executeUpdate (sql, NO_PARAMS);
+	}//end executeUpdate
 
-		// issues the update instruction
-		stmt.executeUpdate (sql);
+	/**
+	 * Method to execute a parameterized update SQL statement.  The statement
+	 * is prepared once per connection and each '?' in the SQL is bound to the
+	 * matching entry of params.
+	 *
+	 * @param sql the input SQL string with '?' placeholders
+	 * @param params the values bound to the placeholders, in order
+	 * @return the number of rows affected
+	 * @throws java.sql.SQLException when update failed
+	 * */
+	public int executeUpdate (String sql, Object... params) throws SQLException {
+		return executeUpdate (this._pool, sql, params);
+	}
 
-		// close the instruction
-	    stmt.close ();
+	private int executeUpdate (ConnectionPool pool, String sql, Object... params) throws SQLException {
+		long start = System.nanoTime ();
+		long rows = FAILED;
+		try {
+			// borrows a connection for the duration of the statement
+			PooledConnection conn = pool.borrow ();
+			try {
+				// looks up the cached statement, binds the parameters and
+				// issues the update instruction
+				int updated = conn.prepare (sql, params).executeUpdate ();
+				rows = updated;
+				return updated;
+			} finally {
+				conn.close ();
+			}
+		} finally {
+			wrote ();
+			record ("executeUpdate", start, rows, pool, sql, params);
+		}
 	}//end executeUpdate
 
 	/**
 	 * Method to execute an input query SQL instruction (i.e. SELECT).  This
 	 * method issues the query to the DBMS and outputs the results to
-	 * standard out.
+	 * standard out as aligned text.
 	 *
 	 * @param query the input query string
+	 * @param params the values bound to the '?' placeholders, in order
 	 * @return the number of rows returned
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
-	public int executeQueryAndPrintResult (String query) throws SQLException {
-		//creates a statement object
-		Statement stmt = this._connection.createStatement ();
-
-		//issues the query instruction
-		ResultSet rs = stmt.executeQuery (query);
+	public int executeQueryAndPrintResult (String query, Object... params) throws SQLException {
+		ReportWriter out = ReportWriter.toStdout (ReportWriter.Format.TEXT);
+		try {
+			return (int) export ("executeQueryAndPrintResult", query, out, params);
+		} finally {
+			try {
+				out.close ();
+			} catch (IOException e) {
+				System.err.println (e.getMessage ());
+			}
+		}
+	}
 
-		/*
-		 *  obtains the metadata object for the returned result set.  The metadata
-		 *  contains row and column info.
-		 */
-		ResultSetMetaData rsmd = rs.getMetaData ();
-		int numCol = rsmd.getColumnCount ();
-		int rowCount = 0;
+	/**
+	 * Method to execute a query and write its rows to a report writer as
+	 * they are fetched, streaming through a cursor so the result is never
+	 * held in memory.  The header is written even when there are no rows.
+	 * The caller closes the report writer.
+	 *
+	 * @param query the input query string
+	 * @param out the report writer, e.g. ReportWriter.toFile(ReportWriter.Format.CSV, file)
+	 * @param params the values bound to the '?' placeholders, in order
+	 * @return the number of rows written
+	 * @throws java.sql.SQLException when failed to execute the query or write the rows
+	 */
+	public long exportQuery (String query, ReportWriter out, Object... params) throws SQLException {
+		return export ("exportQuery", query, out, params);
+	}
 
-		//iterates through the result set and output them to standard out.
-		boolean outputHeader = true;
-		while (rs.next()){
-			if(outputHeader){
-				for(int i = 1; i <= numCol; i++){
-					System.out.print(rsmd.getColumnName(i) + "\t");
-			    }
-			    System.out.println();
-			    outputHeader = false;
+	private long export (String operation, String query, ReportWriter out, Object... params) throws SQLException {
+		long start = System.nanoTime ();
+		long rows = FAILED;
+		QueryCursor cursor = null;
+		try {
+			cursor = openCursor (query, FETCH_SIZE, params);
+			Row row = cursor.row ();
+			out.header (row);
+			while (cursor.next ()){
+				out.handle (row);
+			}//end while
+			rows = cursor.getRowCount ();
+			return rows;
+		} finally {
+			if (cursor != null) {
+				cursor.close ();
 			}
-			for (int i=1; i<=numCol; ++i)
-				System.out.print (rs.getString (i) + "\t");
-			System.out.println ();
-			++rowCount;
-		}//end while
-		stmt.close ();
-		return rowCount;
+			record (operation, start, rows, this._pool, query, params);
+		}
 	}
 
 	/**
 	 * Method to execute an input query SQL instruction (i.e. SELECT).  This
 	 * method issues the query to the DBMS and returns the results as
-	 * a list of records. Each record in turn is a list of attribute values
+	 * a list of records. Each record in turn is a list of attribute values.
+	 * The whole result is held in memory; use executeQueryStreaming or
+	 * openCursor for large results.
 	 *
 	 * @param query the input query string
+	 * @param params the values bound to the '?' placeholders, in order
 	 * @return the query result as a list of records
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
-	public List<List<String>> executeQueryAndReturnResult (String query) throws SQLException {
-		//creates a statement object
-		Statement stmt = this._connection.createStatement ();
+	public List<List<String>> executeQueryAndReturnResult (String query, Object... params) throws SQLException {
+		long start = System.nanoTime ();
+		long rows = FAILED;
+		try {
+			//borrows a connection for the duration of the query
+			PooledConnection conn = this._pool.borrow ();
+			try {
+				List<List<String>> result = returnResult (conn.prepare (query, params).executeQuery ());
+				rows = result.size ();
+				return result;
+			} finally {
+				conn.close ();
+			}
+		} finally {
+			record ("executeQueryAndReturnResult", start, rows, this._pool, query, params);
+		}
+	}//end executeQueryAndReturnResult
 
-		//issues the query instruction
-		ResultSet rs = stmt.executeQuery (query);
+	private static List<List<String>> returnResult (ResultSet rs) throws SQLException {
 
 		/*
 		 * obtains the metadata object for the returned result set.  The metadata
@@ -140,65 +264,1014 @@ public class DBproject{
 				record.add(rs.getString (i));
 			result.add(record);
 		}//end while
-		stmt.close ();
+		rs.close ();
 		return result;
-	}//end executeQueryAndReturnResult
+	}//end returnResult
+
+	/**
+	 * Method to execute an input query SQL instruction (i.e. SELECT).  This
+	 * method issues the query to the DBMS and returns the number of results
+	 *
+	 * @param query the input query string
+	 * @param params the values bound to the '?' placeholders, in order
+	 * @return the number of rows returned
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public int executeQuery (String query, Object... params) throws SQLException {
+		long start = System.nanoTime ();
+		long rows = FAILED;
+		try {
+			//borrows a connection for the duration of the query
+			PooledConnection conn = this._pool.borrow ();
+			try {
+				//issues the query instruction
+				ResultSet rs = conn.prepare (query, params).executeQuery ();
+
+				int rowCount = 0;
+
+				//iterates through the result set and count nuber of results.
+				if(rs.next()){
+					rowCount++;
+				}//end while
+				rs.close ();
+				rows = rowCount;
+				return rowCount;
+			} finally {
+				conn.close ();
+			}
+		} finally {
+			record ("executeQuery", start, rows, this._pool, query, params);
+		}
+	}
+
+	/**
+	 * Method to execute a query whose first column is an integer and return
+	 * the value from its first row, read as a primitive.
+	 *
+	 * @param query the input query string
+	 * @param ifEmpty the value returned when the query returns no rows
+	 * @param params the values bound to the '?' placeholders, in order
+	 * @return the first column of the first row, or ifEmpty
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public int queryForInt (String query, int ifEmpty, Object... params) throws SQLException {
+		return queryForInt (this._pool, query, ifEmpty, params);
+	}
+
+	private int queryForInt (ConnectionPool pool, String query, int ifEmpty, Object... params) throws SQLException {
+		long start = System.nanoTime ();
+		long rows = FAILED;
+		try {
+			PooledConnection conn = pool.borrow ();
+			try {
+				ResultSet rs = conn.prepare (query, params).executeQuery ();
+				try {
+					boolean found = rs.next ();
+					int value = found ? rs.getInt (1) : ifEmpty;
+					rows = found ? 1 : 0;
+					return value;
+				} finally {
+					rs.close ();
+				}
+			} finally {
+				conn.close ();
+			}
+		} finally {
+			record ("queryForInt", start, rows, pool, query, params);
+		}
+	}
+
+	/**
+	 * Method to execute a query and collect its first column into a
+	 * primitive int array.
+	 *
+	 * @param query the input query string
+	 * @param params the values bound to the '?' placeholders, in order
+	 * @return the values of the first column, in result order
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public int[] queryForIntColumn (String query, Object... params) throws SQLException {
+		return queryForIntColumn (this._pool, query, params);
+	}
+
+	private int[] queryForIntColumn (ConnectionPool pool, String query, Object... params) throws SQLException {
+		long start = System.nanoTime ();
+		long rows = FAILED;
+		try {
+			PooledConnection conn = pool.borrow ();
+			try {
+				ResultSet rs = conn.prepare (query, params).executeQuery ();
+				try {
+					IntColumn column = new IntColumn ();
+					while (rs.next ()){
+						column.add (rs.getInt (1));
+					}
+					int[] values = column.toArray ();
+					rows = values.length;
+					return values;
+				} finally {
+					rs.close ();
+				}
+			} finally {
+				conn.close ();
+			}
+		} finally {
+			record ("queryForIntColumn", start, rows, pool, query, params);
+		}
+	}
+
+	/**
+	 * Method to execute a query and map every row to a typed object, e.g.
+	 * with Flight.MAPPER.  Columns are read with typed accessors instead of
+	 * being converted to strings.
+	 *
+	 * @param query the input query string
+	 * @param mapper turns the current row into an object
+	 * @param params the values bound to the '?' placeholders, in order
+	 * @return the mapped rows, in result order
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public <T> List<T> queryForList (String query, RowMapper<T> mapper, Object... params) throws SQLException {
+		return queryForList (this._pool, query, mapper, params);
+	}
+
+	private <T> List<T> queryForList (ConnectionPool pool, String query, RowMapper<T> mapper, Object... params) throws SQLException {
+		long start = System.nanoTime ();
+		long rows = FAILED;
+		try {
+			PooledConnection conn = pool.borrow ();
+			try {
+				ResultSet rs = conn.prepare (query, params).executeQuery ();
+				try {
+					Row row = new Row (rs);
+					List<T> result = new ArrayList<T> ();
+					while (rs.next ()){
+						result.add (mapper.map (row));
+					}
+					rows = result.size ();
+					return result;
+				} finally {
+					rs.close ();
+				}
+			} finally {
+				conn.close ();
+			}
+		} finally {
+			record ("queryForList", start, rows, pool, query, params);
+		}
+	}
+
+	/**
+	 * Method to run a read-only query about one flight like queryForInt: on
+	 * the flight's shard when there are shards, else on a replica when
+	 * ReplicaRouter has one that is recent enough and on the primary
+	 * otherwise, or when the replica fails.
+	 *
+	 * @param fnum the flight the query reads
+	 * @param query the input query string
+	 * @param ifEmpty the value returned when the query returns no rows
+	 * @param params the values bound to the '?' placeholders, in order
+	 * @return the first column of the first row, or ifEmpty
+	 * @throws java.sql.SQLException when failed to execute the query on the primary
+	 */
+	private int readInt (int fnum, String query, int ifEmpty, Object... params) throws SQLException {
+		if (this._shards != null) {
+			return queryForInt (this._shards.poolOf (fnum), query, ifEmpty, params);
+		}
+		ConnectionPool replica = this._replicas == null ? null : this._replicas.choose ();
+		if (replica != null) {
+			try {
+				return queryForInt (replica, query, ifEmpty, params);
+			} catch (SQLException e) {
+				this._replicas.failed (replica, e);
+			}
+		}
+		return queryForInt (this._pool, query, ifEmpty, params);
+	}
+
+	/**
+	 * Method to run a read-only query like queryForList, on a replica when
+	 * ReplicaRouter has one that is recent enough, see readInt.
+	 *
+	 * @param query the input query string
+	 * @param mapper turns the current row into an object
+	 * @param params the values bound to the '?' placeholders, in order
+	 * @return the mapped rows, in result order
+	 * @throws java.sql.SQLException when failed to execute the query on the primary
+	 */
+	private <T> List<T> readList (String query, RowMapper<T> mapper, Object... params) throws SQLException {
+		ConnectionPool replica = this._replicas == null ? null : this._replicas.choose ();
+		if (replica != null) {
+			try {
+				return queryForList (replica, query, mapper, params);
+			} catch (SQLException e) {
+				this._replicas.failed (replica, e);
+			}
+		}
+		return queryForList (this._pool, query, mapper, params);
+	}
+
+	/**
+	 * Method to run a query on every shard at once and concatenate the rows,
+	 * shard by shard.  Without shards it is queryForList.
+	 *
+	 * @param query the input query string
+	 * @param mapper turns the current row into an object
+	 * @param params the values bound to the '?' placeholders, in order
+	 * @return the mapped rows of every shard
+	 * @throws java.sql.SQLException when failed to execute the query on any shard
+	 */
+	public <T> List<T> queryForListAcrossShards (final String query, final RowMapper<T> mapper, final Object... params) throws SQLException {
+		if (this._shards == null) {
+			return queryForList (query, mapper, params);
+		}
+		List<T> result = new ArrayList<T> ();
+		for (List<T> rows : this._shards.scatter (new ShardRouter.Task<List<T>> () {
+			public List<T> run (int shard, ConnectionPool pool) throws SQLException {
+				return queryForList (pool, query, mapper, params);
+			}
+		})) {
+			result.addAll (rows);
+		}
+		return result;
+	}
+
+	/**
+	 * Method to run a query on every shard at once and concatenate the first
+	 * columns, shard by shard.  Without shards it is queryForIntColumn.
+	 *
+	 * @param query the input query string
+	 * @param params the values bound to the '?' placeholders, in order
+	 * @return the values of the first column of every shard
+	 * @throws java.sql.SQLException when failed to execute the query on any shard
+	 */
+	public int[] queryForIntColumnAcrossShards (final String query, final Object... params) throws SQLException {
+		if (this._shards == null) {
+			return queryForIntColumn (query, params);
+		}
+		IntColumn result = new IntColumn ();
+		for (int[] values : this._shards.scatter (new ShardRouter.Task<int[]> () {
+			public int[] run (int shard, ConnectionPool pool) throws SQLException {
+				return queryForIntColumn (pool, query, params);
+			}
+		})) {
+			for (int value : values) {
+				result.add (value);
+			}
+		}
+		return result.toArray ();
+	}
+
+	/**
+	 * Method to stream a query from every shard in turn into one handler,
+	 * which therefore needs no locking.  Without shards it is
+	 * executeQueryStreaming.
+	 *
+	 * @param query the input query string
+	 * @param handler called once per row
+	 * @param params the values bound to the '?' placeholders, in order
+	 * @return the number of rows returned
+	 * @throws java.sql.SQLException when failed to execute the query or the handler fails
+	 */
+	public long executeQueryStreamingAcrossShards (String query, RowHandler handler, Object... params) throws SQLException {
+		if (this._shards == null) {
+			return executeQueryStreaming (query, handler, params);
+		}
+		long rows = 0;
+		for (int shard = 0; shard < this._shards.getShardCount (); shard++) {
+			rows += executeQueryStreaming (this._shards.getPool (shard), query, FETCH_SIZE, handler, params);
+		}
+		return rows;
+	}
+
+	/**
+	 * Method to run an update on every shard, for the tables copied to all
+	 * of them.  Each shard runs it in a transaction and all are committed
+	 * once every shard has succeeded, so a failure leaves the row nowhere;
+	 * only a shard lost between the commits can miss it.  Without shards it
+	 * is executeUpdate.
+	 *
+	 * @param sql the input SQL string with '?' placeholders
+	 * @param params the values bound to the placeholders, in order
+	 * @return the number of rows affected on one shard
+	 * @throws java.sql.SQLException when the update fails on any shard
+	 */
+	private int executeUpdateOnEveryShard (String sql, Object... params) throws SQLException {
+		if (this._shards == null) {
+			return executeUpdate (sql, params);
+		}
+		long start = System.nanoTime ();
+		long rows = FAILED;
+		List<PooledConnection> conns = new ArrayList<PooledConnection> ();
+		try {
+			try {
+				int updated = 0;
+				// shard by shard in the same order everywhere, so concurrent callers never wait on each other in a cycle.
+				for (int shard = 0; shard < this._shards.getShardCount (); shard++) {
+					PooledConnection conn = this._shards.getPool (shard).borrow ();
+					conns.add (conn);
+					conn.getConnection ().setAutoCommit (false);
+					updated = conn.prepare (sql, params).executeUpdate ();
+				}
+				for (PooledConnection conn : conns) {
+					conn.getConnection ().commit ();
+				}
+				rows = updated;
+				return updated;
+			} finally {
+				// gives the connections back, rolling back whatever was not committed.
+				for (PooledConnection conn : conns) {
+					conn.close ();
+				}
+			}
+		} finally {
+			record ("executeUpdateOnEveryShard", start, rows, this._pool, sql, params);
+		}
+	}
+
+	/**
+	 * Method to run a {key, count} report on every shard and add up the
+	 * counts of each key.
+	 *
+	 * @param query the report, selecting the key and the count
+	 * @param ascending whether to order by count ascending or descending
+	 * @return {key, total count} pairs by count, then key
+	 * @throws java.sql.SQLException when failed to execute the query on any shard
+	 */
+	private List<int[]> sumAcrossShards (String query, final boolean ascending) throws SQLException {
+		Map<Integer, int[]> sums = new TreeMap<Integer, int[]> ();
+		for (int[] pair : queryForListAcrossShards (query, INT_PAIR)) {
+			int[] sum = sums.get (pair[0]);
+			if (sum == null) {
+				sums.put (pair[0], pair);
+			}
+			else {
+				sum[1] += pair[1];
+			}
+		}
+		List<int[]> result = new ArrayList<int[]> (sums.values ());
+		Collections.sort (result, new Comparator<int[]> () {
+			public int compare (int[] a, int[] b) {
+				return ascending ? Integer.compare (a[1], b[1]) : Integer.compare (b[1], a[1]);
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Method to open a streaming query.  Rows are fetched fetchSize at a time
+	 * through a server-side cursor, so memory stays flat regardless of the
+	 * size of the result.  The caller must close the returned cursor.
+	 *
+	 * @param query the input query string
+	 * @param fetchSize the number of rows fetched per round trip
+	 * @param params the values bound to the '?' placeholders, in order
+	 * @return the open cursor, positioned before the first row
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public QueryCursor openCursor (String query, int fetchSize, Object... params) throws SQLException {
+		return new QueryCursor (this._pool.borrow (), query, fetchSize, params);
+	}
+
+	/**
+	 * Method to execute a query and hand each row to a handler as it is
+	 * fetched, instead of materializing the result.
+	 *
+	 * @param query the input query string
+	 * @param fetchSize the number of rows fetched per round trip
+	 * @param handler called once per row
+	 * @param params the values bound to the '?' placeholders, in order
+	 * @return the number of rows returned
+	 * @throws java.sql.SQLException when failed to execute the query or the handler fails
+	 */
+	public long executeQueryStreaming (String query, int fetchSize, RowHandler handler, Object... params) throws SQLException {
+		return executeQueryStreaming (this._pool, query, fetchSize, handler, params);
+	}
+
+	private long executeQueryStreaming (ConnectionPool pool, String query, int fetchSize, RowHandler handler, Object... params) throws SQLException {
+		long start = System.nanoTime ();
+		long rows = FAILED;
+		QueryCursor cursor = null;
+		try {
+			cursor = new QueryCursor (pool.borrow (), query, fetchSize, params);
+			while (cursor.next ()){
+				handler.handle (cursor.row ());
+			}
+			rows = cursor.getRowCount ();
+			return rows;
+		} finally {
+			if (cursor != null) {
+				cursor.close ();
+			}
+			record ("executeQueryStreaming", start, rows, pool, query, params);
+		}
+	}
+
+	/**
+	 * Method to execute a query and hand each row to a handler, fetching
+	 * airline.fetchSize rows per round trip.
+	 *
+	 * @param query the input query string
+	 * @param handler called once per row
+	 * @param params the values bound to the '?' placeholders, in order
+	 * @return the number of rows returned
+	 * @throws java.sql.SQLException when failed to execute the query or the handler fails
+	 */
+	public long executeQueryStreaming (String query, RowHandler handler, Object... params) throws SQLException {
+		return executeQueryStreaming (query, FETCH_SIZE, handler, params);
+	}
+
+	/**
+	 * Method to borrow a connection from the pool for work that must run on
+	 * one session, such as a transaction.  The caller must close the
+	 * returned connection to give it back.
+	 *
+	 * @return a pooled connection
+	 * @throws java.sql.SQLException when no connection becomes available
+	 */
+	public PooledConnection getConnection () throws SQLException {
+		return this._pool.borrow ();
+	}
+
+	/**
+	 * Method to borrow a connection to the database that holds a flight,
+	 * for work on the flight and its reservations.  Without shards it is
+	 * getConnection().
+	 *
+	 * @param fnum the flight number
+	 * @return a pooled connection to the flight's shard
+	 * @throws java.sql.SQLException when no connection becomes available
+	 */
+	public PooledConnection getConnection (int fnum) throws SQLException {
+		return poolOf (fnum).borrow ();
+	}
+
+	private ConnectionPool poolOf (int fnum) {
+		return this._shards == null ? this._pool : this._shards.poolOf (fnum);
+	}
+
+	/**
+	 * Method to return the generator of primary keys for new rows.
+	 *
+	 * @return the id generator
+	 */
+	public IdGenerator getIdGenerator () {
+		return this._ids;
+	}
+
+	/**
+	 * Method to return the seat allocator used to book flights.
+	 *
+	 * @return the seat allocator
+	 */
+	public SeatAllocator getSeatAllocator () {
+		return this._allocator;
+	}
+
+	/**
+	 * Method to return the cache of seats left per flight number.  Code that
+	 * changes Flight.num_sold or a flight's plane must update or invalidate
+	 * the flight's entry; changes made by other processes show up once the
+	 * entry expires (airline.seatCache.ttlMs).
+	 *
+	 * @return the seat availability cache
+	 */
+	public TtlCache<Integer, Integer> getSeatCache () {
+		return this._seatCache;
+	}
+
+	/**
+	 * Method to return the flight search, e.g. to read its cache statistics.
+	 *
+	 * @return the flight search
+	 */
+	public FlightSearch getFlightSearch () {
+		return this._search;
+	}
+
+	/**
+	 * Method to return the reference data snapshot holder.
+	 *
+	 * @return the reference data
+	 */
+	public ReferenceData getReferenceData () {
+		return this._reference;
+	}
+
+	/**
+	 * Method to return the route graph, loading every flight the first time.
+	 * Flights added through addFlight are added to it as well; call
+	 * RouteGraph.refresh for those added by other processes.
+	 *
+	 * @return the route graph
+	 * @throws java.sql.SQLException when the flights cannot be read
+	 */
+	public RouteGraph getRouteGraph () throws SQLException {
+		RouteGraph routes = this._routes;
+		if (routes == null) {
+			synchronized (this) {
+				routes = this._routes;
+				if (routes == null) {
+					routes = new RouteGraph (this);
+					routes.reload ();
+					this._routes = routes;
+				}
+			}
+		}
+		return routes;
+	}
+
+	/**
+	 * Method to return the per-operation statistics.
+	 *
+	 * @return the metrics
+	 */
+	public Metrics getMetrics () {
+		return this._metrics;
+	}
+
+	//rows value recorded for an operation that threw
+	private static final long FAILED = -1;
+
+	/**
+	 * Method to record one call of an operation.
+	 *
+	 * @param operation the operation name
+	 * @param startNanos System.nanoTime() when the call started
+	 * @param rows the rows returned or affected, or FAILED when the call threw
+	 */
+	private void record (String operation, long startNanos, long rows) {
+		OperationStats stats = this._metrics.operation (operation);
+		if (rows == FAILED) {
+			stats.failure (startNanos);
+		}
+		else {
+			stats.success (startNanos, rows);
+		}
+	}
+
+	/**
+	 * Method to record one statement run by a query method: the call is
+	 * recorded under the method's name and the statement under its shape.
+	 *
+	 * @param operation the query method name
+	 * @param startNanos System.nanoTime() when the call started
+	 * @param rows the rows returned or affected, or FAILED when the call threw
+	 * @param pool the pool the statement ran on, where it is explained
+	 * @param sql the statement text
+	 * @param params the values bound to its placeholders
+	 */
+	private void record (String operation, long startNanos, long rows, ConnectionPool pool, String sql, Object[] params) {
+		record (operation, startNanos, rows);
+		this._slowQueries.observe (pool, sql, params, startNanos, rows);
+	}
+
+	/**
+	 * Method to return the time spent per query shape and the slow
+	 * statement log.
+	 *
+	 * @return the slow query log
+	 */
+	public SlowQueryLog getSlowQueryLog () {
+		return this._slowQueries;
+	}
+
+	/**
+	 * Method to return the connection pool, e.g. to read its statistics.
+	 *
+	 * @return the connection pool
+	 */
+	public ConnectionPool getPool () {
+		return this._pool;
+	}
+
+	/**
+	 * Method to return the router of the read-only reports.
+	 *
+	 * @return the router, or null when no replicas are configured
+	 */
+	public ReplicaRouter getReplicaRouter () {
+		return this._replicas;
+	}
+
+	/**
+	 * Method to return the placement of flights on shards.
+	 *
+	 * @return the router, or null when the database is not sharded
+	 */
+	public ShardRouter getShardRouter () {
+		return this._shards;
+	}
+
+	//the calling thread's reads must now see its writes
+	private void wrote () {
+		if (this._replicas != null) {
+			this._replicas.wrote ();
+		}
+	}
+
+	/**
+	 * Method to return a token for the last write of the calling thread's
+	 * session, see ReplicaRouter.getWriteToken.
+	 *
+	 * @return the token, or null when there are no replicas or nothing was written
+	 */
+	public String getWriteToken () {
+		return this._replicas == null ? null : this._replicas.getWriteToken ();
+	}
+
+	/**
+	 * Method to make the reads of the calling thread see the write of a
+	 * token, and no earlier write of the thread, see ReplicaRouter.readAfter.
+	 *
+	 * @param token the token of getWriteToken, or null
+	 */
+	public void readAfter (String token) {
+		if (this._replicas != null) {
+			this._replicas.readAfter (token);
+		}
+	}
+
+	/**
+	 * Method to fetch the last value from sequence. This
+	 * method issues the query to the DBMS and returns the current
+	 * value of sequence used for autogenerated keys.  currval is scoped to
+	 * a session, so with pooled connections it is only meaningful on the
+	 * connection that last called nextval.
+	 *
+	 * @param sequence name of the DB sequence
+	 * @return current value of a sequence
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+
+	public int getCurrSeqVal(String sequence) throws SQLException {
+		PooledConnection conn = this._pool.borrow ();
+		try {
+			Statement stmt = conn.getConnection ().createStatement ();
+
+			ResultSet rs = stmt.executeQuery (String.format("Select currval('%s')", sequence));
+			try {
+				if (rs.next()) return rs.getInt(1);
+				return -1;
+			} finally {
+				stmt.close ();
+			}
+		} finally {
+			conn.close ();
+		}
+	}
+
+	/**
+	 * Method to close the physical connections if they are open.
+	 */
+	public void cleanup(){
+		if (this._reference != null){
+			this._reference.close ();
+		}//end if
+		if (this._slowQueries != null){
+			this._slowQueries.close ();
+		}//end if
+		if (this._metrics != null){
+			this._metrics.close ();
+		}//end if
+		if (this._replicas != null){
+			this._replicas.close ();
+		}//end if
+		if (this._shards != null){
+			this._shards.close ();
+		}//end if
+		if (this._pool != null){
+			this._pool.close ();
+		}//end if
+	}//end cleanup
+
+	/**
+	 * Method to add a plane.
+	 *
+	 * @return the id of the new plane
+	 * @throws java.sql.SQLException when the insert fails
+	 */
+	public int addPlane (String make, String model, int age, int seats) throws SQLException {
+		long start = System.nanoTime ();
+		long rows = FAILED;
+		try {
+			int id = this._ids.next (IdGenerator.PLANE);
+			rows = executeUpdateOnEveryShard (Queries.INSERT_PLANE, id, make, model, age, seats);
+			return id;
+		} finally {
+			record ("AddPlane", start, rows);
+		}
+	}
+
+	/**
+	 * Method to add a pilot.
+	 *
+	 * @return the id of the new pilot
+	 * @throws java.sql.SQLException when the insert fails
+	 */
+	public int addPilot (String fullname, String nationality) throws SQLException {
+		long start = System.nanoTime ();
+		long rows = FAILED;
+		try {
+			int id = this._ids.next (IdGenerator.PILOT);
+			rows = executeUpdateOnEveryShard (Queries.INSERT_PILOT, id, fullname, nationality);
+			return id;
+		} finally {
+			record ("AddPilot", start, rows);
+		}
+	}
+
+	/**
+	 * Method to add a flight.  The Reservation and Schedule partitions of
+	 * its departure month are created first when they do not exist yet, so
+	 * the flight can be booked whatever PartitionManager has prepared.
+	 *
+	 * @return the number of the new flight
+	 * @throws java.sql.SQLException when the insert fails
+	 * @throws java.lang.IllegalArgumentException when the flight arrives before it departs
+	 */
+	public int addFlight (int cost, int numSold, int numStops, Date departureDate, Date arrivalDate, String arrivalAirport, String departureAirport) throws SQLException {
+		long start = System.nanoTime ();
+		long rows = FAILED;
+		try {
+			if (arrivalDate.before (departureDate)) {
+				throw new IllegalArgumentException ("The flight cannot arrive (" + arrivalDate + ") before it departs (" + departureDate + ")");
+			}
+			int fnum = this._ids.next (IdGenerator.FLIGHT);
+			ConnectionPool pool = poolOf (fnum);
+			queryForInt (pool, PartitionManager.CREATE_PARTITIONS, 0, departureDate, departureDate);
+			rows = executeUpdate (pool, Queries.INSERT_FLIGHT, fnum, cost, numSold, numStops, departureDate, arrivalDate, arrivalAirport, departureAirport);
+			RouteGraph routes = this._routes;
+			if (routes != null) {
+				routes.add (new Flight (fnum, cost, numSold, numStops, departureDate.toLocalDate (), arrivalDate.toLocalDate (), arrivalAirport, departureAirport));
+			}
+			return fnum;
+		} finally {
+			record ("AddFlight", start, rows);
+		}
+	}
+
+	/**
+	 * Method to add a technician.
+	 *
+	 * @return the id of the new technician
+	 * @throws java.sql.SQLException when the insert fails
+	 */
+	public int addTechnician (String fullName) throws SQLException {
+		long start = System.nanoTime ();
+		long rows = FAILED;
+		try {
+			int id = this._ids.next (IdGenerator.TECHNICIAN);
+			rows = executeUpdateOnEveryShard (Queries.INSERT_TECHNICIAN, id, fullName);
+			return id;
+		} finally {
+			record ("AddTechnician", start, rows);
+		}
+	}
+
+	/**
+	 * Method to book a seat on a flight, see SeatAllocator.book.
+	 *
+	 * @return the outcome and the reservation number created, if any
+	 * @throws java.sql.SQLException when the booking fails
+	 */
+	public SeatAllocator.Result bookFlight (int cid, int fnum, boolean allowWaitlist) throws SQLException {
+		long start = System.nanoTime ();
+		long rows = FAILED;
+		try {
+			SeatAllocator.Result result = this._allocator.book (cid, fnum, allowWaitlist);
+			rows = result.rnum >= 0 ? 1 : 0;
+			return result;
+		} finally {
+			wrote ();
+			record ("BookFlight", start, rows);
+		}
+	}
+
+	/**
+	 * Method to cancel a reservation, promoting the head of the flight's
+	 * waitlist into a freed seat, see SeatAllocator.cancel.
+	 *
+	 * @param rnum the reservation number
+	 * @return what was cancelled and promoted, or null when the reservation does not exist
+	 * @throws java.sql.SQLException when the cancellation fails
+	 */
+	public SeatAllocator.Cancellation cancelReservation (int rnum) throws SQLException {
+		long start = System.nanoTime ();
+		long rows = FAILED;
+		try {
+			SeatAllocator.Cancellation result = this._allocator.cancel (rnum);
+			rows = result == null ? 0 : 1;
+			return result;
+		} finally {
+			wrote ();
+			record ("CancelReservation", start, rows);
+		}
+	}
+
+	/**
+	 * Method to find flights between two airports, see FlightSearch.search.
+	 *
+	 * @return the flights of the page and the cursor of the next page
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public FlightSearch.Page searchFlights (String from, String to, LocalDate first, LocalDate last, boolean withSeats, String after, int limit) throws SQLException {
+		long start = System.nanoTime ();
+		long rows = FAILED;
+		try {
+			FlightSearch.Page page = this._search.search (from, to, first, last, withSeats, after, limit);
+			rows = page.offers.size ();
+			return page;
+		} finally {
+			record ("SearchFlights", start, rows);
+		}
+	}
+
+	/**
+	 * Method to find the best itinerary between two airports, see
+	 * RouteGraph.find.
+	 *
+	 * @return the itinerary, or null when there is none
+	 * @throws java.sql.SQLException when the route graph cannot be loaded
+	 */
+	public RouteGraph.Itinerary findItinerary (String from, String to, LocalDate first, LocalDate last, int maxConnections, int minConnectMinutes, RouteGraph.Objective objective) throws SQLException {
+		long start = System.nanoTime ();
+		long rows = FAILED;
+		try {
+			RouteGraph.Itinerary itinerary = getRouteGraph ().find (from, to, first, last, maxConnections, minConnectMinutes, objective);
+			rows = itinerary == null ? 0 : itinerary.legs.size ();
+			return itinerary;
+		} finally {
+			record ("FindItinerary", start, rows);
+		}
+	}
+
+	/**
+	 * Method to count the seats left on a flight.  The answer comes from the
+	 * seat cache when it holds the flight and from the database otherwise;
+	 * when the reference snapshot knows the flight's plane, only the seats
+	 * sold are read, without the join.
+	 *
+	 * @return the plane capacity minus the seats sold, or Integer.MIN_VALUE
+	 *         when the flight does not exist or has no plane
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public int seatsAvailable (int fnum) throws SQLException {
+		long start = System.nanoTime ();
+		long rows = FAILED;
+		try {
+			Integer cached = this._seatCache.get (fnum);
+			if (cached != null) {
+				rows = 1;
+				return cached;
+			}
+			ReferenceSnapshot reference = this._reference.get ();
+			int seats = reference == null ? Integer.MIN_VALUE : reference.seatsOfFlight (fnum);
+			int seatsLeft;
+			if (seats == Integer.MIN_VALUE) {
+				seatsLeft = readInt (fnum, Queries.SEATS_LEFT, Integer.MIN_VALUE, fnum);
+			}
+			else {
+				int sold = readInt (fnum, Queries.SEATS_SOLD, Integer.MIN_VALUE, fnum);
+				seatsLeft = sold == Integer.MIN_VALUE ? Integer.MIN_VALUE : seats - sold;
+			}
+			// a replica may be behind the bookings, so only the primary's answer is cached;
+			// a booking may have written a newer value while the query ran.
+			if (seatsLeft != Integer.MIN_VALUE && this._replicas == null) {
+				this._seatCache.putIfAbsent (fnum, seatsLeft);
+			}
+			rows = seatsLeft == Integer.MIN_VALUE ? 0 : 1;
+			return seatsLeft;
+		} finally {
+			record ("ListNumberOfAvailableSeats", start, rows);
+		}
+	}
+
+	/**
+	 * Method to count the repairs of every plane, most repaired first.
+	 *
+	 * @return {plane id, repair count} pairs
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public List<int[]> repairsPerPlane () throws SQLException {
+		long start = System.nanoTime ();
+		long rows = FAILED;
+		try {
+			List<int[]> result = this._shards == null ? readList (Queries.REPAIRS_PER_PLANE, INT_PAIR) : sumAcrossShards (Queries.REPAIRS_PER_PLANE, false);
+			rows = result.size ();
+			return result;
+		} finally {
+			record ("ListsTotalNumberOfRepairsPerPlane", start, rows);
+		}
+	}
+
+	/**
+	 * Method to count the repairs of every year, fewest first.
+	 *
+	 * @return {year, repair count} pairs
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public List<int[]> repairsPerYear () throws SQLException {
+		long start = System.nanoTime ();
+		long rows = FAILED;
+		try {
+			List<int[]> result = this._shards == null ? readList (Queries.REPAIRS_PER_YEAR, INT_PAIR) : sumAcrossShards (Queries.REPAIRS_PER_YEAR, true);
+			rows = result.size ();
+			return result;
+		} finally {
+			record ("ListTotalNumberOfRepairsPerYear", start, rows);
+		}
+	}
 
 	/**
-	 * Method to execute an input query SQL instruction (i.e. SELECT).  This
-	 * method issues the query to the DBMS and returns the number of results
+	 * Method to count the passengers of a flight with a status.
 	 *
-	 * @param query the input query string
-	 * @return the number of rows returned
+	 * @param status 'R', 'C' or 'W'
+	 * @return the number of reservations
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
-	public int executeQuery (String query) throws SQLException {
-		//creates a statement object
-		Statement stmt = this._connection.createStatement ();
-
-		//issues the query instruction
-		ResultSet rs = stmt.executeQuery (query);
-
-		int rowCount = 0;
-
-		//iterates through the result set and count nuber of results.
-		if(rs.next()){
-			rowCount++;
-		}//end while
-		stmt.close ();
-		return rowCount;
+	public int passengerCount (int fnum, char status) throws SQLException {
+		long start = System.nanoTime ();
+		long rows = FAILED;
+		try {
+			int count = readInt (fnum, Queries.PASSENGERS_WITH_STATUS, 0, fnum, String.valueOf (status));
+			rows = 1;
+			return count;
+		} finally {
+			record ("FindPassengersCountWithStatus", start, rows);
+		}
 	}
 
 	/**
-	 * Method to fetch the last value from sequence. This
-	 * method issues the query to the DBMS and returns the current
-	 * value of sequence used for autogenerated keys
+	 * Method to count the reservations of each status for many flights in
+	 * one query.  Every flight number asked for gets a breakdown, with zero
+	 * counts when it has no reservations or does not exist.
 	 *
-	 * @param sequence name of the DB sequence
-	 * @return current value of a sequence
+	 * @param fnums the flight numbers, duplicates are ignored
+	 * @return one breakdown per distinct flight number, by flight number
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
-
-	public int getCurrSeqVal(String sequence) throws SQLException {
-		Statement stmt = this._connection.createStatement ();
-
-		ResultSet rs = stmt.executeQuery (String.format("Select currval('%s')", sequence));
-		if (rs.next()) return rs.getInt(1);
-		return -1;
+	public List<PassengerBreakdown> passengerBreakdown (int... fnums) throws SQLException {
+		long start = System.nanoTime ();
+		long rows = FAILED;
+		try {
+			List<PassengerBreakdown> result = this._shards == null ? readList (Queries.PASSENGER_BREAKDOWN, PassengerBreakdown.MAPPER, (Object) fnums) : breakdownAcrossShards (fnums);
+			rows = result.size ();
+			return result;
+		} finally {
+			record ("FindPassengersCountWithStatus", start, rows);
+		}
 	}
 
 	/**
-	 * Method to close the physical connection if it is open.
+	 * Method to count the reservations of many flights on their shards: the
+	 * flights are grouped by shard and each group is counted by its shard,
+	 * all at once.
+	 *
+	 * @param fnums the flight numbers
+	 * @return one breakdown per distinct flight number, by flight number
+	 * @throws java.sql.SQLException when failed to execute the query on any shard
 	 */
-	public void cleanup(){
-		try{
-			if (this._connection != null){
-				this._connection.close ();
-			}//end if
-		}catch (SQLException e){
-	         // ignored.
-		}//end try
-	}//end cleanup
+	private List<PassengerBreakdown> breakdownAcrossShards (int[] fnums) throws SQLException {
+		final IntColumn[] groups = new IntColumn[this._shards.getShardCount ()];
+		int used = -1;
+		for (int fnum : fnums) {
+			int shard = this._shards.shardOf (fnum);
+			if (groups[shard] == null) {
+				groups[shard] = new IntColumn ();
+				used = used == -1 ? shard : -2;
+			}
+			groups[shard].add (fnum);
+		}
+		if (used >= 0) {
+			// one shard holds them all, e.g. a single flight: no need to ask the others.
+			return queryForList (this._shards.poolOf (fnums[0]), Queries.PASSENGER_BREAKDOWN, PassengerBreakdown.MAPPER, (Object) fnums);
+		}
+		List<PassengerBreakdown> result = new ArrayList<PassengerBreakdown> ();
+		for (List<PassengerBreakdown> rows : this._shards.scatter (new ShardRouter.Task<List<PassengerBreakdown>> () {
+			public List<PassengerBreakdown> run (int shard, ConnectionPool pool) throws SQLException {
+				if (groups[shard] == null) {
+					return Collections.<PassengerBreakdown>emptyList ();
+				}
+				return queryForList (pool, Queries.PASSENGER_BREAKDOWN, PassengerBreakdown.MAPPER, (Object) groups[shard].toArray ());
+			}
+		})) {
+			result.addAll (rows);
+		}
+		Collections.sort (result, new Comparator<PassengerBreakdown> () {
+			public int compare (PassengerBreakdown a, PassengerBreakdown b) {
+				return Integer.compare (a.fnum, b.fnum);
+			}
+		});
+		return result;
+	}
+
+	//reads the first two columns as ints
+	static final RowMapper<int[]> INT_PAIR = new RowMapper<int[]>() {
+		public int[] map (Row row) throws SQLException {
+			return new int[] {row.getInt (1), row.getInt (2)};
+		}
+	};
 
 	/**
 	 * The main execution method
@@ -251,7 +1324,10 @@ public class DBproject{
 				System.out.println("7. List total number of repairs per plane in descending order");
 				System.out.println("8. List total number of repairs per year in ascending order");
 				System.out.println("9. Find total number of passengers with a given status");
-				System.out.println("10. < EXIT");
+				System.out.println("10. Cancel a reservation");
+				System.out.println("11. Search flights by airports and departure dates");
+				System.out.println("12. Show the query shapes taking the most time");
+				System.out.println("13. < EXIT");
 				System.out.print("\033[0m"); // reset color
 
 				switch (readChoice()){
@@ -264,7 +1340,10 @@ public class DBproject{
 					case 7: ListsTotalNumberOfRepairsPerPlane(esql); break;
 					case 8: ListTotalNumberOfRepairsPerYear(esql); break;
 					case 9: FindPassengersCountWithStatus(esql); break;
-					case 10: keepon = false; break;
+					case 10: CancelReservation(esql); break;
+					case 11: SearchFlights(esql); break;
+					case 12: ShowQueryTimeSummary(esql); break;
+					case 13: keepon = false; break;
 				}
 			}
 		}catch(Exception e){
@@ -436,11 +1515,7 @@ public class DBproject{
 		// add plane.
 		try
 		{
-			String queryA = "SELECT id FROM Plane";
-			List<List<String>> plane_id = esql.executeQueryAndReturnResult(queryA);
-			id = plane_id.size();
-			String queryB = "INSERT INTO Plane VALUES(" + id + ", \'" + make + "\', \'" + model + "\', " + age + ", " + seats + ");";
-			esql.executeUpdate(queryB);
+			id = esql.addPlane(make, model, age, seats);
 			System.out.print("\033[1;36m"); // bold cyan
 			System.out.println("\tThe plane is added successfully!");
 			System.out.print("\033[0m"); // reset color
@@ -511,11 +1586,7 @@ public class DBproject{
 		// add pilot.
 		try
 		{
-			String queryA = "SELECT id FROM Pilot";
-			List<List<String>> pilot_id = esql.executeQueryAndReturnResult(queryA);
-			id = pilot_id.size();
-			String queryB = "INSERT INTO Pilot VALUES(" + id + ", \'" + fullname + "\', \'" + nationality + "\');";
-			esql.executeUpdate(queryB);
+			id = esql.addPilot(fullname, nationality);
 			System.out.print("\033[1;36m"); // bold cyan
 			System.out.println("\tThe pilot is added successfully!");
 			System.out.print("\033[0m"); // reset color
@@ -648,6 +1719,7 @@ public class DBproject{
 				System.out.print("\033[1;36m"); // bold cyan
 				departure_date = in.readLine();
 				System.out.print("\033[0m"); // reset color
+				Date.valueOf(departure_date); // rejects anything but YYYY-MM-DD
 				break;
 			}
 			catch(Exception e)
@@ -671,7 +1743,17 @@ public class DBproject{
 				System.out.print("\033[1;36m"); // bold cyan
 				arrival_date = in.readLine();
 				System.out.print("\033[0m"); // reset color
-				break;
+				if(Date.valueOf(arrival_date).before(Date.valueOf(departure_date))) // also rejects anything but YYYY-MM-DD
+				{
+					System.out.print("\033[101m"); // red background
+					System.out.print("\033[1;37m"); // bold white
+					System.out.print("\tInvalid arrival date, the flight cannot arrive before it departs.");
+					System.out.println("\033[0m"); // reset color
+				}
+				else
+				{
+					break;
+				}
 			}
 			catch(Exception e)
 			{
@@ -757,11 +1839,7 @@ public class DBproject{
 		// add flight.
 		try
 		{
-			String queryA = "SELECT fnum FROM Flight";
-			List<List<String>> flight_id = esql.executeQueryAndReturnResult(queryA);
-			id = flight_id.size();
-			String queryB = "INSERT INTO Flight VALUES(" + id + ", " + cost + ", " + num_sold + ", " + num_stops + ", \'" + departure_date + "\', \'" + arrival_date + "\', \'" + arrival_airport + "\', \'" + departure_airport + "\');";
-			esql.executeUpdate(queryB);
+			id = esql.addFlight(cost, num_sold, num_stops, Date.valueOf(departure_date), Date.valueOf(arrival_date), arrival_airport, departure_airport);
 			System.out.print("\033[1;36m"); // bold cyan
 			System.out.println("\tThe flight is added successfully!");
 			System.out.print("\033[0m"); // reset color
@@ -809,11 +1887,7 @@ public class DBproject{
 		// add technician.
 		try
 		{
-			String queryA = "SELECT id FROM Technician";
-			List<List<String>> technician_id = esql.executeQueryAndReturnResult(queryA);
-			id = technician_id.size();
-			String queryB = "INSERT INTO Technician VALUES(" + id + ", \'" + full_name + "\');";
-			esql.executeUpdate(queryB);
+			id = esql.addTechnician(full_name);
 			System.out.print("\033[1;36m"); // bold cyan
 			System.out.println("\tThe technician is added successfully!");
 			System.out.print("\033[0m"); // reset color
@@ -881,36 +1955,25 @@ public class DBproject{
 
 		try
 		{
-			// get reserveration number.
-			String queryA = "SELECT rnum FROM Reservation";
-			List<List<String>> reserveNum = esql.executeQueryAndReturnResult(queryA);
-			int rnum = reserveNum.size();
-
-			// check if there are available seats.
-			String seatsQuery = "SELECT P.seats - F.num_sold FROM Flight F, Plane P, FlightInfo I WHERE F.fnum = I.flight_id AND I.flight_id = P.id AND F.fnum = " + fnum;
-			List<List<String>> seatsResult = esql.executeQueryAndReturnResult(seatsQuery);
-			int seatsLeft = Integer.parseInt(seatsResult.get(0).get(0));
-			if(seatsLeft == 0)
+			// take a seat, or learn that the flight is full, in one round trip.
+			SeatAllocator.Result result = esql.bookFlight(cid, fnum, false);
+			if(result.outcome == SeatAllocator.Outcome.SOLD_OUT)
 			{
 				System.out.print("\033[1;33m"); // bold yellow
 				System.out.print("\tSorry, the flight you want to book is sold out. Would you like to be waitlisted?(Y/N): ");
 				System.out.print("\033[0m"); // reset color
 			}
-			while(seatsLeft == 0)
+			while(result.outcome == SeatAllocator.Outcome.SOLD_OUT)
 			{
 				System.out.print("\033[1;36m"); // bold cyan
 				userInput = in.readLine();
 				System.out.print("\033[0m"); // reset color
 				upperuserInput = userInput.toUpperCase();
 
-				// add to the waitlist.
+				// add to the waitlist, unless a seat freed up meanwhile.
 				if(upperuserInput.equals("Y"))
 				{
-					String waitlistQuery = "INSERT INTO Reservation VALUES(" + rnum + ", " + cid + ", " + fnum + "," + "'W');";
-					esql.executeUpdate(waitlistQuery);
-					System.out.print("\033[1;36m"); // bold cyan
-					System.out.println("\tCongratulations, you have been added to the waitlist!");
-					System.out.print("\033[0m"); // reset color
+					result = esql.bookFlight(cid, fnum, true);
 					break;
 				}
 				else if(upperuserInput.equals("N"))
@@ -930,24 +1993,33 @@ public class DBproject{
 
 			}
 
-			// add to the reservation.
-			if(seatsLeft > 0)
+			switch(result.outcome)
 			{
-				String reserveQuery = "INSERT INTO Reservation VALUES(" + rnum + 1 + ", " + cid + ", " + fnum + "," + "'R');";
-				esql.executeUpdate(reserveQuery);
-				System.out.print("\033[1;36m"); // bold cyan
-				System.out.println("\tCongratulations, your seat for this flight has been reserved!");
-				System.out.print("\033[0m"); // reset color
-
-				// update seats sold for this flight.
-				String soldQuery = "SELECT num_sold FROM Flight WHERE Flight.fnum = " + fnum;
-				List<List<String>> soldNum = esql.executeQueryAndReturnResult(soldQuery);
-				int seatsSold = Integer.parseInt(soldNum.get(0).get(0));
-				seatsSold = seatsSold + 1;
-				esql.executeUpdate("UPDATE Flight SET num_sold = " + seatsSold + " WHERE fnum = " + fnum + ";");
-				System.out.print("\033[1;36m"); // bold cyan
-				System.out.println("\tCongratulations, your reservation has been confirmed!");
-				System.out.print("\033[0m"); // reset color
+				case RESERVED:
+					System.out.print("\033[1;36m"); // bold cyan
+					System.out.println("\tCongratulations, your seat for this flight has been reserved!");
+					System.out.println("\tCongratulations, your reservation has been confirmed! (Reservation number: " + result.rnum + ")");
+					System.out.print("\033[0m"); // reset color
+					break;
+				case WAITLISTED:
+					System.out.print("\033[1;36m"); // bold cyan
+					System.out.println("\tCongratulations, you have been added to the waitlist! (Reservation number: " + result.rnum + ")");
+					System.out.print("\033[0m"); // reset color
+					break;
+				case NO_SUCH_FLIGHT:
+					System.out.print("\033[101m"); // red background
+					System.out.print("\033[1;37m"); // bold white
+					System.out.print("\tSorry, flight " + fnum + " does not exist.");
+					System.out.println("\033[0m"); // reset color
+					break;
+				case NO_SUCH_CUSTOMER:
+					System.out.print("\033[101m"); // red background
+					System.out.print("\033[1;37m"); // bold white
+					System.out.print("\tSorry, customer " + cid + " does not exist.");
+					System.out.println("\033[0m"); // reset color
+					break;
+				default:
+					break;
 			}
 		}
 		catch(Exception e)
@@ -988,12 +2060,20 @@ public class DBproject{
 
 		try
 		{
-			String seatsQuery = "SELECT P.seats - F.num_sold FROM Flight F, Plane P, FlightInfo I WHERE F.fnum = I.flight_id AND I.flight_id = P.id AND F.fnum = " + userflightNum;
-			List<List<String>> seatsResult = esql.executeQueryAndReturnResult(seatsQuery);
-			int seatsLeft = Integer.parseInt(seatsResult.get(0).get(0));
-			System.out.print("\033[1;36m"); // bold cyan
-			System.out.println("\tThere are " + seatsLeft + " seates available for this flight.");
-			System.out.print("\033[0m"); // reset color
+			int seatsLeft = esql.seatsAvailable(userflightNum);
+			if(seatsLeft == Integer.MIN_VALUE)
+			{
+				System.out.print("\033[101m"); // red background
+				System.out.print("\033[1;37m"); // bold white
+				System.out.print("\tSorry, flight " + userflightNum + " does not exist.");
+				System.out.println("\033[0m"); // reset color
+			}
+			else
+			{
+				System.out.print("\033[1;36m"); // bold cyan
+				System.out.println("\tThere are " + seatsLeft + " seates available for this flight.");
+				System.out.print("\033[0m"); // reset color
+			}
 		}
 		catch(Exception e)
 		{
@@ -1006,9 +2086,8 @@ public class DBproject{
 		// Count number of repairs per planes and list them in descending order
 		try
 		{
-			String query = "SELECT plane.id, (SELECT COUNT(*) FROM Repairs R WHERE R.plane_id = plane.id) AS RepairCount FROM Plane ORDER BY RepairCount DESC;";
 			System.out.print("\033[1;36m"); // bold cyan
-			esql.executeQueryAndPrintResult(query);
+			printPairs(esql.repairsPerPlane(), "id", "repaircount");
 			System.out.print("\033[0m"); // reset color
 		}
 		catch(Exception e)
@@ -1022,9 +2101,8 @@ public class DBproject{
 		// Count repairs per year and list them in ascending order
 		try
 		{
-			String query = "SELECT EXTRACT(year FROM repair_date) AS Year, COUNT(*) FROM Repairs GROUP BY EXTRACT(year FROM repair_date) ORDER BY count ASC;";
 			System.out.print("\033[1;36m"); // bold cyan
-			esql.executeQueryAndPrintResult(query);
+			printPairs(esql.repairsPerYear(), "year", "count");
 			System.out.print("\033[0m"); // reset color
 		}
 		catch(Exception e)
@@ -1033,6 +2111,23 @@ public class DBproject{
 		}
 	}
 
+	// prints the pairs of a report as the aligned text executeQueryAndPrintResult writes
+	private static void printPairs(List<int[]> pairs, String first, String second) throws SQLException, IOException {
+		ReportWriter out = ReportWriter.toStdout(ReportWriter.Format.TEXT);
+		try
+		{
+			out.header(new String[] {first, second}, new int[] {Types.INTEGER, Types.INTEGER});
+			for (int[] pair : pairs)
+			{
+				out.handle(String.valueOf(pair[0]), String.valueOf(pair[1]));
+			}
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+
 	public static void FindPassengersCountWithStatus(DBproject esql) {//9
 		// Find how many passengers there are with a status (i.e. W,C,R) and list that number.
 		// Only consider status W and R.
@@ -1088,43 +2183,264 @@ public class DBproject{
 		// get the number of passengers with status.
 		try
 		{
-			// get the number of passenger with status Reserved.
+			// all three counts come back from one pass over the flight's reservations.
+			PassengerBreakdown breakdown = esql.passengerBreakdown(userflightNum).get(0);
+			String label;
 			if(status.equals("R"))
+			{
+				label = "Number of Reservations: ";
+			}
+			else if(status.equals("C"))
+			{
+				label = "Number of Confirmation: ";
+			}
+			else
+			{
+				label = "Number of Waitlisted: ";
+			}
+			System.out.print("\033[1;36m"); // bold cyan
+			System.out.println(label + breakdown.count(status.charAt(0)));
+			System.out.println("(Reserved: " + breakdown.reserved + ", Confirmed: " + breakdown.confirmed + ", Waitlisted: " + breakdown.waitlisted + ")");
+			System.out.print("\033[0m"); // reset color
+		}
+		catch(Exception e)
+		{
+			System.err.println(e.getMessage());
+		}
+	}
+
+	public static void CancelReservation(DBproject esql) {//10
+		// Cancel a reservation; a freed seat goes to the first passenger on the waitlist.
+		int rnum;
+
+		// prompt user for the reservation number.
+		do
+		{
+			System.out.print("\033[1;31m"); // bold red
+			System.out.print("\tPlease enter the reservation number: ");
+			System.out.print("\033[0m"); // reset color
+			try
 			{
 				System.out.print("\033[1;36m"); // bold cyan
-				System.out.println("Number of Reservations: ");
-			  System.out.print("\033[0m"); // reset color
-				String queryA = "SELECT COUNT(*) ReservationCount FROM Reservation WHERE Reservation.fid = " + userflightNum + "AND Reservation.status = 'R'";
+				rnum = Integer.parseInt(in.readLine());
+				System.out.print("\033[0m"); // reset color
+				break;
+			}
+			catch(Exception e)
+			{
+				System.out.print("\033[101m"); // red background
+				System.out.print("\033[1;37m"); // bold white
+				System.out.print("\tSorry, your input is invalid.");
+				System.out.println("\033[0m"); // reset color
+				continue;
+			}
+		} while(true);
+
+		try
+		{
+			SeatAllocator.Cancellation result = esql.cancelReservation(rnum);
+			if(result == null)
+			{
+				System.out.print("\033[101m"); // red background
+				System.out.print("\033[1;37m"); // bold white
+				System.out.print("\tSorry, reservation " + rnum + " does not exist.");
+				System.out.println("\033[0m"); // reset color
+				return;
+			}
+			System.out.print("\033[1;36m"); // bold cyan
+			System.out.println("\tReservation " + rnum + " on flight " + result.fnum + " has been cancelled.");
+			if(result.promoted >= 0)
+			{
+				System.out.println("\tThe seat went to waitlisted reservation " + result.promoted + ".");
+			}
+			System.out.print("\033[0m"); // reset color
+		}
+		catch(Exception e)
+		{
+			System.err.println(e.getMessage());
+		}
+	}
+
+	public static void SearchFlights(DBproject esql) {//11
+		// Find flights between two airports within a range of departure dates, a page at a time.
+		String from;
+		String to;
+		LocalDate first;
+		LocalDate last;
+		boolean withSeats;
+
+		// prompt user for the departure airport.
+		do
+		{
+			System.out.print("\033[1;31m"); // bold red
+			System.out.print("\tPlease enter the departure airport code: ");
+			System.out.print("\033[0m"); // reset color
+			try
+			{
 				System.out.print("\033[1;36m"); // bold cyan
-				esql.executeQueryAndPrintResult(queryA);
+				from = in.readLine().trim();
 				System.out.print("\033[0m"); // reset color
+				if(from.isEmpty() || from.length() > 5)
+				{
+					throw new IllegalArgumentException();
+				}
+				break;
 			}
-			// get the number of passenger with status Confirmed.
-			else if(status.equals("C"))
+			catch(Exception e)
+			{
+				System.out.print("\033[101m"); // red background
+				System.out.print("\033[1;37m"); // bold white
+				System.out.print("\tSorry, your input is invalid.");
+				System.out.println("\033[0m"); // reset color
+				continue;
+			}
+		} while(true);
+
+		// prompt user for the arrival airport.
+		do
+		{
+			System.out.print("\033[1;31m"); // bold red
+			System.out.print("\tPlease enter the arrival airport code: ");
+			System.out.print("\033[0m"); // reset color
+			try
 			{
 				System.out.print("\033[1;36m"); // bold cyan
-				System.out.println("Number of Confirmation: ");
+				to = in.readLine().trim();
 				System.out.print("\033[0m"); // reset color
-				String queryB = "SELECT COUNT(*) ConfirmationCount FROM Reservation WHERE Reservation.fid = " + userflightNum + "AND Reservation.status = 'C'";
+				if(to.isEmpty() || to.length() > 5)
+				{
+					throw new IllegalArgumentException();
+				}
+				break;
+			}
+			catch(Exception e)
+			{
+				System.out.print("\033[101m"); // red background
+				System.out.print("\033[1;37m"); // bold white
+				System.out.print("\tSorry, your input is invalid.");
+				System.out.println("\033[0m"); // reset color
+				continue;
+			}
+		} while(true);
+
+		// prompt user for the earliest departure date.
+		do
+		{
+			System.out.print("\033[1;31m"); // bold red
+			System.out.print("\tPlease enter the earliest departure date(YYYY-MM-DD): ");
+			System.out.print("\033[0m"); // reset color
+			try
+			{
 				System.out.print("\033[1;36m"); // bold cyan
-				esql.executeQueryAndPrintResult(queryB);
+				first = LocalDate.parse(in.readLine().trim());
 				System.out.print("\033[0m"); // reset color
+				break;
+			}
+			catch(Exception e)
+			{
+				System.out.print("\033[101m"); // red background
+				System.out.print("\033[1;37m"); // bold white
+				System.out.print("\tSorry, your input is invalid.");
+				System.out.println("\033[0m"); // reset color
+				continue;
 			}
-			// get the number of passenger with status Waitlisted.
-			else if(status.equals("W"))
+		} while(true);
+
+		// prompt user for the latest departure date.
+		do
+		{
+			System.out.print("\033[1;31m"); // bold red
+			System.out.print("\tPlease enter the latest departure date(YYYY-MM-DD): ");
+			System.out.print("\033[0m"); // reset color
+			try
 			{
 				System.out.print("\033[1;36m"); // bold cyan
-				System.out.println("Number of Waitlisted: ");
+				last = LocalDate.parse(in.readLine().trim());
 				System.out.print("\033[0m"); // reset color
-				String queryC = "SELECT COUNT(*) WaitlistCount FROM Reservation WHERE Reservation.fid = " + userflightNum + "AND Reservation.status = 'W'";
+				if(last.isBefore(first))
+				{
+					throw new IllegalArgumentException();
+				}
+				break;
+			}
+			catch(Exception e)
+			{
+				System.out.print("\033[101m"); // red background
+				System.out.print("\033[1;37m"); // bold white
+				System.out.print("\tSorry, your input is invalid.");
+				System.out.println("\033[0m"); // reset color
+				continue;
+			}
+		} while(true);
+
+		// ask whether full flights should be left out.
+		do
+		{
+			System.out.print("\033[1;31m"); // bold red
+			System.out.print("\tOnly show flights with seats left?(Y/N): ");
+			System.out.print("\033[0m"); // reset color
+			try
+			{
 				System.out.print("\033[1;36m"); // bold cyan
-				esql.executeQueryAndPrintResult(queryC);
+				String answer = in.readLine().trim().toUpperCase();
 				System.out.print("\033[0m"); // reset color
+				if(!answer.equals("Y") && !answer.equals("N"))
+				{
+					throw new IllegalArgumentException();
+				}
+				withSeats = answer.equals("Y");
+				break;
+			}
+			catch(Exception e)
+			{
+				System.out.print("\033[101m"); // red background
+				System.out.print("\033[1;37m"); // bold white
+				System.out.print("\tSorry, your input is invalid.");
+				System.out.println("\033[0m"); // reset color
+				continue;
 			}
+		} while(true);
+
+		try
+		{
+			// ten flights at a time; each page continues after the last flight shown.
+			String after = null;
+			do
+			{
+				FlightSearch.Page page = esql.searchFlights(from, to, first, last, withSeats, after, 10);
+				System.out.print("\033[1;36m"); // bold cyan
+				if(after == null && page.offers.isEmpty())
+				{
+					System.out.println("\tNo flights found.");
+				}
+				for(FlightOffer offer : page.offers)
+				{
+					Flight f = offer.flight;
+					System.out.println("\tFlight " + f.fnum + ": " + f.departureAirport + " -> " + f.arrivalAirport
+						+ ", departs " + f.actualDepartureDate + ", " + f.numStops + " stops, cost " + f.cost
+						+ ", seats left " + (offer.seatsLeft == Integer.MIN_VALUE ? "unknown" : String.valueOf(offer.seatsLeft)));
+				}
+				System.out.print("\033[0m"); // reset color
+				after = page.next;
+				if(after == null)
+				{
+					break;
+				}
+				System.out.print("\033[1;31m"); // bold red
+				System.out.print("\tShow more flights?(Y/N): ");
+				System.out.print("\033[0m"); // reset color
+			} while(in.readLine().trim().equalsIgnoreCase("Y"));
 		}
 		catch(Exception e)
 		{
 			System.err.println(e.getMessage());
 		}
 	}
+
+	public static void ShowQueryTimeSummary(DBproject esql) {//12
+		// shapes seen since this session started, slowest in total first.
+		System.out.print("\033[1;36m"); // bold cyan
+		System.out.print(esql.getSlowQueryLog().summary(20));
+		System.out.print("\033[0m"); // reset color
+	}
 }
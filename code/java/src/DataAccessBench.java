@@ -0,0 +1,227 @@
+import java.io.File;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * This class benchmarks the data-access paths of DBproject against a local
+ * PostgreSQL instance: the generic string result path, the seat lookup
+ * (with and without the seat cache), booking, the repair reports 7 and 8,
+ * the passenger breakdown of report 9 and new id selection, next to the
+ * row-count id selection the menu used to run.  Every benchmark reports
+ * average time, throughput, bytes allocated per operation and the
+ * collections it caused, see Bench.
+ *
+ * Without scale factors it measures the database as it is.  With scale
+ * factors, e.g. "1,4,16", it reloads code/data with BulkLoader before each
+ * round and copies Reservation and Repairs until they hold that many times
+ * the sample rows, so the paths can be compared as the fact tables grow.
+ * This empties the database: use a scratch one.
+ *
+ *   java -cp lib/*:bin/ DataAccessBench <dbname> <port> <user> [iterations] [scale factors]
+ *
+ * airline.bench.dataDir and airline.bench.sqlDir locate code/data and
+ * code/sql (default ../data and ../sql, i.e. run from java/).
+ */
+
+public class DataAccessBench {
+	static final String CUSTOMER_IDS = "SELECT id FROM Customer";
+	static final String FLIGHT_BY_NUMBER = "SELECT " + Flight.COLUMNS + " FROM Flight WHERE fnum = ?";
+	static final String ALL_FLIGHTS = "SELECT " + Flight.COLUMNS + " FROM Flight";
+	//how new reservation numbers used to be chosen: the number of existing rows
+	static final String ALL_RESERVATION_NUMBERS = "SELECT rnum FROM Reservation";
+
+	//undoes the bookings made by the booking benchmark
+	static final String RELEASE_SEATS =
+		"UPDATE Flight F SET num_sold = F.num_sold - D.n FROM " +
+		"(SELECT fid, COUNT(*) AS n FROM Reservation WHERE rnum = ANY(?) AND status = 'R' GROUP BY fid) D " +
+		"WHERE F.fnum = D.fid";
+	static final String DELETE_RESERVATIONS = "DELETE FROM Reservation WHERE rnum = ANY(?)";
+
+	//scaling copies of the fact tables, offsetting the keys past the original rows
+	static final String MAX_RNUM = "SELECT COALESCE(MAX(rnum), 0) FROM Reservation";
+	static final String MAX_RID = "SELECT COALESCE(MAX(rid), 0) FROM Repairs";
+	static final String COPY_RESERVATIONS =
+		"INSERT INTO Reservation (rnum, cid, fid, status, departure_date) " +
+		"SELECT rnum + ?, cid, fid, status, departure_date FROM Reservation WHERE rnum <= ?";
+	static final String COPY_REPAIRS =
+		"INSERT INTO Repairs (rid, repair_date, repair_code, pilot_id, plane_id, technician_id) " +
+		"SELECT rid + ?, repair_date, repair_code, pilot_id, plane_id, technician_id FROM Repairs WHERE rid <= ?";
+
+	private final DBproject _db;
+	private final int _iterations;
+	private final int _warmup;
+
+	public DataAccessBench(DBproject db, int iterations) {
+		this._db = db;
+		this._iterations = iterations;
+		this._warmup = Math.max(10, iterations / 10);
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 3) {
+			System.err.println("Usage: java [-classpath <classpath>] " + DataAccessBench.class.getName() +
+				" <dbname> <port> <user> [iterations] [scale factors]");
+			return;
+		}
+		int iterations = args.length > 3 ? Integer.parseInt(args[3]) : 200;
+		File dataDir = new File(System.getProperty("airline.bench.dataDir", "../data"));
+		File sqlDir = new File(System.getProperty("airline.bench.sqlDir", "../sql"));
+
+		Class.forName("org.postgresql.Driver");
+		DBproject esql = new DBproject(args[0], args[1], args[2], "");
+		try {
+			DataAccessBench bench = new DataAccessBench(esql, iterations);
+			if (args.length < 5) {
+				bench.run("current");
+				return;
+			}
+			for (String factor : args[4].split(",")) {
+				int scale = Integer.parseInt(factor.trim());
+				new BulkLoader(esql, dataDir, sqlDir).load(true);
+				bench.scale(scale);
+				bench.run("sf" + scale);
+			}
+		} finally {
+			esql.cleanup();
+		}
+	}
+
+	/**
+	 * Method to grow Reservation and Repairs to a multiple of their loaded
+	 * size.  The copies keep their flights, customers, planes and dates, so
+	 * every flight and plane gets proportionally more rows.
+	 *
+	 * @param factor the multiple, 1 leaves the tables as loaded
+	 * @throws java.sql.SQLException when the copies cannot be inserted
+	 */
+	public void scale(int factor) throws SQLException {
+		int maxRnum = this._db.queryForInt(MAX_RNUM, 0);
+		int maxRid = this._db.queryForInt(MAX_RID, 0);
+		for (int copy = 1; copy < factor; copy++) {
+			this._db.executeUpdate(COPY_RESERVATIONS, copy * (maxRnum + 1), maxRnum);
+			this._db.executeUpdate(COPY_REPAIRS, copy * (maxRid + 1), maxRid);
+		}
+		// moves the id sequences past the copies and refreshes planner statistics.
+		this._db.executeQuery("SELECT setval('reservation_rnum_seq', (SELECT MAX(rnum) + 1 FROM Reservation), false)");
+		this._db.getIdGenerator().reset();
+		this._db.executeUpdate("ANALYZE");
+		this._db.getSeatCache().clear();
+		System.out.println(String.format("Scale factor %d: %d reservations, %d repairs.", factor,
+			this._db.queryForInt("SELECT COUNT(*) FROM Reservation", 0), this._db.queryForInt("SELECT COUNT(*) FROM Repairs", 0)));
+	}//end scale
+
+	/**
+	 * Method to run every benchmark once and print the results.
+	 *
+	 * @param label prefixed to the benchmark names, e.g. the scale factor
+	 * @throws java.lang.Exception when a benchmark fails
+	 */
+	public void run(String label) throws Exception {
+		final DBproject db = this._db;
+		final int[] flights = db.queryForIntColumn(Queries.FLIGHT_NUMBERS);
+		final int[] customers = db.queryForIntColumn(CUSTOMER_IDS);
+		if (flights.length == 0 || customers.length == 0) {
+			throw new IllegalStateException("The database has no flights or customers to benchmark with.");
+		}
+		final Random random = new Random(42);
+		final int[] batch = new int[Math.min(200, flights.length)];
+		for (int i = 0; i < batch.length; i++) {
+			batch[i] = flights[random.nextInt(flights.length)];
+		}
+		String p = label + "/";
+		int n = this._iterations;
+
+		System.out.println(Bench.Result.header());
+		print(Bench.measure(p + "returnResult.flight", this._warmup, n * 10, new Bench.Op() {
+			public void run() throws Exception {
+				consume(db.executeQueryAndReturnResult(FLIGHT_BY_NUMBER, flights[random.nextInt(flights.length)]).size());
+			}
+		}));
+		print(Bench.measure(p + "returnResult.allFlights", this._warmup, n, new Bench.Op() {
+			public void run() throws Exception {
+				consume(db.executeQueryAndReturnResult(ALL_FLIGHTS).size());
+			}
+		}));
+		print(Bench.measure(p + "seats.database", this._warmup, n * 10, new Bench.Op() {
+			public void run() throws Exception {
+				consume(db.queryForInt(Queries.SEATS_LEFT, Integer.MIN_VALUE, flights[random.nextInt(flights.length)]));
+			}
+		}));
+		print(Bench.measure(p + "seats.cached", this._warmup, n * 10, new Bench.Op() {
+			public void run() throws Exception {
+				consume(db.seatsAvailable(flights[random.nextInt(flights.length)]));
+			}
+		}));
+		print(Bench.measure(p + "report7.repairsPerPlane", this._warmup, n, new Bench.Op() {
+			public void run() throws Exception {
+				consume(db.repairsPerPlane().size());
+			}
+		}));
+		print(Bench.measure(p + "report8.repairsPerYear", this._warmup, n, new Bench.Op() {
+			public void run() throws Exception {
+				consume(db.repairsPerYear().size());
+			}
+		}));
+		print(Bench.measure(p + "report9.breakdown", this._warmup, n * 10, new Bench.Op() {
+			public void run() throws Exception {
+				consume(db.passengerBreakdown(flights[random.nextInt(flights.length)]).get(0).reserved);
+			}
+		}));
+		print(Bench.measure(p + "report9.breakdown" + batch.length, this._warmup, n, new Bench.Op() {
+			public void run() throws Exception {
+				consume(db.passengerBreakdown(batch).size());
+			}
+		}));
+		print(Bench.measure(p + "ids.countRows", this._warmup, n, new Bench.Op() {
+			public void run() throws Exception {
+				consume(db.executeQueryAndReturnResult(ALL_RESERVATION_NUMBERS).size());
+			}
+		}));
+		print(Bench.measure(p + "ids.generator", this._warmup, n * 100, new Bench.Op() {
+			public void run() throws Exception {
+				consume(db.getIdGenerator().next(IdGenerator.RESERVATION));
+			}
+		}));
+
+		final List<Integer> booked = new ArrayList<Integer>();
+		try {
+			print(Bench.measure(p + "booking", this._warmup, n * 10, new Bench.Op() {
+				public void run() throws Exception {
+					SeatAllocator.Result result = db.bookFlight(customers[random.nextInt(customers.length)],
+						flights[random.nextInt(flights.length)], true);
+					if (result.rnum >= 0) {
+						booked.add(result.rnum);
+					}
+				}
+			}));
+		} finally {
+			release(booked);
+		}
+	}//end run
+
+	/**
+	 * Method to undo bookings: gives their seats back and deletes them.
+	 */
+	private void release(List<Integer> rnums) throws SQLException {
+		int[] values = new int[rnums.size()];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = rnums.get(i);
+		}
+		this._db.executeUpdate(RELEASE_SEATS, (Object) values);
+		this._db.executeUpdate(DELETE_RESERVATIONS, (Object) values);
+		this._db.getSeatCache().clear();
+	}
+
+	private static void print(Bench.Result result) {
+		System.out.println(result);
+	}
+
+	static volatile long sink;
+
+	// keeps the JIT from discarding the work being measured.
+	static void consume(long value) {
+		sink += value;
+	}
+}
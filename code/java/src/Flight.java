@@ -0,0 +1,45 @@
+import java.sql.SQLException;
+import java.time.LocalDate;
+
+/**
+ * This class holds one row of the Flight table.
+ *
+ */
+
+public final class Flight {
+	//select list matching MAPPER
+	public static final String COLUMNS = "fnum, cost, num_sold, num_stops, actual_departure_date, actual_arrival_date, arrival_airport, departure_airport";
+
+	public static final RowMapper<Flight> MAPPER = new RowMapper<Flight>() {
+		public Flight map(Row row) throws SQLException {
+			return new Flight(row.getInt(1), row.getInt(2), row.getInt(3), row.getInt(4),
+				row.getLocalDate(5), row.getLocalDate(6), trim(row.getString(7)), trim(row.getString(8)));
+		}
+	};
+
+	public final int fnum;
+	public final int cost;
+	public final int numSold;
+	public final int numStops;
+	public final LocalDate actualDepartureDate;
+	public final LocalDate actualArrivalDate;
+	public final String arrivalAirport;
+	public final String departureAirport;
+
+	public Flight(int fnum, int cost, int numSold, int numStops, LocalDate actualDepartureDate,
+			LocalDate actualArrivalDate, String arrivalAirport, String departureAirport) {
+		this.fnum = fnum;
+		this.cost = cost;
+		this.numSold = numSold;
+		this.numStops = numStops;
+		this.actualDepartureDate = actualDepartureDate;
+		this.actualArrivalDate = actualArrivalDate;
+		this.arrivalAirport = arrivalAirport;
+		this.departureAirport = departureAirport;
+	}
+
+	// CHAR(n) columns come back blank-padded.
+	static String trim(String value) {
+		return value == null ? null : value.trim();
+	}
+}
@@ -0,0 +1,30 @@
+import java.sql.SQLException;
+
+/**
+ * This class holds one flight found by a search and the seats left on it.
+ *
+ */
+
+public final class FlightOffer {
+	//select list matching MAPPER, with Flight aliased F and Plane P
+	public static final String COLUMNS =
+		"F.fnum, F.cost, F.num_sold, F.num_stops, F.actual_departure_date, F.actual_arrival_date, F.arrival_airport, F.departure_airport, " +
+		"P.seats - F.num_sold";
+
+	public static final RowMapper<FlightOffer> MAPPER = new RowMapper<FlightOffer>() {
+		public FlightOffer map(Row row) throws SQLException {
+			Flight flight = Flight.MAPPER.map(row);
+			int seatsLeft = row.getInt(9);
+			return new FlightOffer(flight, row.wasNull() ? Integer.MIN_VALUE : seatsLeft);
+		}
+	};
+
+	public final Flight flight;
+	//plane capacity minus seats sold, Integer.MIN_VALUE when the flight has no plane
+	public final int seatsLeft;
+
+	public FlightOffer(Flight flight, int seatsLeft) {
+		this.flight = flight;
+		this.seatsLeft = seatsLeft;
+	}
+}
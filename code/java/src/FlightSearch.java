@@ -0,0 +1,142 @@
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * This class finds flights between two airports departing within a date
+ * window, optionally only those with seats left, ordered by departure date
+ * and flight number.  Results come a page at a time with keyset
+ * pagination: each page ends with a cursor, the (departure date, fnum) of
+ * its last flight, and the next page starts right after it.  The
+ * route_departure_index of create_indexes.sql on (departure_airport,
+ * arrival_airport, actual_departure_date, fnum) answers both the filter
+ * and the order, so a page costs the same however deep it is and however
+ * many flights there are.
+ *
+ * Pages are cached for airline.search.ttlMs (default 2000), at most
+ * airline.search.cacheSize (default 1000) of them, least recently used
+ * first out, so popular city pairs are served from memory.  A cached page
+ * can be that much behind the database: its seat counts are a hint, and
+ * booking checks the seats again.
+ *
+ * With airline.shards every shard returns its own first page after the
+ * cursor, and the pages are merged in the same order.
+ *
+ */
+
+public class FlightSearch {
+	/*
+	 * The airports are cast to the column type: compared with a varchar
+	 * parameter, the CHAR(5) columns would be converted to text and the index
+	 * could not be used.
+	 */
+	static final String SEARCH =
+		"SELECT " + FlightOffer.COLUMNS + " FROM Flight F " +
+		"LEFT JOIN FlightInfo I ON I.flight_id = F.fnum LEFT JOIN Plane P ON P.id = I.plane_id " +
+		"WHERE F.departure_airport = CAST(? AS CHAR(5)) AND F.arrival_airport = CAST(? AS CHAR(5)) " +
+		"AND (F.actual_departure_date, F.fnum) > (?, ?) AND F.actual_departure_date <= ? " +
+		"AND (NOT ? OR F.num_sold < P.seats) " +
+		"ORDER BY F.actual_departure_date, F.fnum LIMIT ?";
+
+	//the order of SEARCH, to merge the pages of several shards
+	static final Comparator<FlightOffer> ORDER = new Comparator<FlightOffer>() {
+		public int compare(FlightOffer a, FlightOffer b) {
+			int c = a.flight.actualDepartureDate.compareTo(b.flight.actualDepartureDate);
+			return c != 0 ? c : Integer.compare(a.flight.fnum, b.flight.fnum);
+		}
+	};
+
+	//largest page served, so one request cannot pull a whole route
+	public static final int MAX_PAGE_SIZE = 100;
+
+	/**
+	 * One page of results and the cursor of the page after it, or null when
+	 * this is the last page.
+	 */
+	public static final class Page {
+		public final List<FlightOffer> offers;
+		public final String next;
+
+		Page(List<FlightOffer> offers, String next) {
+			this.offers = Collections.unmodifiableList(offers);
+			this.next = next;
+		}
+	}
+
+	private final DBproject _db;
+	private final TtlCache<String, Page> _cache;
+
+	public FlightSearch(DBproject db, int cacheSize, long ttlMillis) {
+		this._db = db;
+		this._cache = new TtlCache<String, Page>(cacheSize, ttlMillis);
+	}
+
+	/**
+	 * Method to find a page of flights.
+	 *
+	 * @param from the departure airport code
+	 * @param to the arrival airport code
+	 * @param first the earliest departure date
+	 * @param last the latest departure date
+	 * @param withSeats whether to skip flights without seats left
+	 * @param after the cursor returned with the previous page, or null for the first page
+	 * @param limit the page size, at most MAX_PAGE_SIZE
+	 * @return the flights of the page, in departure order
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public Page search(String from, String to, LocalDate first, LocalDate last, boolean withSeats, String after, int limit) throws SQLException {
+		if (limit <= 0 || limit > MAX_PAGE_SIZE) {
+			throw new IllegalArgumentException("Page size must be between 1 and " + MAX_PAGE_SIZE + ": " + limit);
+		}
+		from = from.trim().toUpperCase();
+		to = to.trim().toUpperCase();
+		// a first page starts before any flight of the first day.
+		LocalDate afterDate = first;
+		int afterFnum = Integer.MIN_VALUE;
+		if (after != null) {
+			int colon = after.indexOf(':');
+			try {
+				afterDate = LocalDate.parse(after.substring(0, Math.max(colon, 0)));
+				afterFnum = Integer.parseInt(after.substring(colon + 1));
+			}catch (RuntimeException e) {
+				throw new IllegalArgumentException("Malformed page cursor: " + after);
+			}
+		}
+
+		String key = from + '|' + to + '|' + first + '|' + last + '|' + withSeats + '|' + after + '|' + limit;
+		Page page = this._cache.get(key);
+		if (page != null) {
+			return page;
+		}
+		List<FlightOffer> offers = this._db.queryForListAcrossShards(SEARCH, FlightOffer.MAPPER, from, to,
+			Date.valueOf(afterDate), afterFnum, Date.valueOf(last), withSeats, limit);
+		if (this._db.getShardRouter() != null) {
+			// each shard sent its own first page, one after another: merge them and keep the first limit.
+			Collections.sort(offers, ORDER);
+			if (offers.size() > limit) {
+				offers = new ArrayList<FlightOffer>(offers.subList(0, limit));
+			}
+		}
+		String next = null;
+		if (offers.size() == limit) {
+			Flight tail = offers.get(offers.size() - 1).flight;
+			next = tail.actualDepartureDate + ":" + tail.fnum;
+		}
+		page = new Page(offers, next);
+		this._cache.put(key, page);
+		return page;
+	}//end search
+
+	/**
+	 * Method to return the cache of result pages.
+	 *
+	 * @return the page cache
+	 */
+	public TtlCache<String, Page> getCache() {
+		return this._cache;
+	}
+}
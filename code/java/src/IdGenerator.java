@@ -0,0 +1,111 @@
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class hands out primary keys for new Plane, Pilot, Flight,
+ * Technician and Reservation rows.  Each key comes from a PostgreSQL
+ * sequence created by sql/create_sequences.sql with INCREMENT BY
+ * BLOCK_SIZE, so one nextval reserves BLOCK_SIZE consecutive ids for this
+ * process.  Ids are then handed out from memory until the block runs out,
+ * and stay unique across any number of application instances.
+ *
+ */
+
+public class IdGenerator {
+	//must match the INCREMENT BY of the sequences in create_sequences.sql
+	public static final int BLOCK_SIZE = 50;
+
+	public static final String PLANE = "plane_id_seq";
+	public static final String PILOT = "pilot_id_seq";
+	public static final String FLIGHT = "flight_fnum_seq";
+	public static final String TECHNICIAN = "technician_id_seq";
+	public static final String RESERVATION = "reservation_rnum_seq";
+
+	static final String NEXT_BLOCK = "SELECT nextval(CAST(? AS regclass))";
+	static final String UNDEFINED_TABLE = "42P01";
+
+	private final DBproject _db;
+	private final ConcurrentHashMap<String, Block> _blocks = new ConcurrentHashMap<String, Block>();
+
+	public IdGenerator(DBproject db) {
+		this._db = db;
+	}
+
+	/**
+	 * Method to return the next id of a sequence, reserving a new block from
+	 * the database when the current one is used up.
+	 *
+	 * @param sequence name of the DB sequence, e.g. IdGenerator.PLANE
+	 * @return an id no other caller or process will receive
+	 * @throws java.sql.SQLException when a new block cannot be reserved
+	 */
+	public int next(String sequence) throws SQLException {
+		Block block = this._blocks.get(sequence);
+		if (block == null) {
+			Block created = new Block(sequence);
+			block = this._blocks.putIfAbsent(sequence, created);
+			if (block == null) {
+				block = created;
+			}
+		}
+		return block.next();
+	}//end next
+
+	/**
+	 * Method to drop the blocks reserved so far, so the next id of every
+	 * sequence comes from a fresh nextval.  Call it after a sequence was
+	 * restarted or moved with setval, e.g. by a reload, or the ids left in
+	 * the old blocks may already be taken.
+	 */
+	public void reset() {
+		this._blocks.clear();
+	}
+
+	/**
+	 * The ids of one sequence that this process has reserved but not handed
+	 * out yet: [_next, _limit).
+	 */
+	private final class Block {
+		private final String _sequence;
+		private long _next = 0;
+		private long _limit = 0;
+
+		Block(String sequence) {
+			this._sequence = sequence;
+		}
+
+		synchronized int next() throws SQLException {
+			if (this._next >= this._limit) {
+				long start = reserve();
+				this._next = start;
+				this._limit = start + BLOCK_SIZE;
+			}
+			long id = this._next++;
+			if (id > Integer.MAX_VALUE) {
+				throw new SQLException("Sequence " + this._sequence + " exceeded the integer key range");
+			}
+			return (int) id;
+		}
+
+		private long reserve() throws SQLException {
+			PooledConnection conn = IdGenerator.this._db.getConnection();
+			try {
+				ResultSet rs = conn.prepare(NEXT_BLOCK, this._sequence).executeQuery();
+				try {
+					rs.next();
+					return rs.getLong(1);
+				}finally {
+					rs.close();
+				}
+			}catch (SQLException e) {
+				if (UNDEFINED_TABLE.equals(e.getSQLState())) {
+					throw new SQLException("Sequence " + this._sequence + " does not exist, run sql/create_sequences.sql", e.getSQLState(), e);
+				}
+				throw e;
+			}finally {
+				conn.close();
+			}
+		}
+	}
+}
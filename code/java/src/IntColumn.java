@@ -0,0 +1,48 @@
+import java.util.Arrays;
+
+/**
+ * This class collects int values in a growable primitive array, so a
+ * column of ids or counts costs four bytes per value instead of a String
+ * and a list slot per cell.
+ *
+ */
+
+public class IntColumn {
+	private int[] _values;
+	private int _size = 0;
+
+	public IntColumn() {
+		this(16);
+	}
+
+	public IntColumn(int capacity) {
+		this._values = new int[Math.max(1, capacity)];
+	}
+
+	public void add(int value) {
+		if (this._size == this._values.length) {
+			this._values = Arrays.copyOf(this._values, this._values.length * 2);
+		}
+		this._values[this._size++] = value;
+	}
+
+	public int get(int index) {
+		if (index < 0 || index >= this._size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + this._size);
+		}
+		return this._values[index];
+	}
+
+	public int size() {
+		return this._size;
+	}
+
+	/**
+	 * Method to copy the values into an array of exactly size() elements.
+	 *
+	 * @return the values
+	 */
+	public int[] toArray() {
+		return Arrays.copyOf(this._values, this._size);
+	}
+}
@@ -0,0 +1,254 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class reads and writes the small JSON documents exchanged by the
+ * booking server: request bodies are flat objects whose values are
+ * strings, numbers, booleans or null, and responses are written with the
+ * ObjectWriter below.
+ *
+ */
+
+public final class Json {
+	private Json() {
+	}
+
+	/**
+	 * Method to parse a flat JSON object.  Numbers are returned as Long when
+	 * they have no fraction or exponent and as Double otherwise.
+	 *
+	 * @param text the JSON text
+	 * @return the members in document order
+	 * @throws java.lang.IllegalArgumentException when the text is not a flat JSON object
+	 */
+	public static Map<String, Object> parseObject(String text) {
+		Parser p = new Parser(text);
+		Map<String, Object> result = new LinkedHashMap<String, Object>();
+		p.skipSpace();
+		p.expect('{');
+		p.skipSpace();
+		if (p.peek() == '}') {
+			p.pos++;
+		}
+		else {
+			while (true) {
+				p.skipSpace();
+				String name = p.string();
+				p.skipSpace();
+				p.expect(':');
+				p.skipSpace();
+				result.put(name, p.value());
+				p.skipSpace();
+				char c = p.next();
+				if (c == '}') {
+					break;
+				}
+				if (c != ',') {
+					throw p.error("expected ',' or '}'");
+				}
+			}
+		}
+		p.skipSpace();
+		if (p.pos != text.length()) {
+			throw p.error("unexpected trailing characters");
+		}
+		return result;
+	}//end parseObject
+
+	private static final class Parser {
+		final String text;
+		int pos = 0;
+
+		Parser(String text) {
+			this.text = text;
+		}
+
+		char peek() {
+			if (this.pos >= this.text.length()) {
+				throw error("unexpected end of input");
+			}
+			return this.text.charAt(this.pos);
+		}
+
+		char next() {
+			char c = peek();
+			this.pos++;
+			return c;
+		}
+
+		void expect(char c) {
+			if (next() != c) {
+				throw error("expected '" + c + "'");
+			}
+		}
+
+		void skipSpace() {
+			while (this.pos < this.text.length() && Character.isWhitespace(this.text.charAt(this.pos))) {
+				this.pos++;
+			}
+		}
+
+		Object value() {
+			char c = peek();
+			if (c == '"') {
+				return string();
+			}
+			if (this.text.startsWith("true", this.pos)) {
+				this.pos += 4;
+				return Boolean.TRUE;
+			}
+			if (this.text.startsWith("false", this.pos)) {
+				this.pos += 5;
+				return Boolean.FALSE;
+			}
+			if (this.text.startsWith("null", this.pos)) {
+				this.pos += 4;
+				return null;
+			}
+			int start = this.pos;
+			while (this.pos < this.text.length() && "+-0123456789.eE".indexOf(this.text.charAt(this.pos)) >= 0) {
+				this.pos++;
+			}
+			String number = this.text.substring(start, this.pos);
+			try {
+				if (number.indexOf('.') < 0 && number.indexOf('e') < 0 && number.indexOf('E') < 0) {
+					return Long.valueOf(number);
+				}
+				return Double.valueOf(number);
+			}catch (NumberFormatException e) {
+				throw error("expected a string, number, boolean or null");
+			}
+		}
+
+		String string() {
+			expect('"');
+			StringBuilder sb = new StringBuilder();
+			while (true) {
+				char c = next();
+				if (c == '"') {
+					return sb.toString();
+				}
+				if (c != '\\') {
+					sb.append(c);
+					continue;
+				}
+				c = next();
+				switch (c) {
+					case 'b': sb.append('\b'); break;
+					case 'f': sb.append('\f'); break;
+					case 'n': sb.append('\n'); break;
+					case 'r': sb.append('\r'); break;
+					case 't': sb.append('\t'); break;
+					case 'u':
+						if (this.pos + 4 > this.text.length()) {
+							throw error("bad unicode escape");
+						}
+						sb.append((char) Integer.parseInt(this.text.substring(this.pos, this.pos + 4), 16));
+						this.pos += 4;
+						break;
+					default: sb.append(c); break;
+				}
+			}
+		}
+
+		IllegalArgumentException error(String message) {
+			return new IllegalArgumentException("Invalid JSON at offset " + this.pos + ": " + message);
+		}
+	}
+
+	/**
+	 * Method to append a JSON string literal.
+	 *
+	 * @param sb the output
+	 * @param value the string, or null
+	 */
+	public static void quote(StringBuilder sb, String value) {
+		if (value == null) {
+			sb.append("null");
+			return;
+		}
+		sb.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+				case '"': sb.append("\\\""); break;
+				case '\\': sb.append("\\\\"); break;
+				case '\n': sb.append("\\n"); break;
+				case '\r': sb.append("\\r"); break;
+				case '\t': sb.append("\\t"); break;
+				default:
+					if (c < 0x20) {
+						sb.append(String.format("\\u%04x", (int) c));
+					}
+					else {
+						sb.append(c);
+					}
+			}
+		}
+		sb.append('"');
+	}//end quote
+
+	/**
+	 * This class writes one JSON object member by member.
+	 *
+	 *   new Json.ObjectWriter().field("id", 3).field("status", "R").toString()
+	 */
+	public static final class ObjectWriter {
+		private final StringBuilder _sb = new StringBuilder("{");
+		private boolean _first = true;
+		private boolean _closed = false;
+
+		private StringBuilder name(String name) {
+			if (!this._first) {
+				this._sb.append(',');
+			}
+			this._first = false;
+			quote(this._sb, name);
+			return this._sb.append(':');
+		}
+
+		public ObjectWriter field(String name, String value) {
+			quote(name(name), value);
+			return this;
+		}
+
+		public ObjectWriter field(String name, long value) {
+			name(name).append(value);
+			return this;
+		}
+
+		public ObjectWriter field(String name, double value) {
+			StringBuilder sb = name(name);
+			if (Double.isNaN(value) || Double.isInfinite(value)) {
+				sb.append("null");
+			}
+			else {
+				sb.append(value);
+			}
+			return this;
+		}
+
+		public ObjectWriter field(String name, boolean value) {
+			name(name).append(value);
+			return this;
+		}
+
+		/**
+		 * Method to add a member whose value is already JSON text, such as a
+		 * nested object or array.
+		 */
+		public ObjectWriter raw(String name, String json) {
+			name(name).append(json);
+			return this;
+		}
+
+		@Override
+		public String toString() {
+			if (!this._closed) {
+				this._sb.append('}');
+				this._closed = true;
+			}
+			return this._sb.toString();
+		}
+	}
+}
@@ -0,0 +1,166 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class records latencies in microseconds into log-linear buckets, in
+ * the manner of an HDR histogram: values below 128 us are counted exactly
+ * and every power of two above that is split into 64 buckets, so any
+ * reported percentile is within about 1.6% of the recorded value.  Memory
+ * is fixed (a few thousand counters) however many values are recorded, and
+ * recording is lock-free so many threads can share one histogram.
+ *
+ */
+
+public class LatencyHistogram {
+	//each power of two above LINEAR_LIMIT is split into 2^SUB_BITS buckets
+	private static final int SUB_BITS = 6;
+	private static final int SUB_COUNT = 1 << SUB_BITS;
+	private static final long LINEAR_LIMIT = 2L * SUB_COUNT;
+	//values are clamped to 2^40 us, about 12 days
+	private static final int MAX_EXPONENT = 40;
+	private static final int BUCKETS = (int) LINEAR_LIMIT + (MAX_EXPONENT - SUB_BITS) * SUB_COUNT;
+
+	private final AtomicLongArray _counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong _count = new AtomicLong();
+	private final AtomicLong _sum = new AtomicLong();
+	private final AtomicLong _max = new AtomicLong();
+	private final AtomicLong _min = new AtomicLong(Long.MAX_VALUE);
+
+	/**
+	 * Method to record one latency.
+	 *
+	 * @param micros the latency in microseconds, negative values count as 0
+	 */
+	public void record(long micros) {
+		long value = Math.max(0, Math.min(micros, (1L << MAX_EXPONENT) - 1));
+		this._counts.incrementAndGet(index(value));
+		this._count.incrementAndGet();
+		this._sum.addAndGet(value);
+		long max;
+		while (value > (max = this._max.get()) && !this._max.compareAndSet(max, value)) {
+			// retry until the maximum is published.
+		}
+		long min;
+		while (value < (min = this._min.get()) && !this._min.compareAndSet(min, value)) {
+			// retry until the minimum is published.
+		}
+	}
+
+	/**
+	 * Method to record the time elapsed since a System.nanoTime() reading.
+	 *
+	 * @param startNanos the start time
+	 */
+	public void recordSince(long startNanos) {
+		record((System.nanoTime() - startNanos) / 1000);
+	}
+
+	static int index(long value) {
+		if (value < LINEAR_LIMIT) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int shift = exponent - SUB_BITS;
+		int sub = (int) (value >>> shift) - SUB_COUNT;
+		return (int) LINEAR_LIMIT + (shift - 1) * SUB_COUNT + sub;
+	}
+
+	//the largest value that falls into a bucket
+	static long highestValue(int index) {
+		if (index < LINEAR_LIMIT) {
+			return index;
+		}
+		int shift = (index - (int) LINEAR_LIMIT) / SUB_COUNT + 1;
+		long sub = (index - LINEAR_LIMIT) % SUB_COUNT + SUB_COUNT;
+		return ((sub + 1) << shift) - 1;
+	}
+
+	public long getCount() {
+		return this._count.get();
+	}
+
+	public long getMax() {
+		return this._max.get();
+	}
+
+	public long getMin() {
+		long min = this._min.get();
+		return min == Long.MAX_VALUE ? 0 : min;
+	}
+
+	public double getMean() {
+		long count = this._count.get();
+		return count == 0 ? 0 : (double) this._sum.get() / count;
+	}
+
+	/**
+	 * Method to return the latency at a percentile.
+	 *
+	 * @param percentile between 0 and 100
+	 * @return the latency in microseconds, 0 when nothing was recorded
+	 */
+	public long getPercentile(double percentile) {
+		long count = this._count.get();
+		if (count == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += this._counts.get(i);
+			if (seen >= rank) {
+				return Math.min(highestValue(i), getMax());
+			}
+		}
+		return getMax();
+	}
+
+	/**
+	 * Method to add the values recorded by another histogram to this one.
+	 *
+	 * @param other the histogram to merge in
+	 */
+	public void add(LatencyHistogram other) {
+		for (int i = 0; i < BUCKETS; i++) {
+			long n = other._counts.get(i);
+			if (n != 0) {
+				this._counts.addAndGet(i, n);
+			}
+		}
+		this._count.addAndGet(other._count.get());
+		this._sum.addAndGet(other._sum.get());
+		long max;
+		while (other.getMax() > (max = this._max.get()) && !this._max.compareAndSet(max, other.getMax())) {
+			// retry until the maximum is published.
+		}
+		long min;
+		while (other._min.get() < (min = this._min.get()) && !this._min.compareAndSet(min, other._min.get())) {
+			// retry until the minimum is published.
+		}
+	}
+
+	/**
+	 * Method to summarize the histogram as a JSON object, in microseconds.
+	 *
+	 * @return the summary
+	 */
+	public String toJson() {
+		return new Json.ObjectWriter()
+			.field("count", getCount())
+			.field("min_us", getMin())
+			.field("mean_us", getMean())
+			.field("p50_us", getPercentile(50))
+			.field("p90_us", getPercentile(90))
+			.field("p99_us", getPercentile(99))
+			.field("p999_us", getPercentile(99.9))
+			.field("max_us", getMax())
+			.toString();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("count=%d p50=%.3fms p90=%.3fms p99=%.3fms p99.9=%.3fms max=%.3fms",
+			getCount(), getPercentile(50) / 1e3, getPercentile(90) / 1e3, getPercentile(99) / 1e3,
+			getPercentile(99.9) / 1e3, getMax() / 1e3);
+	}
+}
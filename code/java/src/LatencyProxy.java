@@ -0,0 +1,148 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class is a TCP forwarder on the loopback interface that delays every
+ * chunk of bytes by a fixed time in each direction, so a local database can
+ * be measured as if it were across a network.  A round trip through the
+ * proxy takes the configured round-trip time longer than a direct one;
+ * bandwidth is not limited.
+ *
+ *   LatencyProxy proxy = new LatencyProxy(5432, 2000);   // 2 ms round trip
+ *   new DBproject(dbname, String.valueOf(proxy.getPort()), user, "");
+ *
+ */
+
+public class LatencyProxy implements AutoCloseable {
+	//the end of each delay is waited out spinning, sleeps overshoot
+	static final long SPIN_NANOS = 500000;
+
+	private final ServerSocket _server;
+	private final int _targetPort;
+	private final long _delayNanos;
+	private volatile boolean _closed = false;
+
+	public LatencyProxy(int targetPort, long roundTripMicros) throws IOException {
+		this._targetPort = targetPort;
+		this._delayNanos = roundTripMicros * 1000 / 2;
+		this._server = new ServerSocket();
+		this._server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+		daemon("latency-proxy-accept", new Runnable() {
+			public void run() {
+				accept();
+			}
+		});
+	}
+
+	/**
+	 * Method to return the local port clients connect to.
+	 *
+	 * @return the proxy port
+	 */
+	public int getPort() {
+		return this._server.getLocalPort();
+	}
+
+	private void accept() {
+		while (!this._closed) {
+			try {
+				final Socket client = this._server.accept();
+				final Socket target = new Socket(InetAddress.getLoopbackAddress(), this._targetPort);
+				client.setTcpNoDelay(true);
+				target.setTcpNoDelay(true);
+				pipe(client, target);
+				pipe(target, client);
+			}catch (IOException e) {
+				if (!this._closed) {
+					System.err.println("Latency proxy: " + e.getMessage());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Forwards one direction: a reader stamps each chunk with the time it is
+	 * due and a writer sends it no earlier, so order is kept.
+	 */
+	private void pipe(final Socket from, final Socket to) {
+		final LinkedBlockingQueue<Object[]> chunks = new LinkedBlockingQueue<Object[]>();
+		daemon("latency-proxy-read", new Runnable() {
+			public void run() {
+				byte[] buffer = new byte[1 << 16];
+				try {
+					InputStream in = from.getInputStream();
+					int n;
+					while ((n = in.read(buffer)) >= 0) {
+						chunks.put(new Object[] {System.nanoTime() + LatencyProxy.this._delayNanos, Arrays.copyOf(buffer, n)});
+					}
+				}catch (IOException | InterruptedException e) {
+					// the connection is gone.
+				}
+				chunks.add(new Object[] {System.nanoTime() + LatencyProxy.this._delayNanos, null});
+			}
+		});
+		daemon("latency-proxy-write", new Runnable() {
+			public void run() {
+				try {
+					OutputStream out = to.getOutputStream();
+					while (true) {
+						Object[] chunk = chunks.take();
+						long due = (Long) chunk[0];
+						// sleeps most of the delay and spins the rest, sleep alone overshoots.
+						long wait = due - System.nanoTime() - SPIN_NANOS;
+						if (wait > 0) {
+							TimeUnit.NANOSECONDS.sleep(wait);
+						}
+						while (System.nanoTime() < due) {
+							Thread.yield();
+						}
+						if (chunk[1] == null) {
+							break;
+						}
+						out.write((byte[]) chunk[1]);
+						out.flush();
+					}
+				}catch (IOException | InterruptedException e) {
+					// the connection is gone.
+				}
+				close(from);
+				close(to);
+			}
+		});
+	}
+
+	private static void daemon(String name, Runnable task) {
+		Thread t = new Thread(task, name);
+		t.setDaemon(true);
+		t.start();
+	}
+
+	private static void close(Socket socket) {
+		try {
+			socket.close();
+		}catch (IOException e) {
+			// ignored.
+		}
+	}
+
+	/**
+	 * Method to stop accepting connections.  Open connections end when
+	 * either side closes them.
+	 */
+	public void close() {
+		this._closed = true;
+		try {
+			this._server.close();
+		}catch (IOException e) {
+			// ignored.
+		}
+	}
+}
@@ -0,0 +1,359 @@
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class finds out how much booking traffic a deployment sustains.  N
+ * worker threads run a mix of bookings (DBproject.bookFlight, the BookFlight
+ * logic), seat lookups (DBproject.seatsAvailable, as in
+ * ListNumberOfAvailableSeats) and reports 7, 8 and 9 for a fixed time.
+ * Flights are drawn from a Zipf distribution over Flight.fnum, so a few hot
+ * flights take most of the traffic, as on a real sale.
+ *
+ * Each step of the worker ramp records a latency histogram per operation,
+ * throughput, booking outcomes, errors and oversells: flights whose
+ * num_sold grew by a different amount than the seats reserved on them, or
+ * ended above the plane's capacity.  The bookings of a step are undone
+ * before the next one starts.  A JSON report of all steps is written so
+ * runs can be compared.  Bookings change the data: use a scratch database.
+ *
+ *   java -cp lib/*:bin/ LoadGenerator <dbname> <port> <user> <workers, e.g. 1,8,64> <seconds per step> [report.json]
+ *
+ * airline.load.mix sets the operation weights (default "book:10,seats:80,report:10"),
+ * airline.load.zipf the skew exponent (default 1.0, 0 is uniform).
+ */
+
+public class LoadGenerator {
+	enum Op {
+		BOOK, SEATS, REPORT
+	}
+
+	static final String FLIGHT_CAPACITY =
+		"SELECT F.fnum, F.num_sold, COALESCE(P.seats, -1) FROM Flight F " +
+		"LEFT JOIN FlightInfo I ON I.flight_id = F.fnum LEFT JOIN Plane P ON P.id = I.plane_id ORDER BY F.fnum";
+	static final String CUSTOMER_IDS = "SELECT id FROM Customer";
+
+	/**
+	 * Draws ranks 0..n-1 with probability proportional to 1 / (rank + 1)^s.
+	 */
+	static final class Zipf {
+		private final double[] _cdf;
+
+		Zipf(int n, double s) {
+			this._cdf = new double[n];
+			double sum = 0;
+			for (int i = 0; i < n; i++) {
+				sum += 1.0 / Math.pow(i + 1, s);
+				this._cdf[i] = sum;
+			}
+			for (int i = 0; i < n; i++) {
+				this._cdf[i] /= sum;
+			}
+		}
+
+		int next(Random random) {
+			int i = Arrays.binarySearch(this._cdf, random.nextDouble());
+			return Math.min(i >= 0 ? i : -i - 1, this._cdf.length - 1);
+		}
+	}
+
+	/**
+	 * The measurements of one step of the ramp.
+	 */
+	static final class Step {
+		final int workers;
+		final LatencyHistogram[] latency = new LatencyHistogram[Op.values().length];
+		final AtomicLong[] outcomes = new AtomicLong[SeatAllocator.Outcome.values().length];
+		final AtomicLong errors = new AtomicLong();
+		final ConcurrentLinkedQueue<Integer> booked = new ConcurrentLinkedQueue<Integer>();
+		//seats reserved per flight index
+		final AtomicIntegerArray reserved;
+		volatile String firstError;
+		double seconds;
+		int oversold;
+
+		Step(int workers, int flights) {
+			this.workers = workers;
+			for (int i = 0; i < this.latency.length; i++) {
+				this.latency[i] = new LatencyHistogram();
+			}
+			for (int i = 0; i < this.outcomes.length; i++) {
+				this.outcomes[i] = new AtomicLong();
+			}
+			this.reserved = new AtomicIntegerArray(flights);
+		}
+
+		long operations() {
+			long total = 0;
+			for (LatencyHistogram h : this.latency) {
+				total += h.getCount();
+			}
+			return total;
+		}
+
+		String toJson() {
+			Json.ObjectWriter ops = new Json.ObjectWriter();
+			for (Op op : Op.values()) {
+				ops.raw(op.name().toLowerCase(), this.latency[op.ordinal()].toJson());
+			}
+			Json.ObjectWriter outcomes = new Json.ObjectWriter();
+			for (SeatAllocator.Outcome outcome : SeatAllocator.Outcome.values()) {
+				outcomes.field(outcome.name().toLowerCase(), this.outcomes[outcome.ordinal()].get());
+			}
+			return new Json.ObjectWriter()
+				.field("workers", this.workers)
+				.field("seconds", this.seconds)
+				.field("operations", operations())
+				.field("throughput", operations() / this.seconds)
+				.field("bookings_per_second", this.latency[Op.BOOK.ordinal()].getCount() / this.seconds)
+				.field("errors", this.errors.get())
+				.field("first_error", this.firstError)
+				.field("oversold_flights", this.oversold)
+				.raw("booking_outcomes", outcomes.toString())
+				.raw("latency", ops.toString())
+				.toString();
+		}
+	}
+
+	private final DBproject _db;
+	private final int[] _weights = new int[Op.values().length];
+	private final double _skew;
+	private int[] _flights;
+	private int[] _customers;
+
+	public LoadGenerator(DBproject db, String mix, double skew) {
+		this._db = db;
+		this._skew = skew;
+		for (String part : mix.split(",")) {
+			String[] kv = part.trim().split(":");
+			this._weights[Op.valueOf(kv[0].trim().toUpperCase()).ordinal()] = Integer.parseInt(kv[1].trim());
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 5) {
+			System.err.println("Usage: java [-classpath <classpath>] " + LoadGenerator.class.getName() +
+				" <dbname> <port> <user> <workers, e.g. 1,8,64> <seconds per step> [report.json]");
+			return;
+		}
+		String[] ramp = args[3].split(",");
+		int maxWorkers = 0;
+		for (String w : ramp) {
+			maxWorkers = Math.max(maxWorkers, Integer.parseInt(w.trim()));
+		}
+		if (System.getProperty("airline.pool.max") == null) {
+			// one connection per worker plus one for id blocks.
+			System.setProperty("airline.pool.max", String.valueOf(maxWorkers + 1));
+		}
+		String mix = System.getProperty("airline.load.mix", "book:10,seats:80,report:10");
+		double skew = Double.parseDouble(System.getProperty("airline.load.zipf", "1.0"));
+
+		Class.forName("org.postgresql.Driver");
+		DBproject esql = new DBproject(args[0], args[1], args[2], "");
+		try {
+			LoadGenerator load = new LoadGenerator(esql, mix, skew);
+			StringBuilder steps = new StringBuilder("[");
+			System.out.println(String.format("%8s %10s %10s %10s %10s %10s %10s %10s %8s %9s",
+				"workers", "ops/s", "books/s", "book p50", "book p99", "seats p50", "seats p99", "report p99", "errors", "oversold"));
+			for (String w : ramp) {
+				Step step = load.run(Integer.parseInt(w.trim()), Integer.parseInt(args[4]) * 1000L);
+				System.out.println(String.format("%8d %10.0f %10.0f %8.2fms %8.2fms %8.2fms %8.2fms %8.2fms %8d %9d",
+					step.workers, step.operations() / step.seconds, step.latency[Op.BOOK.ordinal()].getCount() / step.seconds,
+					step.latency[Op.BOOK.ordinal()].getPercentile(50) / 1e3, step.latency[Op.BOOK.ordinal()].getPercentile(99) / 1e3,
+					step.latency[Op.SEATS.ordinal()].getPercentile(50) / 1e3, step.latency[Op.SEATS.ordinal()].getPercentile(99) / 1e3,
+					step.latency[Op.REPORT.ordinal()].getPercentile(99) / 1e3, step.errors.get(), step.oversold));
+				if (step.firstError != null) {
+					System.out.println("\tfirst error: " + step.firstError);
+				}
+				steps.append(steps.length() > 1 ? "," : "").append(step.toJson());
+			}
+			if (args.length > 5) {
+				String report = new Json.ObjectWriter()
+					.field("mix", mix)
+					.field("zipf", skew)
+					.field("flights", load._flights.length)
+					.field("customers", load._customers.length)
+					.field("pool_max", (long) esql.getPool().getMaxSize())
+					.field("finished", Instant.now().toString())
+					.raw("steps", steps.append(']').toString())
+					.toString();
+				Writer out = new OutputStreamWriter(new FileOutputStream(args[5]), StandardCharsets.UTF_8);
+				try {
+					out.write(report);
+					out.write('\n');
+				} finally {
+					out.close();
+				}
+			}
+		} finally {
+			esql.cleanup();
+		}
+	}
+
+	/**
+	 * Method to run one step of the ramp and undo its bookings.
+	 *
+	 * @param workers the number of concurrent workers
+	 * @param durationMillis how long the workers run
+	 * @return the measurements
+	 * @throws java.lang.Exception when the data cannot be read or restored
+	 */
+	public Step run(int workers, final long durationMillis) throws Exception {
+		final List<int[]> before = this._db.queryForList(FLIGHT_CAPACITY, TRIPLE);
+		this._flights = new int[before.size()];
+		for (int i = 0; i < this._flights.length; i++) {
+			this._flights[i] = before.get(i)[0];
+		}
+		this._customers = this._db.queryForIntColumn(CUSTOMER_IDS);
+		if (this._flights.length == 0 || this._customers.length == 0) {
+			throw new IllegalStateException("The database has no flights or customers to book.");
+		}
+
+		final Step step = new Step(workers, this._flights.length);
+		final Zipf zipf = new Zipf(this._flights.length, this._skew);
+		// hot flights are spread over the fnum range instead of being the lowest numbers.
+		final int[] byRank = new int[this._flights.length];
+		for (int i = 0; i < byRank.length; i++) {
+			byRank[i] = i;
+		}
+		Random shuffle = new Random(7);
+		for (int i = byRank.length - 1; i > 0; i--) {
+			int j = shuffle.nextInt(i + 1);
+			int t = byRank[i];
+			byRank[i] = byRank[j];
+			byRank[j] = t;
+		}
+		int total = 0;
+		for (int weight : this._weights) {
+			total += weight;
+		}
+		final int weightSum = total;
+
+		final CountDownLatch start = new CountDownLatch(1);
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int w = 0; w < workers; w++) {
+			final Random random = new Random(w * 31L + workers);
+			Thread t = new Thread(new Runnable() {
+				public void run() {
+					try {
+						start.await();
+					}catch (InterruptedException e) {
+						return;
+					}
+					long end = System.currentTimeMillis() + durationMillis;
+					while (System.currentTimeMillis() < end) {
+						int flight = byRank[zipf.next(random)];
+						Op op = pick(random.nextInt(weightSum));
+						long begin = System.nanoTime();
+						try {
+							execute(op, flight, random, step);
+							step.latency[op.ordinal()].recordSince(begin);
+						}catch (Exception e) {
+							step.errors.incrementAndGet();
+							if (step.firstError == null) {
+								step.firstError = String.valueOf(e.getMessage());
+							}
+						}
+					}
+				}
+			}, "load-" + w);
+			threads.add(t);
+			t.start();
+		}
+		long began = System.nanoTime();
+		start.countDown();
+		for (Thread t : threads) {
+			t.join();
+		}
+		step.seconds = (System.nanoTime() - began) / 1e9;
+
+		step.oversold = countOversold(before, this._db.queryForList(FLIGHT_CAPACITY, TRIPLE), step);
+		undo(step);
+		return step;
+	}//end run
+
+	private Op pick(int draw) {
+		for (Op op : Op.values()) {
+			draw -= this._weights[op.ordinal()];
+			if (draw < 0) {
+				return op;
+			}
+		}
+		return Op.SEATS;
+	}
+
+	private void execute(Op op, int flight, Random random, Step step) throws Exception {
+		int fnum = this._flights[flight];
+		switch (op) {
+			case BOOK:
+				SeatAllocator.Result result = this._db.bookFlight(this._customers[random.nextInt(this._customers.length)], fnum, true);
+				step.outcomes[result.outcome.ordinal()].incrementAndGet();
+				if (result.rnum >= 0) {
+					step.booked.add(result.rnum);
+				}
+				if (result.outcome == SeatAllocator.Outcome.RESERVED) {
+					step.reserved.incrementAndGet(flight);
+				}
+				break;
+			case SEATS:
+				this._db.seatsAvailable(fnum);
+				break;
+			case REPORT:
+				switch (random.nextInt(3)) {
+					case 0: this._db.repairsPerPlane(); break;
+					case 1: this._db.repairsPerYear(); break;
+					default: this._db.passengerBreakdown(fnum); break;
+				}
+				break;
+			default:
+				break;
+		}
+	}
+
+	/**
+	 * Method to count the flights the step oversold: num_sold moved by
+	 * something other than the seats reserved, or went past the capacity.
+	 */
+	static int countOversold(List<int[]> before, List<int[]> after, Step step) {
+		int oversold = 0;
+		for (int i = 0; i < before.size() && i < after.size(); i++) {
+			int[] b = before.get(i);
+			int[] a = after.get(i);
+			boolean drift = a[1] - b[1] != step.reserved.get(i);
+			boolean overCapacity = a[2] >= 0 && a[1] > Math.max(a[2], b[1]);
+			if (drift || overCapacity) {
+				oversold++;
+			}
+		}
+		return oversold;
+	}
+
+	private void undo(Step step) throws Exception {
+		int[] rnums = new int[step.booked.size()];
+		int i = 0;
+		for (Integer rnum : step.booked) {
+			rnums[i++] = rnum;
+		}
+		this._db.executeUpdate(DataAccessBench.RELEASE_SEATS, (Object) rnums);
+		this._db.executeUpdate(DataAccessBench.DELETE_RESERVATIONS, (Object) rnums);
+		this._db.getSeatCache().clear();
+	}
+
+	//reads the first three columns as ints
+	static final RowMapper<int[]> TRIPLE = new RowMapper<int[]>() {
+		public int[] map(Row row) throws SQLException {
+			return new int[] {row.getInt(1), row.getInt(2), row.getInt(3)};
+		}
+	};
+}
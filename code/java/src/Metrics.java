@@ -0,0 +1,176 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * This class collects the per-operation statistics of a DBproject and its
+ * connection pool.  Every operation gets an OperationStats the first time it
+ * is recorded, published as the MBean "airline:type=Operation,name=<op>";
+ * the pool is published as "airline:type=ConnectionPool".  When
+ * airline.metrics.file is set, a JSON snapshot of everything is appended to
+ * that file every airline.metrics.intervalMs (default 60000) and once more
+ * on close, one line per snapshot.  Counters are cumulative since start, so
+ * the rate over an interval is the difference of two lines.
+ *
+ */
+
+public class Metrics {
+	static final String DOMAIN = "airline";
+
+	private final ConnectionPool _pool;
+	private final ConcurrentHashMap<String, OperationStats> _operations = new ConcurrentHashMap<String, OperationStats>();
+	private final MBeanServer _server = ManagementFactory.getPlatformMBeanServer();
+	private final List<ObjectName> _registered = new ArrayList<ObjectName>();
+	private final File _file;
+	private final ScheduledExecutorService _writer;
+
+	public Metrics(ConnectionPool pool, File file, long intervalMillis) {
+		this._pool = pool;
+		this._file = file;
+		register(pool, "type=ConnectionPool");
+		if (file == null) {
+			this._writer = null;
+			return;
+		}
+		this._writer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "metrics-writer");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		this._writer.scheduleAtFixedRate(new Runnable() {
+			public void run() {
+				write();
+			}
+		}, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Method to create the metrics configured by the airline.metrics.*
+	 * system properties.
+	 *
+	 * @param pool the pool whose statistics are published
+	 * @return the metrics
+	 */
+	public static Metrics fromSystemProperties(ConnectionPool pool) {
+		String file = System.getProperty("airline.metrics.file");
+		return new Metrics(pool, file == null ? null : new File(file), Long.getLong("airline.metrics.intervalMs", 60000L));
+	}
+
+	/**
+	 * Method to return the statistics of an operation, creating and
+	 * publishing them on first use.
+	 *
+	 * @param name the operation name
+	 * @return the statistics
+	 */
+	public OperationStats operation(String name) {
+		OperationStats stats = this._operations.get(name);
+		if (stats != null) {
+			return stats;
+		}
+		OperationStats created = new OperationStats(name);
+		stats = this._operations.putIfAbsent(name, created);
+		if (stats != null) {
+			return stats;
+		}
+		register(created, "type=Operation,name=" + ObjectName.quote(name));
+		return created;
+	}//end operation
+
+	private void register(Object mbean, String properties) {
+		try {
+			ObjectName name = new ObjectName(DOMAIN + ":" + properties);
+			if (this._server.isRegistered(name)) {
+				// another DBproject in this JVM published it first; keep that one.
+				return;
+			}
+			this._server.registerMBean(mbean, name);
+			synchronized (this._registered) {
+				this._registered.add(name);
+			}
+		}catch (JMException e) {
+			System.err.println("Metrics: unable to register " + properties + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Method to snapshot every statistic as one JSON object.
+	 *
+	 * @return the snapshot
+	 */
+	public String toJson() {
+		Json.ObjectWriter operations = new Json.ObjectWriter();
+		for (Map.Entry<String, OperationStats> e : new TreeMap<String, OperationStats>(this._operations).entrySet()) {
+			operations.raw(e.getKey(), e.getValue().toJson());
+		}
+		Json.ObjectWriter pool = new Json.ObjectWriter()
+			.field("active", (long) this._pool.getActiveCount())
+			.field("idle", (long) this._pool.getIdleCount())
+			.field("total", (long) this._pool.getTotalCount())
+			.field("max", (long) this._pool.getMaxSize())
+			.field("borrows", this._pool.getBorrowCount())
+			.field("timeouts", this._pool.getTimeoutCount())
+			.field("leaks", this._pool.getLeakCount())
+			.raw("wait", this._pool.getWaitHistogram().toJson());
+		return new Json.ObjectWriter()
+			.field("time", Instant.now().toString())
+			.raw("pool", pool.toString())
+			.raw("operations", operations.toString())
+			.toString();
+	}
+
+	private synchronized void write() {
+		try {
+			Writer out = new OutputStreamWriter(new FileOutputStream(this._file, true), StandardCharsets.UTF_8);
+			try {
+				out.write(toJson());
+				out.write('\n');
+			} finally {
+				out.close();
+			}
+		}catch (IOException e) {
+			System.err.println("Metrics: unable to write " + this._file + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Method to write a last snapshot, stop the writer and unpublish the
+	 * MBeans.
+	 */
+	public void close() {
+		if (this._writer != null) {
+			this._writer.shutdownNow();
+			write();
+		}
+		synchronized (this._registered) {
+			for (ObjectName name : this._registered) {
+				try {
+					this._server.unregisterMBean(name);
+				}catch (JMException e) {
+					// ignored.
+				}
+			}
+			this._registered.clear();
+		}
+	}//end close
+}
@@ -0,0 +1,85 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class accumulates the calls, errors, rows and latency of one
+ * operation, e.g. executeUpdate or BookFlight.  It is safe to update from
+ * many threads and is published over JMX by Metrics.
+ *
+ */
+
+public class OperationStats implements OperationStatsMBean {
+	private final String _name;
+	private final AtomicLong _errors = new AtomicLong();
+	private final AtomicLong _rows = new AtomicLong();
+	//latency of successful and failed calls alike
+	private final LatencyHistogram _latency = new LatencyHistogram();
+
+	public OperationStats(String name) {
+		this._name = name;
+	}
+
+	public String getName() {
+		return this._name;
+	}
+
+	/**
+	 * Method to record a call that succeeded.
+	 *
+	 * @param startNanos System.nanoTime() when the call started
+	 * @param rows the rows returned or affected
+	 */
+	public void success(long startNanos, long rows) {
+		this._latency.recordSince(startNanos);
+		this._rows.addAndGet(rows);
+	}
+
+	/**
+	 * Method to record a call that failed.
+	 *
+	 * @param startNanos System.nanoTime() when the call started
+	 */
+	public void failure(long startNanos) {
+		this._latency.recordSince(startNanos);
+		this._errors.incrementAndGet();
+	}
+
+	public long getCount() {
+		return this._latency.getCount();
+	}
+
+	public long getErrors() {
+		return this._errors.get();
+	}
+
+	public long getRows() {
+		return this._rows.get();
+	}
+
+	public double getMeanMicros() {
+		return this._latency.getMean();
+	}
+
+	public long getP50Micros() {
+		return this._latency.getPercentile(50);
+	}
+
+	public long getP99Micros() {
+		return this._latency.getPercentile(99);
+	}
+
+	public long getMaxMicros() {
+		return this._latency.getMax();
+	}
+
+	public LatencyHistogram getLatency() {
+		return this._latency;
+	}
+
+	public String toJson() {
+		return new Json.ObjectWriter()
+			.field("errors", getErrors())
+			.field("rows", getRows())
+			.raw("latency", this._latency.toJson())
+			.toString();
+	}
+}
@@ -0,0 +1,21 @@
+/**
+ * This interface is the JMX view of one operation's OperationStats.
+ * Latencies are in microseconds.
+ *
+ */
+
+public interface OperationStatsMBean {
+	long getCount();
+
+	long getErrors();
+
+	long getRows();
+
+	double getMeanMicros();
+
+	long getP50Micros();
+
+	long getP99Micros();
+
+	long getMaxMicros();
+}
@@ -0,0 +1,299 @@
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class maintains the monthly partitions of Reservation and Schedule
+ * created by create.sql, named reservation_YYYY_MM and schedule_YYYY_MM.
+ *
+ *   list                  prints every partition and its estimated rows
+ *   create [months]       creates partitions from the first departure month
+ *                         to [months] (default 12) past the later of the
+ *                         last flight and today
+ *   detach <YYYY-MM-DD>   detaches the partitions of months ending on or
+ *                         before the date; they stay as plain tables to
+ *                         archive or drop
+ *   maintain [months ahead] [months kept]
+ *                         create, then detach the months that ended more
+ *                         than [months kept] (default 24) months ago; meant
+ *                         to run from cron
+ *
+ * A partition is detached with DETACH PARTITION ... CONCURRENTLY, which
+ * does not block inserts and reads of the other partitions (PostgreSQL 14
+ * or later; older servers take a short exclusive lock on the parent).  A
+ * month that has not ended yet is never detached, so bookings of current
+ * and future flights keep their partitions.  If a concurrent detach is
+ * interrupted, rerunning the command finishes it.
+ *
+ * With airline.shards every command runs on each shard in turn, see
+ * ShardRouter; create gives all of them the same range of months, from the
+ * first departure on any shard to the last.
+ *
+ *   java -cp lib/*:bin/ PartitionManager <dbname> <port> <user> <command> [arguments]
+ *
+ */
+
+public class PartitionManager {
+	static final String[] TABLES = {"reservation", "schedule"};
+
+	static final String CREATE_PARTITIONS = "SELECT create_departure_partitions(?, ?)";
+	//what BulkLoader runs before loading the partitioned tables
+	static final String CREATE_FOR_FLIGHTS =
+		"SELECT create_departure_partitions(MIN(actual_departure_date), (MAX(actual_departure_date) + INTERVAL '1 year')::DATE) FROM Flight";
+	static final String FIRST_DEPARTURE = "SELECT MIN(actual_departure_date) FROM Flight";
+	static final String LAST_DEPARTURE = "SELECT MAX(actual_departure_date) FROM Flight";
+	/*
+	 * Partitions of a table: name, estimated rows, and whether a concurrent
+	 * detach of it was interrupted (pg_inherits.inhdetachpending, 14 and
+	 * later).
+	 */
+	static final String PARTITIONS =
+		"SELECT C.relname, C.reltuples::bigint, " +
+		"COALESCE((to_jsonb(I) ->> 'inhdetachpending')::boolean, false) " +
+		"FROM pg_inherits I JOIN pg_class C ON C.oid = I.inhrelid JOIN pg_class P ON P.oid = I.inhparent " +
+		"WHERE P.relname = ? ORDER BY C.relname";
+	static final String SERVER_VERSION = "SELECT current_setting('server_version_num')::int";
+	static final DateTimeFormatter MONTH = DateTimeFormatter.ofPattern("yyyy_MM");
+
+	/**
+	 * One partition and its state.
+	 */
+	static final class Partition {
+		final String table;
+		final String name;
+		final long rows;
+		final boolean detachPending;
+
+		Partition(String table, String name, long rows, boolean detachPending) {
+			this.table = table;
+			this.name = name;
+			this.rows = rows;
+			this.detachPending = detachPending;
+		}
+
+		/**
+		 * The first day of the month after the partition's month, or null when
+		 * the name does not follow the table_YYYY_MM pattern.
+		 */
+		LocalDate end() {
+			String suffix = this.name.substring(this.table.length() + 1);
+			try {
+				return LocalDate.parse(suffix + "_01", DateTimeFormatter.ofPattern("yyyy_MM_dd")).plusMonths(1);
+			}catch (RuntimeException e) {
+				return null;
+			}
+		}
+	}
+
+	private final DBproject _db;
+
+	public PartitionManager(DBproject db) {
+		this._db = db;
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 4 || !(args[3].equals("list") || args[3].equals("create") || args[3].equals("detach") || args[3].equals("maintain"))
+				|| (args[3].equals("detach") && args.length < 5)) {
+			System.err.println("Usage: java [-classpath <classpath>] " + PartitionManager.class.getName() +
+				" <dbname> <port> <user> list | create [months] | detach <YYYY-MM-DD> | maintain [months ahead] [months kept]");
+			return;
+		}
+		Class.forName("org.postgresql.Driver");
+		DBproject esql = new DBproject(args[0], args[1], args[2], "");
+		try {
+			PartitionManager partitions = new PartitionManager(esql);
+			switch (args[3]) {
+				case "list":
+					partitions.list();
+					break;
+				case "create":
+					partitions.create(args.length > 4 ? Integer.parseInt(args[4]) : 12);
+					break;
+				case "detach":
+					partitions.detach(LocalDate.parse(args[4]));
+					break;
+				default:
+					partitions.create(args.length > 4 ? Integer.parseInt(args[4]) : 12);
+					int kept = args.length > 5 ? Integer.parseInt(args[5]) : 24;
+					partitions.detach(LocalDate.now().withDayOfMonth(1).minusMonths(kept));
+					break;
+			}
+		} finally {
+			esql.cleanup();
+		}
+	}
+
+	/**
+	 * Method to return the partitions of a table.
+	 *
+	 * @param table "reservation" or "schedule"
+	 * @return the partitions, by name
+	 * @throws java.sql.SQLException when the catalog cannot be read
+	 */
+	public List<Partition> partitions(String table) throws SQLException {
+		return partitions(this._db.getPool(), table);
+	}
+
+	private List<Partition> partitions(ConnectionPool pool, String table) throws SQLException {
+		List<Partition> result = new ArrayList<Partition>();
+		PooledConnection conn = pool.borrow();
+		try {
+			ResultSet rs = conn.prepare(PARTITIONS, table).executeQuery();
+			try {
+				while (rs.next()) {
+					result.add(new Partition(table, rs.getString(1), rs.getLong(2), rs.getBoolean(3)));
+				}
+			} finally {
+				rs.close();
+			}
+		} finally {
+			conn.close();
+		}
+		return result;
+	}
+
+	//the pool of every shard, or only the database's own
+	private ConnectionPool[] pools() {
+		ShardRouter shards = this._db.getShardRouter();
+		if (shards == null) {
+			return new ConnectionPool[] {this._db.getPool()};
+		}
+		ConnectionPool[] pools = new ConnectionPool[shards.getShardCount()];
+		for (int i = 0; i < pools.length; i++) {
+			pools[i] = shards.getPool(i);
+		}
+		return pools;
+	}
+
+	//the first column of the only row of a query, which may be null
+	private static Object queryForValue(ConnectionPool pool, String query, Object... params) throws SQLException {
+		PooledConnection conn = pool.borrow();
+		try {
+			ResultSet rs = conn.prepare(query, params).executeQuery();
+			try {
+				return rs.next() ? rs.getObject(1) : null;
+			} finally {
+				rs.close();
+			}
+		} finally {
+			conn.close();
+		}
+	}
+
+	/**
+	 * Method to print every partition.
+	 *
+	 * @throws java.sql.SQLException when the catalog cannot be read
+	 */
+	public void list() throws SQLException {
+		ConnectionPool[] pools = pools();
+		System.out.println(String.format("%5s %-24s %12s  %s", "shard", "partition", "rows (est.)", "state"));
+		for (int shard = 0; shard < pools.length; shard++) {
+			for (String table : TABLES) {
+				for (Partition p : partitions(pools[shard], table)) {
+					System.out.println(String.format("%5d %-24s %12d  %s", shard, p.name, Math.max(0, p.rows),
+						p.detachPending ? "detach pending" : "attached"));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Method to create the partitions from the first departure month to a
+	 * number of months past the later of the last flight and today.
+	 *
+	 * @param monthsAhead the months of partitions kept ready ahead
+	 * @return the number of partitions created
+	 * @throws java.sql.SQLException when a partition cannot be created
+	 */
+	public int create(int monthsAhead) throws SQLException {
+		LocalDate today = LocalDate.now();
+		ConnectionPool[] pools = pools();
+		LocalDate from = null;
+		LocalDate to = today;
+		for (ConnectionPool pool : pools) {
+			Date first = (Date) queryForValue(pool, FIRST_DEPARTURE);
+			Date last = (Date) queryForValue(pool, LAST_DEPARTURE);
+			if (first != null && (from == null || first.toLocalDate().isBefore(from))) {
+				from = first.toLocalDate();
+			}
+			if (last != null && last.toLocalDate().isAfter(to)) {
+				to = last.toLocalDate();
+			}
+		}
+		if (from == null) {
+			from = today;
+		}
+		int created = 0;
+		for (ConnectionPool pool : pools) {
+			Object count = queryForValue(pool, CREATE_PARTITIONS, Date.valueOf(from), Date.valueOf(to.plusMonths(monthsAhead)));
+			created += count == null ? 0 : ((Number) count).intValue();
+		}
+		System.out.println(String.format("Created %d partitions up to %s.", created, to.plusMonths(monthsAhead).withDayOfMonth(1).format(MONTH)));
+		return created;
+	}//end create
+
+	/**
+	 * Method to detach the partitions of the months ending on or before a
+	 * date.  Months that have not ended yet are kept whatever the date.
+	 *
+	 * @param before the end of the detached range
+	 * @return the number of partitions detached
+	 * @throws java.sql.SQLException when a partition cannot be detached
+	 */
+	public int detach(LocalDate before) throws SQLException {
+		LocalDate thisMonth = LocalDate.now().withDayOfMonth(1);
+		if (before.isAfter(thisMonth)) {
+			before = thisMonth;
+		}
+		int detached = 0;
+		boolean older = false;
+		for (ConnectionPool pool : pools()) {
+			detached += detach(pool, before);
+			older |= ((Number) queryForValue(pool, SERVER_VERSION)).intValue() < 140000;
+		}
+		if (older && detached > 0) {
+			System.out.println("The server is older than PostgreSQL 14: each detach briefly locked its parent table.");
+		}
+		return detached;
+	}//end detach
+
+	//detaches the partitions of one database
+	private int detach(ConnectionPool pool, LocalDate before) throws SQLException {
+		boolean concurrently = ((Number) queryForValue(pool, SERVER_VERSION)).intValue() >= 140000;
+		int detached = 0;
+		for (String table : TABLES) {
+			for (Partition p : partitions(pool, table)) {
+				LocalDate end = p.end();
+				if (end == null || end.isAfter(before)) {
+					continue;
+				}
+				// CONCURRENTLY cannot run in a transaction block, so it goes through a plain statement.
+				String sql = "ALTER TABLE " + table + " DETACH PARTITION " + p.name
+					+ (p.detachPending ? " FINALIZE" : concurrently ? " CONCURRENTLY" : "");
+				PooledConnection conn = pool.borrow();
+				try {
+					Connection c = conn.getConnection();
+					c.setAutoCommit(true);
+					Statement stmt = c.createStatement();
+					try {
+						stmt.execute(sql);
+					} finally {
+						stmt.close();
+					}
+				} finally {
+					conn.close();
+				}
+				System.out.println("Detached " + p.name + " (" + Math.max(0, p.rows) + " rows).");
+				detached++;
+			}
+		}
+		return detached;
+	}
+}
@@ -0,0 +1,44 @@
+import java.sql.SQLException;
+
+/**
+ * This class holds the number of reservations of one flight per status.
+ *
+ */
+
+public final class PassengerBreakdown {
+	//select list matching MAPPER
+	public static final String COLUMNS = "fid, reserved, confirmed, waitlisted";
+
+	public static final RowMapper<PassengerBreakdown> MAPPER = new RowMapper<PassengerBreakdown>() {
+		public PassengerBreakdown map(Row row) throws SQLException {
+			return new PassengerBreakdown(row.getInt(1), row.getInt(2), row.getInt(3), row.getInt(4));
+		}
+	};
+
+	public final int fnum;
+	public final int reserved;
+	public final int confirmed;
+	public final int waitlisted;
+
+	public PassengerBreakdown(int fnum, int reserved, int confirmed, int waitlisted) {
+		this.fnum = fnum;
+		this.reserved = reserved;
+		this.confirmed = confirmed;
+		this.waitlisted = waitlisted;
+	}
+
+	/**
+	 * Method to return the count of one status.
+	 *
+	 * @param status 'R', 'C' or 'W'
+	 * @return the number of reservations with that status
+	 */
+	public int count(char status) {
+		switch (status) {
+			case 'R': return this.reserved;
+			case 'C': return this.confirmed;
+			case 'W': return this.waitlisted;
+			default: throw new IllegalArgumentException("Unknown reservation status: " + status);
+		}
+	}
+}
@@ -0,0 +1,31 @@
+import java.sql.SQLException;
+
+/**
+ * This class holds one row of the Plane table.
+ *
+ */
+
+public final class Plane {
+	//select list matching MAPPER
+	public static final String COLUMNS = "id, make, model, age, seats";
+
+	public static final RowMapper<Plane> MAPPER = new RowMapper<Plane>() {
+		public Plane map(Row row) throws SQLException {
+			return new Plane(row.getInt(1), Flight.trim(row.getString(2)), Flight.trim(row.getString(3)), row.getInt(4), row.getInt(5));
+		}
+	};
+
+	public final int id;
+	public final String make;
+	public final String model;
+	public final int age;
+	public final int seats;
+
+	public Plane(int id, String make, String model, int age, int seats) {
+		this.id = id;
+		this.make = make;
+		this.model = model;
+		this.age = age;
+		this.seats = seats;
+	}
+}
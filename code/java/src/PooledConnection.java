@@ -0,0 +1,107 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * This class wraps a physical connection handed out by a ConnectionPool
+ * together with the prepared statements cached for it.  Closing it returns
+ * the connection to the pool instead of closing the socket.
+ *
+ */
+
+public class PooledConnection implements AutoCloseable {
+	private final ConnectionPool _pool;
+	//reference to physical database connection
+	private final Connection _connection;
+	//prepared statements of _connection, re-used across borrows
+	private final StatementCache _statements;
+	//bookkeeping used by the pool for validation, eviction and leak detection
+	volatile long _lastUsedMillis;
+	volatile long _borrowedAtMillis;
+	volatile Throwable _borrowSite;
+	volatile boolean _leakReported;
+
+	PooledConnection(ConnectionPool pool, Connection connection, int statementCacheSize) {
+		this._pool = pool;
+		this._connection = connection;
+		this._statements = new StatementCache(connection, statementCacheSize);
+		this._lastUsedMillis = System.currentTimeMillis();
+	}
+
+	/**
+	 * Method to return the underlying JDBC connection.  It stays owned by the
+	 * pool: callers may change auto-commit or the transaction state for the
+	 * duration of the borrow, but must not close it.
+	 *
+	 * @return the physical connection
+	 */
+	public Connection getConnection() {
+		return this._connection;
+	}
+
+	/**
+	 * Method to look up the cached prepared statement for a SQL string and
+	 * bind its parameters.  An int[] parameter is bound as an SQL integer
+	 * array, e.g. for "fid = ANY(?)".  The returned statement stays owned by
+	 * the statement cache and must not be closed by the caller.
+	 *
+	 * @param sql the input SQL string with '?' placeholders
+	 * @param params the values bound to the placeholders, in order
+	 * @return the bound statement
+	 * @throws java.sql.SQLException when the statement cannot be prepared
+	 */
+	public PreparedStatement prepare(String sql, Object... params) throws SQLException {
+		PreparedStatement stmt = this._statements.prepare(sql);
+		stmt.clearParameters();
+		bind(stmt, params);
+		return stmt;
+	}//end prepare
+
+	/**
+	 * Method to bind parameters to a statement prepared outside the
+	 * statement cache, e.g. a one-off statement that would only evict the
+	 * cached ones, the same way prepare does.
+	 *
+	 * @param stmt a statement of this connection
+	 * @param params the values bound to the placeholders, in order
+	 * @throws java.sql.SQLException when a value cannot be bound
+	 */
+	public void bind(PreparedStatement stmt, Object... params) throws SQLException {
+		for (int i = 0; i < params.length; i++) {
+			if (params[i] instanceof int[]) {
+				stmt.setArray(i + 1, this._connection.createArrayOf("integer", box((int[]) params[i])));
+			}
+			else {
+				stmt.setObject(i + 1, params[i]);
+			}
+		}
+	}
+
+	private static Integer[] box(int[] values) {
+		Integer[] boxed = new Integer[values.length];
+		for (int i = 0; i < values.length; i++) {
+			boxed[i] = values[i];
+		}
+		return boxed;
+	}
+
+	/**
+	 * Method to give the connection back to its pool.
+	 */
+	@Override
+	public void close() {
+		this._pool.release(this);
+	}
+
+	/**
+	 * Method to close the cached statements and the physical connection.
+	 */
+	void destroy() {
+		this._statements.close();
+		try {
+			this._connection.close();
+		}catch (SQLException e) {
+			// ignored.
+		}
+	}//end destroy
+}
@@ -0,0 +1,58 @@
+/**
+ * This class names the SQL statements issued by the DBproject menu
+ * operations.  Values are always bound through '?' placeholders so that the
+ * text of each statement never changes and it can be prepared once per
+ * connection by the StatementCache.
+ *
+ */
+
+public final class Queries {
+	private Queries() {
+	}
+
+	// new primary keys come from IdGenerator
+
+	// 1. Add Plane
+	public static final String INSERT_PLANE = "INSERT INTO Plane VALUES(?, ?, ?, ?, ?)";
+
+	// 2. Add Pilot
+	public static final String INSERT_PILOT = "INSERT INTO Pilot VALUES(?, ?, ?)";
+
+	// 3. Add Flight
+	public static final String INSERT_FLIGHT = "INSERT INTO Flight VALUES(?, ?, ?, ?, ?, ?, ?, ?)";
+
+	// 4. Add Technician
+	public static final String INSERT_TECHNICIAN = "INSERT INTO Technician VALUES(?, ?)";
+
+	// 5. Book Flight: see SeatAllocator.BOOK
+
+	// 6. List number of available seats
+	public static final String SEATS_LEFT = "SELECT P.seats - F.num_sold FROM Flight F, Plane P, FlightInfo I WHERE F.fnum = I.flight_id AND I.plane_id = P.id AND F.fnum = ?";
+	//the seats sold only, for when the plane's capacity comes from the reference snapshot
+	public static final String SEATS_SOLD = "SELECT num_sold FROM Flight WHERE fnum = ?";
+
+	// 7. List total number of repairs per plane (counters from create_repair_counters.sql)
+	public static final String REPAIRS_PER_PLANE = "SELECT P.id, COALESCE(C.repair_count, 0) AS RepairCount FROM Plane P LEFT JOIN RepairsPerPlane C ON C.plane_id = P.id ORDER BY RepairCount DESC";
+
+	// 8. List total number of repairs per year (counters from create_repair_counters.sql)
+	public static final String REPAIRS_PER_YEAR = "SELECT year AS Year, repair_count AS count FROM RepairsPerYear WHERE repair_count > 0 ORDER BY count ASC";
+
+	// 9. Find total number of passengers with a given status
+	// (Reservation is partitioned by departure month: naming the flight's departure date lets
+	// the planner read only that partition)
+	public static final String PASSENGERS_WITH_STATUS =
+		"SELECT COUNT(*) FROM Flight F JOIN Reservation R ON R.fid = F.fnum AND R.departure_date = F.actual_departure_date " +
+		"WHERE F.fnum = ? AND R.status = ?";
+	// counts of every status for an array of flights, one pass over fid_status_rnum_index
+	// in each flight's partition
+	public static final String PASSENGER_BREAKDOWN =
+		"SELECT Q.fid, COUNT(R.status) FILTER (WHERE R.status = 'R') AS reserved, " +
+		"COUNT(R.status) FILTER (WHERE R.status = 'C') AS confirmed, " +
+		"COUNT(R.status) FILTER (WHERE R.status = 'W') AS waitlisted " +
+		"FROM (SELECT DISTINCT unnest(?) AS fid) Q LEFT JOIN Flight F ON F.fnum = Q.fid " +
+		"LEFT JOIN Reservation R ON R.fid = F.fnum AND R.departure_date = F.actual_departure_date " +
+		"GROUP BY Q.fid ORDER BY Q.fid";
+
+	// every flight number, e.g. to find the flights a cache or a shard is missing
+	public static final String FLIGHT_NUMBERS = "SELECT fnum FROM Flight";
+}
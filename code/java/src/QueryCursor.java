@@ -0,0 +1,99 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * This class streams the rows of a query through a server-side cursor.  The
+ * PostgreSQL driver only uses a cursor inside a transaction, so the cursor
+ * holds a pooled connection with auto-commit off and fetches fetchSize rows
+ * per round trip.  Memory use stays bounded by one batch however large the
+ * result is.  The cursor must be closed to give the connection back.
+ *
+ *   QueryCursor cursor = esql.openCursor(sql, 1000, fnum);
+ *   try {
+ *     while (cursor.next()) { ... cursor.row().getInt(1) ... }
+ *   } finally {
+ *     cursor.close();
+ *   }
+ *
+ */
+
+public class QueryCursor implements AutoCloseable {
+	private final PooledConnection _conn;
+	private final PreparedStatement _stmt;
+	private final ResultSet _rs;
+	private final Row _row;
+	private long _rowCount = 0;
+	private boolean _closed = false;
+
+	QueryCursor(PooledConnection conn, String query, int fetchSize, Object[] params) throws SQLException {
+		this._conn = conn;
+		try {
+			Connection c = conn.getConnection();
+			c.setAutoCommit(false);
+			this._stmt = conn.prepare(query, params);
+			this._stmt.setFetchSize(fetchSize);
+			this._rs = this._stmt.executeQuery();
+			this._row = new Row(this._rs);
+		}catch (SQLException e) {
+			conn.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Method to advance to the next row, fetching another batch from the
+	 * server when the current one is used up.
+	 *
+	 * @return false once there are no more rows
+	 * @throws java.sql.SQLException when fetching fails
+	 */
+	public boolean next() throws SQLException {
+		if (this._closed || !this._rs.next()) {
+			return false;
+		}
+		this._rowCount++;
+		return true;
+	}
+
+	/**
+	 * Method to return the current row.  The same object is returned for
+	 * every row.
+	 *
+	 * @return the current row
+	 */
+	public Row row() {
+		return this._row;
+	}
+
+	/**
+	 * Method to return the number of rows read so far.
+	 *
+	 * @return the number of rows read
+	 */
+	public long getRowCount() {
+		return this._rowCount;
+	}
+
+	/**
+	 * Method to close the cursor, end its transaction and give the
+	 * connection back to the pool.
+	 */
+	@Override
+	public void close() {
+		if (this._closed) {
+			return;
+		}
+		this._closed = true;
+		try {
+			this._rs.close();
+			// the statement is cached, so it must not keep the cursor fetch size.
+			this._stmt.setFetchSize(0);
+		}catch (SQLException e) {
+			// ignored.
+		}finally {
+			this._conn.close();
+		}
+	}//end close
+}
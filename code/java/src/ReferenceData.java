@@ -0,0 +1,148 @@
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class keeps the current ReferenceSnapshot of a DBproject.  At start
+ * it maps the snapshot file airline.reference.file (default
+ * reference.snapshot) if there is one, so lookups work before any query.
+ * A background thread then reads ReferenceVersion right away and every
+ * airline.reference.checkMs (default 10000), and writes and maps a new
+ * file when the version differs from the snapshot's.
+ *
+ * Callers fall back to SQL while there is no snapshot and for ids the
+ * snapshot does not have.  A change to the reference tables shows up at the
+ * next check, so until then a lookup can return the old value; booking
+ * checks the seats in the database and does not rely on it.  Setting
+ * airline.reference.file to an empty string turns snapshots off.
+ *
+ */
+
+public class ReferenceData {
+	static final String DEFAULT_FILE = "reference.snapshot";
+
+	private final DBproject _db;
+	private final File _file;
+	private final ScheduledExecutorService _checker;
+	private final AtomicLong _refreshes = new AtomicLong();
+	private volatile ReferenceSnapshot _snapshot = null;
+
+	public ReferenceData(DBproject db, File file, long checkMillis) {
+		this._db = db;
+		this._file = file;
+		if (file == null) {
+			this._checker = null;
+			return;
+		}
+		if (file.exists()) {
+			try {
+				this._snapshot = ReferenceSnapshot.open(file);
+			}catch (IOException e) {
+				System.err.println("Reference data: " + e.getMessage() + ", it will be written again");
+			}
+		}
+		this._checker = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "reference-data-check");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		Runnable check = new Runnable() {
+			public void run() {
+				check();
+			}
+		};
+		if (checkMillis > 0) {
+			this._checker.scheduleWithFixedDelay(check, 0, checkMillis, TimeUnit.MILLISECONDS);
+		}
+		else {
+			this._checker.execute(check);
+		}
+	}
+
+	/**
+	 * Method to create the reference data configured by the
+	 * airline.reference.* system properties.
+	 *
+	 * @param db the database the snapshots are taken from
+	 * @return the reference data
+	 */
+	public static ReferenceData fromSystemProperties(DBproject db) {
+		String file = System.getProperty("airline.reference.file", DEFAULT_FILE);
+		return new ReferenceData(db, file.isEmpty() ? null : new File(file), Long.getLong("airline.reference.checkMs", 10000L));
+	}
+
+	/**
+	 * Method to return the current snapshot.
+	 *
+	 * @return the snapshot, or null when none is mapped yet
+	 */
+	public ReferenceSnapshot get() {
+		return this._snapshot;
+	}
+
+	/**
+	 * Method to compare the snapshot with the database version and take a new
+	 * one when they differ.
+	 *
+	 * @return whether a new snapshot was taken
+	 */
+	public synchronized boolean check() {
+		try {
+			List<List<String>> rows = this._db.executeQueryAndReturnResult(ReferenceSnapshot.VERSION);
+			if (rows.isEmpty()) {
+				throw new SQLException("ReferenceVersion is empty, run sql/create_reference_version.sql");
+			}
+			ReferenceSnapshot snapshot = this._snapshot;
+			if (snapshot != null && snapshot.getVersion() == Long.parseLong(rows.get(0).get(0))) {
+				return false;
+			}
+			this._snapshot = ReferenceSnapshot.write(this._db, this._file);
+			this._refreshes.incrementAndGet();
+			return true;
+		}catch (SQLException e) {
+			if (IdGenerator.UNDEFINED_TABLE.equals(e.getSQLState())) {
+				// the version table is missing: the snapshot cannot be kept current, so stop using it.
+				System.err.println("Reference data: ReferenceVersion does not exist, run sql/create_reference_version.sql");
+				this._snapshot = null;
+				this._checker.shutdown();
+				return false;
+			}
+			System.err.println("Reference data: " + e.getMessage());
+			return false;
+		}catch (IOException | RuntimeException e) {
+			System.err.println("Reference data: " + e.getMessage());
+			return false;
+		}
+	}//end check
+
+	/**
+	 * Method to return a one-line summary of the snapshot state.
+	 *
+	 * @return the summary
+	 */
+	public String getStats() {
+		ReferenceSnapshot snapshot = this._snapshot;
+		if (snapshot == null) {
+			return "none";
+		}
+		return String.format("version=%d planes=%d flights=%d refreshes=%d", snapshot.getVersion(),
+			snapshot.getPlaneCount(), snapshot.getFlightCount(), this._refreshes.get());
+	}
+
+	/**
+	 * Method to stop the version checks.
+	 */
+	public void close() {
+		if (this._checker != null) {
+			this._checker.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,434 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class is a read-only, memory-mapped copy of the reference tables:
+ * Plane, Pilot, Technician and the FlightInfo flight-to-plane mapping.
+ * Each table is stored as fixed-width int columns sorted by id, so a
+ * lookup is a binary search over the mapped file and reads no rows from
+ * the database and allocates nothing but the strings it returns.  A new
+ * process maps the file and answers plane capacity and flight-to-plane
+ * lookups before it has run a query.
+ *
+ * The file records the ReferenceVersion of the data it holds (see
+ * sql/create_reference_version.sql); ReferenceData compares it with the
+ * database and writes a new file when they differ.  Layout, big-endian:
+ *
+ *   int magic, int format, long version, long file length
+ *   Plane       int n, int id[n], int seats[n], int age[n], strings make, strings model
+ *   Pilot       int n, int id[n], strings fullname, strings nationality
+ *   Technician  int n, int id[n], strings full_name
+ *   FlightInfo  int n, int flight_id[n], int plane_id[n], int pilot_id[n]
+ *
+ * where strings are int offset[n + 1] and the UTF-8 bytes, padded to four
+ * bytes; a NULL string reads back empty.  A flight with several FlightInfo
+ * rows keeps the one with the lowest fiid.
+ *
+ *   java -cp lib/*:bin/ ReferenceSnapshot <dbname> <port> <user> [file]
+ *
+ */
+
+public class ReferenceSnapshot {
+	static final int MAGIC = 0x41524653;
+	static final int FORMAT = 1;
+	static final int HEADER_BYTES = 24;
+
+	static final String VERSION = "SELECT version FROM ReferenceVersion";
+	static final String PLANES = "SELECT id, seats, age, make, model FROM Plane ORDER BY id";
+	static final String PILOTS = "SELECT id, fullname, nationality FROM Pilot ORDER BY id";
+	static final String TECHNICIANS = "SELECT id, full_name FROM Technician ORDER BY id";
+	static final String FLIGHT_INFO = "SELECT DISTINCT ON (flight_id) flight_id, plane_id, pilot_id FROM FlightInfo ORDER BY flight_id, fiid";
+
+	/**
+	 * The position in the file of one table: its row count, id column and
+	 * the columns after it.
+	 */
+	private static final class Table {
+		final int rows;
+		final int ids;
+
+		Table(int rows, int ids) {
+			this.rows = rows;
+			this.ids = ids;
+		}
+
+		// position of the index-th column after the ids.
+		int column(int index) {
+			return this.ids + 4 * this.rows * (index + 1);
+		}
+	}
+
+	private final File _file;
+	private final ByteBuffer _buffer;
+	private final long _version;
+	private final Table _planes;
+	private final int _planeMake;
+	private final int _planeModel;
+	private final Table _pilots;
+	private final int _pilotName;
+	private final int _pilotNationality;
+	private final Table _technicians;
+	private final int _technicianName;
+	private final Table _flights;
+
+	private ReferenceSnapshot(File file, ByteBuffer buffer) throws IOException {
+		this._file = file;
+		this._buffer = buffer;
+		if (buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != MAGIC) {
+			throw new IOException(file + " is not a reference snapshot");
+		}
+		if (buffer.getInt(4) != FORMAT) {
+			throw new IOException(file + " has snapshot format " + buffer.getInt(4) + ", expected " + FORMAT);
+		}
+		if (buffer.getLong(16) != buffer.capacity()) {
+			throw new IOException(file + " is truncated");
+		}
+		this._version = buffer.getLong(8);
+		int p = HEADER_BYTES;
+		this._planes = table(p);
+		this._planeMake = this._planes.column(2);
+		this._planeModel = skipStrings(this._planeMake, this._planes.rows);
+		p = skipStrings(this._planeModel, this._planes.rows);
+		this._pilots = table(p);
+		this._pilotName = this._pilots.column(0);
+		this._pilotNationality = skipStrings(this._pilotName, this._pilots.rows);
+		p = skipStrings(this._pilotNationality, this._pilots.rows);
+		this._technicians = table(p);
+		this._technicianName = this._technicians.column(0);
+		p = skipStrings(this._technicianName, this._technicians.rows);
+		this._flights = table(p);
+		if (this._flights.column(2) != buffer.capacity()) {
+			throw new IOException(file + " is corrupt");
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 3) {
+			System.err.println("Usage: java [-classpath <classpath>] " + ReferenceSnapshot.class.getName() +
+				" <dbname> <port> <user> [file]");
+			return;
+		}
+		Class.forName("org.postgresql.Driver");
+		DBproject esql = new DBproject(args[0], args[1], args[2], "");
+		try {
+			long start = System.nanoTime();
+			ReferenceSnapshot snapshot = write(esql, new File(args.length > 3 ? args[3] : ReferenceData.DEFAULT_FILE));
+			System.out.println(String.format("Wrote %s (version %d, %d bytes) in %.1f ms: %d planes, %d pilots, %d technicians, %d flights.",
+				snapshot.getFile(), snapshot.getVersion(), snapshot.getFile().length(), (System.nanoTime() - start) / 1e6,
+				snapshot._planes.rows, snapshot._pilots.rows, snapshot._technicians.rows, snapshot._flights.rows));
+		} finally {
+			esql.cleanup();
+		}
+	}
+
+	/**
+	 * Method to map a snapshot file.
+	 *
+	 * @param file the snapshot file
+	 * @return the snapshot
+	 * @throws java.io.IOException when the file cannot be read or is not a valid snapshot
+	 */
+	public static ReferenceSnapshot open(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			// the mapping stays valid after the file is closed, replaced or deleted.
+			MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+			return new ReferenceSnapshot(file, buffer);
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Method to export the reference tables into a snapshot file and map it.
+	 * The tables are read in one repeatable-read transaction, so the data
+	 * matches the version recorded with it.  The file is written next to the
+	 * target and renamed over it, so processes mapping the old file are not
+	 * disturbed.
+	 *
+	 * @param db the database to export
+	 * @param file the snapshot file
+	 * @return the new snapshot
+	 * @throws java.sql.SQLException when the tables cannot be read
+	 * @throws java.io.IOException when the file cannot be written
+	 */
+	public static ReferenceSnapshot write(DBproject db, File file) throws SQLException, IOException {
+		File parent = file.getAbsoluteFile().getParentFile();
+		File temp = File.createTempFile(file.getName(), ".tmp", parent);
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 1 << 16));
+			try {
+				export(db, out);
+			} finally {
+				out.close();
+			}
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			temp.delete();
+		}
+		return open(file);
+	}//end write
+
+	private static void export(DBproject db, DataOutputStream out) throws SQLException, IOException {
+		PooledConnection conn = db.getConnection();
+		try {
+			Connection c = conn.getConnection();
+			int isolation = c.getTransactionIsolation();
+			c.setAutoCommit(false);
+			c.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+			try {
+				List<Object[]> version = rows(conn, VERSION);
+				if (version.isEmpty()) {
+					throw new SQLException("ReferenceVersion is empty, run sql/create_reference_version.sql");
+				}
+				List<Object[]> planes = rows(conn, PLANES);
+				List<Object[]> pilots = rows(conn, PILOTS);
+				List<Object[]> technicians = rows(conn, TECHNICIANS);
+				List<Object[]> flights = rows(conn, FLIGHT_INFO);
+				c.commit();
+
+				ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+				header.putInt(MAGIC).putInt(FORMAT).putLong((Long) version.get(0)[0]).putLong(0);
+				long length = HEADER_BYTES
+					+ 4 + 4 * 3L * planes.size() + stringsLength(planes, 3) + stringsLength(planes, 4)
+					+ 4 + 4L * pilots.size() + stringsLength(pilots, 1) + stringsLength(pilots, 2)
+					+ 4 + 4L * technicians.size() + stringsLength(technicians, 1)
+					+ 4 + 4 * 3L * flights.size();
+				header.putLong(16, length);
+				out.write(header.array());
+
+				writeInts(out, planes, 0, 1, 2);
+				writeStrings(out, planes, 3);
+				writeStrings(out, planes, 4);
+				writeInts(out, pilots, 0);
+				writeStrings(out, pilots, 1);
+				writeStrings(out, pilots, 2);
+				writeInts(out, technicians, 0);
+				writeStrings(out, technicians, 1);
+				writeInts(out, flights, 0, 1, 2);
+			} finally {
+				// the isolation level can only change outside a transaction.
+				c.rollback();
+				c.setTransactionIsolation(isolation);
+			}
+		} finally {
+			conn.close();
+		}
+	}//end export
+
+	// reads every row, ints as Integer, the version as Long and CHAR columns trimmed.
+	private static List<Object[]> rows(PooledConnection conn, String sql) throws SQLException {
+		List<Object[]> rows = new ArrayList<Object[]>();
+		ResultSet rs = conn.prepare(sql).executeQuery();
+		try {
+			int columns = rs.getMetaData().getColumnCount();
+			while (rs.next()) {
+				Object[] row = new Object[columns];
+				for (int i = 0; i < columns; i++) {
+					Object value = rs.getObject(i + 1);
+					row[i] = value instanceof String ? ((String) value).trim() : value;
+				}
+				rows.add(row);
+			}
+		} finally {
+			rs.close();
+		}
+		return rows;
+	}
+
+	// bytes taken by a strings column: the offsets and the padded UTF-8.
+	private static long stringsLength(List<Object[]> rows, int column) {
+		int bytes = 0;
+		for (Object[] row : rows) {
+			bytes += utf8(row[column]).length;
+		}
+		return 4L * (rows.size() + 1) + padded(bytes);
+	}
+
+	private static byte[] utf8(Object value) {
+		return value == null ? new byte[0] : ((String) value).getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static int padded(int length) {
+		return (length + 3) & ~3;
+	}
+
+	private static void writeInts(DataOutputStream out, List<Object[]> rows, int... columns) throws IOException {
+		out.writeInt(rows.size());
+		for (int column : columns) {
+			for (Object[] row : rows) {
+				out.writeInt(row[column] == null ? Integer.MIN_VALUE : ((Number) row[column]).intValue());
+			}
+		}
+	}
+
+	private static void writeStrings(DataOutputStream out, List<Object[]> rows, int column) throws IOException {
+		List<byte[]> values = new ArrayList<byte[]>(rows.size());
+		int offset = 0;
+		out.writeInt(0);
+		for (Object[] row : rows) {
+			byte[] value = utf8(row[column]);
+			values.add(value);
+			offset += value.length;
+			out.writeInt(offset);
+		}
+		for (byte[] value : values) {
+			out.write(value);
+		}
+		out.write(new byte[padded(offset) - offset]);
+	}
+
+	private Table table(int position) {
+		return new Table(this._buffer.getInt(position), position + 4);
+	}
+
+	// the position after a strings column starting at position.
+	private int skipStrings(int position, int rows) {
+		return position + 4 * (rows + 1) + padded(this._buffer.getInt(position + 4 * rows));
+	}
+
+	// row of an id in a table, or -1.
+	private int find(Table table, int id) {
+		int lo = 0;
+		int hi = table.rows - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			int value = this._buffer.getInt(table.ids + 4 * mid);
+			if (value < id) {
+				lo = mid + 1;
+			}
+			else if (value > id) {
+				hi = mid - 1;
+			}
+			else {
+				return mid;
+			}
+		}
+		return -1;
+	}
+
+	private int intAt(Table table, int column, int row) {
+		return row < 0 ? Integer.MIN_VALUE : this._buffer.getInt(table.column(column) + 4 * row);
+	}
+
+	private String stringAt(int position, int rows, int row) {
+		if (row < 0) {
+			return null;
+		}
+		int start = this._buffer.getInt(position + 4 * row);
+		int end = this._buffer.getInt(position + 4 * (row + 1));
+		byte[] bytes = new byte[end - start];
+		ByteBuffer view = this._buffer.duplicate();
+		view.position(position + 4 * (rows + 1) + start);
+		view.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Method to return the ReferenceVersion the snapshot was taken at.
+	 *
+	 * @return the version
+	 */
+	public long getVersion() {
+		return this._version;
+	}
+
+	/**
+	 * Method to return the snapshot file.
+	 *
+	 * @return the file
+	 */
+	public File getFile() {
+		return this._file;
+	}
+
+	/**
+	 * Method to return the seats of a plane.
+	 *
+	 * @param planeId the plane id
+	 * @return the seats, or Integer.MIN_VALUE when the snapshot has no such plane
+	 */
+	public int planeSeats(int planeId) {
+		return intAt(this._planes, 0, find(this._planes, planeId));
+	}
+
+	public int planeAge(int planeId) {
+		return intAt(this._planes, 1, find(this._planes, planeId));
+	}
+
+	public String planeMake(int planeId) {
+		return stringAt(this._planeMake, this._planes.rows, find(this._planes, planeId));
+	}
+
+	public String planeModel(int planeId) {
+		return stringAt(this._planeModel, this._planes.rows, find(this._planes, planeId));
+	}
+
+	public String pilotName(int pilotId) {
+		return stringAt(this._pilotName, this._pilots.rows, find(this._pilots, pilotId));
+	}
+
+	public String pilotNationality(int pilotId) {
+		return stringAt(this._pilotNationality, this._pilots.rows, find(this._pilots, pilotId));
+	}
+
+	public String technicianName(int technicianId) {
+		return stringAt(this._technicianName, this._technicians.rows, find(this._technicians, technicianId));
+	}
+
+	/**
+	 * Method to return the plane flying a flight.
+	 *
+	 * @param fnum the flight number
+	 * @return the plane id, or Integer.MIN_VALUE when the snapshot has no plane for the flight
+	 */
+	public int planeOfFlight(int fnum) {
+		return intAt(this._flights, 0, find(this._flights, fnum));
+	}
+
+	public int pilotOfFlight(int fnum) {
+		return intAt(this._flights, 1, find(this._flights, fnum));
+	}
+
+	/**
+	 * Method to return the capacity of the plane flying a flight.
+	 *
+	 * @param fnum the flight number
+	 * @return the seats, or Integer.MIN_VALUE when the snapshot does not know them
+	 */
+	public int seatsOfFlight(int fnum) {
+		int plane = planeOfFlight(fnum);
+		return plane == Integer.MIN_VALUE ? Integer.MIN_VALUE : planeSeats(plane);
+	}
+
+	public int getPlaneCount() {
+		return this._planes.rows;
+	}
+
+	public int getPilotCount() {
+		return this._pilots.rows;
+	}
+
+	public int getTechnicianCount() {
+		return this._technicians.rows;
+	}
+
+	public int getFlightCount() {
+		return this._flights.rows;
+	}
+}
@@ -0,0 +1,35 @@
+import java.sql.SQLException;
+import java.time.LocalDate;
+
+/**
+ * This class holds one row of the Repairs table.
+ *
+ */
+
+public final class Repair {
+	//select list matching MAPPER
+	public static final String COLUMNS = "rid, repair_date, repair_code, pilot_id, plane_id, technician_id";
+
+	public static final RowMapper<Repair> MAPPER = new RowMapper<Repair>() {
+		public Repair map(Row row) throws SQLException {
+			return new Repair(row.getInt(1), row.getLocalDate(2), Flight.trim(row.getString(3)), row.getInt(4), row.getInt(5), row.getInt(6));
+		}
+	};
+
+	public final int rid;
+	public final LocalDate repairDate;
+	//'MJ' major, 'MN' minimum, 'SV' service
+	public final String repairCode;
+	public final int pilotId;
+	public final int planeId;
+	public final int technicianId;
+
+	public Repair(int rid, LocalDate repairDate, String repairCode, int pilotId, int planeId, int technicianId) {
+		this.rid = rid;
+		this.repairDate = repairDate;
+		this.repairCode = repairCode;
+		this.pilotId = pilotId;
+		this.planeId = planeId;
+		this.technicianId = technicianId;
+	}
+}
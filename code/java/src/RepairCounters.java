@@ -0,0 +1,104 @@
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * This class checks the repair counters maintained by
+ * create_repair_counters.sql against a fresh count of Repairs and prints
+ * every plane or year whose counter is off.  With --rebuild it first
+ * recomputes the counters from Repairs, then checks again.  The exit status
+ * is 0 when the counters match and 1 otherwise.
+ *
+ *   java -cp lib/*:bin/ RepairCounters <dbname> <port> <user> [--rebuild]
+ *
+ */
+
+public class RepairCounters {
+	/*
+	 * Each check is one statement, so the counters and Repairs are read from
+	 * the same snapshot.  Rows are {key, counter value, live count}.
+	 */
+	static final String PLANE_MISMATCHES =
+		"SELECT COALESCE(C.plane_id, R.plane_id), COALESCE(C.repair_count, 0), COALESCE(R.n, 0) " +
+		"FROM RepairsPerPlane C FULL JOIN (SELECT plane_id, COUNT(*) AS n FROM Repairs GROUP BY plane_id) R " +
+		"ON R.plane_id = C.plane_id WHERE COALESCE(C.repair_count, 0) <> COALESCE(R.n, 0) ORDER BY 1";
+	static final String YEAR_MISMATCHES =
+		"SELECT COALESCE(C.year, R.year), COALESCE(C.repair_count, 0), COALESCE(R.n, 0) " +
+		"FROM RepairsPerYear C FULL JOIN (SELECT EXTRACT(year FROM repair_date)::int AS year, COUNT(*) AS n FROM Repairs GROUP BY 1) R " +
+		"ON R.year = C.year WHERE COALESCE(C.repair_count, 0) <> COALESCE(R.n, 0) ORDER BY 1";
+	static final String REBUILD = "SELECT rebuild_repair_counters()";
+
+	/**
+	 * A counter that does not match the live count.
+	 */
+	static final RowMapper<int[]> MISMATCH = new RowMapper<int[]>() {
+		public int[] map(Row row) throws SQLException {
+			return new int[] {row.getInt(1), row.getInt(2), row.getInt(3)};
+		}
+	};
+
+	private final DBproject _db;
+
+	public RepairCounters(DBproject db) {
+		this._db = db;
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 3 || (args.length == 4 && !args[3].equals("--rebuild")) || args.length > 4) {
+			System.err.println("Usage: java [-classpath <classpath>] " + RepairCounters.class.getName() +
+				" <dbname> <port> <user> [--rebuild]");
+			return;
+		}
+		Class.forName("org.postgresql.Driver");
+		DBproject esql = new DBproject(args[0], args[1], args[2], "");
+		boolean ok;
+		try {
+			RepairCounters counters = new RepairCounters(esql);
+			if (args.length == 4) {
+				long start = System.nanoTime();
+				counters.rebuild();
+				System.out.println(String.format("Rebuilt the repair counters in %.2f s.", (System.nanoTime() - start) / 1e9));
+			}
+			ok = counters.check();
+		} finally {
+			esql.cleanup();
+		}
+		System.exit(ok ? 0 : 1);
+	}
+
+	/**
+	 * Method to recompute the counters from Repairs.  Writes to Repairs wait
+	 * while it runs.
+	 *
+	 * @throws java.sql.SQLException when the rebuild fails
+	 */
+	public void rebuild() throws SQLException {
+		this._db.executeQuery(REBUILD);
+	}
+
+	/**
+	 * Method to compare the counters with a fresh count and print the
+	 * differences.
+	 *
+	 * @return whether every counter matches
+	 * @throws java.sql.SQLException when failed to execute the queries
+	 */
+	public boolean check() throws SQLException {
+		List<int[]> planes = this._db.queryForList(PLANE_MISMATCHES, MISMATCH);
+		List<int[]> years = this._db.queryForList(YEAR_MISMATCHES, MISMATCH);
+		print("plane", planes);
+		print("year", years);
+		if (planes.isEmpty() && years.isEmpty()) {
+			System.out.println("Repair counters match Repairs.");
+			return true;
+		}
+		System.out.println(String.format("%d plane and %d year counters differ from Repairs; run with --rebuild to fix them.",
+			planes.size(), years.size()));
+		return false;
+	}//end check
+
+	private static void print(String key, List<int[]> mismatches) {
+		for (int[] m : mismatches) {
+			System.out.println(String.format("%s %d: counter %d, actual %d", key, m[0], m[1], m[2]));
+		}
+	}
+}
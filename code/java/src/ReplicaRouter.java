@@ -0,0 +1,384 @@
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class sends the read-only reports of a DBproject to streaming
+ * replicas of its database, configured with airline.replicas as a comma
+ * separated list of host:port[/dbname] (the database name defaults to the
+ * primary's).  Writes, transactions and everything else stay on the
+ * primary.
+ *
+ * Every airline.replica.checkMs (default 200) each replica is compared
+ * with the primary: the primary's current WAL position is read, then the
+ * replica's replayed position, and when the replica has replayed that far
+ * it holds every commit made before the primary was asked.  That moment is
+ * the replica's sync point.  A read goes to a replica whose sync point is
+ * at most airline.replica.maxLagMs (default 1000) old and, so a session
+ * reads its own writes, not older than the session's last write; when no
+ * replica qualifies it runs on the primary.  A replica that fails a read is
+ * skipped until its next successful check and the read is retried on the
+ * primary.
+ *
+ * The session is the calling thread unless the caller says otherwise: a
+ * server whose threads take turns serving many clients hands each client
+ * the write token of its last write, getWriteToken, and passes the token
+ * back to readAfter when the client's next request starts.  A token from
+ * another process, or from before a restart, counts as a write made just
+ * now, so the read goes to the primary or to a replica synced after it.
+ *
+ *   java -cp lib/*:bin/ ReplicaRouter <dbname> <port> <user> <host:port[/dbname],...> [seconds]
+ *
+ */
+
+public class ReplicaRouter {
+	static final String PRIMARY_POSITION = "SELECT pg_wal_lsn_diff(pg_current_wal_lsn(), '0/0')::bigint";
+	static final String REPLICA_POSITION = "SELECT pg_is_in_recovery(), pg_wal_lsn_diff(pg_last_wal_replay_lsn(), '0/0')::bigint";
+	//seconds allowed for a position query and for opening a replica connection
+	private static final int CHECK_TIMEOUT_SECONDS = 2;
+	//sync point of a replica that has not been checked or failed
+	private static final long NEVER = Long.MIN_VALUE;
+
+	private final ConnectionPool _primary;
+	private final Replica[] _replicas;
+	private final long _maxLagNanos;
+	private final ScheduledExecutorService _checker;
+	//tells the write tokens of this router from those of another process
+	private final String _epoch = Long.toHexString(ThreadLocalRandom.current().nextLong());
+	//when the session of the calling thread last wrote, as System.nanoTime
+	private final ThreadLocal<long[]> _lastWrite = new ThreadLocal<long[]>() {
+		protected long[] initialValue() {
+			return new long[] {NEVER};
+		}
+	};
+	private final AtomicInteger _next = new AtomicInteger();
+
+	//statistics
+	private final AtomicLong _primaryReads = new AtomicLong();
+	private final AtomicLong _stale = new AtomicLong();
+	private final AtomicLong _ownWrites = new AtomicLong();
+
+	/**
+	 * One replica and what the last check found.
+	 */
+	static class Replica {
+		final String address;
+		final ConnectionPool pool;
+		volatile long syncedAt = NEVER;
+		volatile long bytesBehind = -1;
+		volatile String problem = "not checked yet";
+		final AtomicLong reads = new AtomicLong();
+		final AtomicLong failures = new AtomicLong();
+
+		Replica(String address, ConnectionPool pool) {
+			this.address = address;
+			this.pool = pool;
+		}
+	}
+
+	public ReplicaRouter(ConnectionPool primary, List<String> addresses, String dbname, String user, String passwd,
+			int maxSize, long maxLagMillis, long checkMillis) throws SQLException {
+		if (addresses.isEmpty() || checkMillis <= 0) {
+			throw new IllegalArgumentException("Invalid replica settings: replicas=" + addresses + ", checkMs=" + checkMillis);
+		}
+		this._primary = primary;
+		this._maxLagNanos = TimeUnit.MILLISECONDS.toNanos(maxLagMillis);
+		this._replicas = new Replica[addresses.size()];
+		for (int i = 0; i < this._replicas.length; i++) {
+			String address = addresses.get(i).trim();
+			String database = dbname;
+			int slash = address.indexOf('/');
+			if (slash >= 0) {
+				database = address.substring(slash + 1);
+				address = address.substring(0, slash);
+			}
+			String url = "jdbc:postgresql://" + address + "/" + database + "?connectTimeout=" + CHECK_TIMEOUT_SECONDS;
+			// no connections up front: a replica that is down must not stop the program.
+			this._replicas[i] = new Replica(address, new ConnectionPool(url, user, passwd, 0, maxSize,
+				CHECK_TIMEOUT_SECONDS * 1000L, Long.getLong("airline.pool.idleTimeoutMs", 600000L),
+				Long.getLong("airline.pool.leakThresholdMs", 60000L), DBproject.STATEMENT_CACHE_SIZE));
+		}
+		this._checker = Executors.newScheduledThreadPool(this._replicas.length, new ThreadFactory() {
+			private final AtomicInteger _count = new AtomicInteger();
+
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "replica-check-" + this._count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		// each replica on its own thread, so one that hangs does not delay the others.
+		for (final Replica replica : this._replicas) {
+			this._checker.scheduleWithFixedDelay(new Runnable() {
+				public void run() {
+					check(replica);
+				}
+			}, 0, checkMillis, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Method to create the router configured by the airline.replica*
+	 * system properties.
+	 *
+	 * @param primary the pool of the primary
+	 * @param dbname the database name used for replicas that do not give one
+	 * @param user the database user
+	 * @param passwd the database password
+	 * @return the router, or null when airline.replicas is not set
+	 * @throws java.sql.SQLException when a replica pool cannot be created
+	 */
+	public static ReplicaRouter fromSystemProperties(ConnectionPool primary, String dbname, String user, String passwd) throws SQLException {
+		String replicas = System.getProperty("airline.replicas", "").trim();
+		if (replicas.isEmpty()) {
+			return null;
+		}
+		List<String> addresses = new ArrayList<String>();
+		for (String address : replicas.split(",")) {
+			if (!address.trim().isEmpty()) {
+				addresses.add(address.trim());
+			}
+		}
+		return new ReplicaRouter(primary, addresses, dbname, user, passwd,
+			Integer.getInteger("airline.replica.pool.max", Integer.getInteger("airline.pool.max", 10)),
+			Long.getLong("airline.replica.maxLagMs", 1000L),
+			Long.getLong("airline.replica.checkMs", 200L));
+	}
+
+	/**
+	 * Method to note that the calling thread has written to the primary, so
+	 * its next reads wait for a replica that has replayed the write.  Call it
+	 * once the write has committed.
+	 */
+	public void wrote() {
+		this._lastWrite.get()[0] = System.nanoTime();
+	}
+
+	/**
+	 * Method to return a token for the last write of the calling thread's
+	 * session, to hand to the client that made it.
+	 *
+	 * @return the token, or null when the session has not written
+	 */
+	public String getWriteToken() {
+		long lastWrite = this._lastWrite.get()[0];
+		return lastWrite == NEVER ? null : this._epoch + ":" + Long.toHexString(lastWrite);
+	}
+
+	/**
+	 * Method to start the session of a client on the calling thread: its
+	 * reads must see the write of the token, and no earlier write of the
+	 * thread counts.
+	 *
+	 * @param token the token of getWriteToken, or null when the client has not written
+	 */
+	public void readAfter(String token) {
+		long lastWrite = NEVER;
+		if (token != null && !token.isEmpty()) {
+			int colon = token.indexOf(':');
+			lastWrite = System.nanoTime();
+			if (colon > 0 && token.substring(0, colon).equals(this._epoch)) {
+				try {
+					long written = Long.parseUnsignedLong(token.substring(colon + 1), 16);
+					// a token cannot be newer than now; one that claims to be is not ours.
+					if (written - lastWrite <= 0) {
+						lastWrite = written;
+					}
+				}catch (NumberFormatException e) {
+					// not one of ours: counts as just now.
+				}
+			}
+		}
+		this._lastWrite.get()[0] = lastWrite;
+	}
+
+	/**
+	 * Method to pick the pool a read of the calling thread should use.
+	 *
+	 * @return the pool of a replica that is recent enough, or null for the primary
+	 */
+	public ConnectionPool choose() {
+		long now = System.nanoTime();
+		long lastWrite = this._lastWrite.get()[0];
+		boolean fresh = false;
+		int start = this._next.getAndIncrement();
+		for (int i = 0; i < this._replicas.length; i++) {
+			Replica replica = this._replicas[Math.floorMod(start + i, this._replicas.length)];
+			long syncedAt = replica.syncedAt;
+			if (syncedAt == NEVER || now - syncedAt > this._maxLagNanos) {
+				continue;
+			}
+			fresh = true;
+			if (lastWrite != NEVER && syncedAt - lastWrite < 0) {
+				continue;
+			}
+			replica.reads.incrementAndGet();
+			return replica.pool;
+		}
+		(fresh ? this._ownWrites : this._stale).incrementAndGet();
+		this._primaryReads.incrementAndGet();
+		return null;
+	}//end choose
+
+	/**
+	 * Method to report that a read on a replica failed.  The replica is not
+	 * chosen again until a check succeeds; the caller retries on the primary.
+	 *
+	 * @param pool the pool returned by choose
+	 * @param e the error
+	 */
+	public void failed(ConnectionPool pool, SQLException e) {
+		for (Replica replica : this._replicas) {
+			if (replica.pool == pool) {
+				replica.syncedAt = NEVER;
+				replica.problem = e.getMessage();
+				replica.failures.incrementAndGet();
+			}
+		}
+		this._primaryReads.incrementAndGet();
+	}
+
+	/**
+	 * Method to compare one replica with the primary and move its sync point
+	 * forward when it has caught up.
+	 *
+	 * @param replica the replica
+	 */
+	void check(Replica replica) {
+		try {
+			// commits made before this instant are at or before the position read next.
+			long asked = System.nanoTime();
+			long primary = primaryPosition();
+			PooledConnection conn = replica.pool.borrow();
+			try {
+				PreparedStatement stmt = conn.prepare(REPLICA_POSITION);
+				stmt.setQueryTimeout(CHECK_TIMEOUT_SECONDS);
+				ResultSet rs = stmt.executeQuery();
+				try {
+					rs.next();
+					if (!rs.getBoolean(1)) {
+						// promoted, or the primary itself: it does not follow the primary any more.
+						replica.syncedAt = NEVER;
+						replica.problem = "not in recovery";
+						return;
+					}
+					long replayed = rs.getLong(2);
+					replica.bytesBehind = Math.max(0, primary - replayed);
+					if (replayed >= primary) {
+						replica.syncedAt = asked;
+					}
+					replica.problem = null;
+				} finally {
+					rs.close();
+				}
+			} finally {
+				conn.close();
+			}
+		}catch (SQLException | RuntimeException e) {
+			replica.syncedAt = NEVER;
+			replica.problem = e.getMessage();
+		}
+	}//end check
+
+	private long primaryPosition() throws SQLException {
+		PooledConnection conn = this._primary.borrow();
+		try {
+			PreparedStatement stmt = conn.prepare(PRIMARY_POSITION);
+			stmt.setQueryTimeout(CHECK_TIMEOUT_SECONDS);
+			ResultSet rs = stmt.executeQuery();
+			try {
+				rs.next();
+				return rs.getLong(1);
+			} finally {
+				rs.close();
+			}
+		} finally {
+			conn.close();
+		}
+	}
+
+	/**
+	 * Method to return how far behind a replica is, i.e. the age of its sync
+	 * point.
+	 *
+	 * @param index the replica, in the order configured
+	 * @return the lag in milliseconds, or -1 when it is not usable
+	 */
+	public long getLagMillis(int index) {
+		long syncedAt = this._replicas[index].syncedAt;
+		return syncedAt == NEVER ? -1 : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - syncedAt);
+	}
+
+	public int getReplicaCount() {
+		return this._replicas.length;
+	}
+
+	/**
+	 * Method to summarize the replicas and the routing on one line.
+	 *
+	 * @return the statistics
+	 */
+	public String getStats() {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < this._replicas.length; i++) {
+			Replica replica = this._replicas[i];
+			String problem = replica.problem;
+			sb.append(String.format("%s lag=%dms behind=%dB reads=%d failures=%d%s, ", replica.address, getLagMillis(i),
+				replica.bytesBehind, replica.reads.get(), replica.failures.get(), problem == null ? "" : " (" + problem + ")"));
+		}
+		return sb.append(String.format("primary reads=%d (stale=%d, own writes=%d)", this._primaryReads.get(),
+			this._stale.get(), this._ownWrites.get())).toString();
+	}
+
+	/**
+	 * Method to stop the checks and close the replica pools.
+	 */
+	public void close() {
+		this._checker.shutdownNow();
+		for (Replica replica : this._replicas) {
+			replica.pool.close();
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 4) {
+			System.err.println("Usage: java [-classpath <classpath>] " + ReplicaRouter.class.getName() +
+				" <dbname> <port> <user> <host:port[/dbname],...> [seconds]");
+			return;
+		}
+		System.setProperty("airline.replicas", args[3]);
+		int seconds = args.length > 4 ? Integer.parseInt(args[4]) : 10;
+		Class.forName("org.postgresql.Driver");
+		DBproject esql = new DBproject(args[0], args[1], args[2], "");
+		try {
+			ReplicaRouter router = esql.getReplicaRouter();
+			// once a second: the lag of each replica and where a report and a
+			// report right after a write went.
+			for (int s = 1; s <= seconds; s++) {
+				Thread.sleep(1000);
+				StringBuilder sb = new StringBuilder(String.format("%3ds", s));
+				for (int i = 0; i < router.getReplicaCount(); i++) {
+					sb.append(String.format("  lag=%dms", router.getLagMillis(i)));
+				}
+				ConnectionPool read = router.choose();
+				router.wrote();
+				ConnectionPool afterWrite = router.choose();
+				sb.append("  report -> ").append(read == null ? "primary" : "replica");
+				sb.append("  after a write -> ").append(afterWrite == null ? "primary" : "replica");
+				System.out.println(sb);
+			}
+			System.out.println(router.getStats());
+		} finally {
+			esql.cleanup();
+		}
+	}
+}
@@ -0,0 +1,495 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This class writes the rows of a query as a report, one row at a time, to
+ * a buffered writer, so output costs one write call per 64 KB instead of
+ * one per cell.  Column names and types are read once, from the result's
+ * metadata.  The formats are:
+ *
+ *   text   columns aligned to the widest value of the first 1000 rows
+ *          (longer values later on push their row out of line), numbers
+ *          right-aligned, line breaks and tabs shown as \n, \r and \t
+ *   csv    RFC 4180 fields with a header line; NULL is an empty field and
+ *          an empty string is "", as in COPY ... CSV
+ *   json   one JSON object per row (JSON lines), numbers and booleans
+ *          unquoted
+ *
+ * CHAR columns lose their blank padding.  It is a RowHandler, so it can be
+ * given to DBproject.executeQueryStreaming, though DBproject.exportQuery
+ * also writes the header of an empty result.  Rows already in memory, such
+ * as those returned by the DBproject operations, are written with
+ * header(String[], int[]) and handle(String...).
+ *
+ *   java -cp lib/*:bin/ ReportWriter <dbname> <port> <user> <text|csv|json> <table or SELECT> [file]
+ *
+ */
+
+public abstract class ReportWriter implements RowHandler, AutoCloseable {
+	static final int BUFFER_SIZE = 1 << 16;
+
+	public enum Format {
+		TEXT, CSV, JSON;
+
+		/**
+		 * Method to look up a format by name, ignoring case.
+		 *
+		 * @param name "text", "csv" or "json"
+		 * @return the format
+		 */
+		public static Format parse(String name) {
+			try {
+				return valueOf(name.trim().toUpperCase());
+			}catch (IllegalArgumentException e) {
+				throw new IllegalArgumentException("Unknown report format " + name + ", expected text, csv or json");
+			}
+		}
+	}
+
+	protected final Writer _out;
+	private final boolean _closeOut;
+	protected String[] _columns = null;
+	protected int[] _types = null;
+	//the row being written by handle(String...), read instead of the Row
+	private String[] _values = null;
+	private long _rows = 0;
+
+	protected ReportWriter(Writer out, boolean closeOut) {
+		this._out = out;
+		this._closeOut = closeOut;
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 5) {
+			System.err.println("Usage: java [-classpath <classpath>] " + ReportWriter.class.getName() +
+				" <dbname> <port> <user> <text|csv|json> <table or SELECT> [file]");
+			return;
+		}
+		Format format = Format.parse(args[3]);
+		String query = args[4].trim().matches("[A-Za-z_][A-Za-z0-9_]*") ? "SELECT * FROM " + args[4].trim() : args[4];
+		File file = args.length > 5 ? new File(args[5]) : null;
+
+		Class.forName("org.postgresql.Driver");
+		DBproject esql = new DBproject(args[0], args[1], args[2], "");
+		try {
+			long start = System.nanoTime();
+			ReportWriter out = file == null ? toStdout(format) : toFile(format, file);
+			long rows;
+			try {
+				rows = esql.exportQuery(query, out);
+			} finally {
+				out.close();
+			}
+			double seconds = (System.nanoTime() - start) / 1e9;
+			if (file != null) {
+				System.err.println(String.format("Exported %d rows, %.1f MB in %.2f s (%.0f rows/s, %.1f MB/s) to %s.", rows,
+					file.length() / 1e6, seconds, rows / seconds, file.length() / 1e6 / seconds, file));
+			}
+		} finally {
+			esql.cleanup();
+		}
+	}
+
+	/**
+	 * Method to create a report writer.
+	 *
+	 * @param format the output format
+	 * @param out the output, buffered by the caller
+	 * @param closeOut whether close() closes the output or only flushes it
+	 * @return the report writer
+	 */
+	public static ReportWriter create(Format format, Writer out, boolean closeOut) {
+		switch (format) {
+			case CSV:
+				return new Csv(out, closeOut);
+			case JSON:
+				return new JsonLines(out, closeOut);
+			default:
+				return new Text(out, closeOut);
+		}
+	}
+
+	/**
+	 * Method to create a report writer to a UTF-8 file, replacing it.
+	 *
+	 * @param format the output format
+	 * @param file the file
+	 * @return the report writer, which closes the file
+	 * @throws java.io.IOException when the file cannot be created
+	 */
+	public static ReportWriter toFile(Format format, File file) throws IOException {
+		return create(format, new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8), BUFFER_SIZE), true);
+	}
+
+	/**
+	 * Method to create a report writer to standard out.  Closing it flushes
+	 * standard out and leaves it open.
+	 *
+	 * @param format the output format
+	 * @return the report writer
+	 */
+	public static ReportWriter toStdout(Format format) {
+		return create(format, new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), BUFFER_SIZE), false);
+	}
+
+	/**
+	 * Method to write the header from the result's metadata.  handle() calls
+	 * it before the first row if it has not been called.
+	 *
+	 * @param row the cursor row, before or on the first row
+	 * @throws java.sql.SQLException when the metadata cannot be read or the output fails
+	 */
+	public void header(Row row) throws SQLException {
+		int n = row.getColumnCount();
+		this._columns = new String[n];
+		this._types = new int[n];
+		for (int i = 0; i < n; i++) {
+			this._columns[i] = row.getColumnName(i + 1);
+			this._types[i] = row.getColumnType(i + 1);
+		}
+		try {
+			writeHeader();
+		}catch (IOException e) {
+			throw failed(e);
+		}
+	}
+
+	/**
+	 * Method to write the header of rows held in memory.
+	 *
+	 * @param columns the column names
+	 * @param types the column types, from java.sql.Types
+	 * @throws java.sql.SQLException when the output fails
+	 */
+	public void header(String[] columns, int[] types) throws SQLException {
+		if (columns.length != types.length) {
+			throw new IllegalArgumentException(columns.length + " columns but " + types.length + " types");
+		}
+		this._columns = columns.clone();
+		this._types = types.clone();
+		try {
+			writeHeader();
+		}catch (IOException e) {
+			throw failed(e);
+		}
+	}
+
+	/**
+	 * Method to write one row held in memory, after header(String[], int[]).
+	 *
+	 * @param values the values as text, null for NULL
+	 * @throws java.sql.SQLException when the output fails
+	 */
+	public void handle(String... values) throws SQLException {
+		if (this._columns == null || values.length != this._columns.length) {
+			throw new IllegalStateException("The header must be written first, with as many columns as the row");
+		}
+		this._values = values;
+		try {
+			writeRow(null);
+		}catch (IOException e) {
+			throw failed(e);
+		} finally {
+			this._values = null;
+		}
+		this._rows++;
+	}
+
+	@Override
+	public void handle(Row row) throws SQLException {
+		if (this._columns == null) {
+			header(row);
+		}
+		try {
+			writeRow(row);
+		}catch (IOException e) {
+			throw failed(e);
+		}
+		this._rows++;
+	}
+
+	/**
+	 * Method to return the number of rows written.
+	 *
+	 * @return the rows
+	 */
+	public long getRowCount() {
+		return this._rows;
+	}
+
+	/**
+	 * Method to write what is still held back and flush, closing the output
+	 * if the report writer owns it.
+	 *
+	 * @throws java.io.IOException when the output fails
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			finish();
+		} finally {
+			if (this._closeOut) {
+				this._out.close();
+			}
+			else {
+				this._out.flush();
+			}
+		}
+	}
+
+	protected abstract void writeHeader() throws IOException;
+
+	//row is null when the values come from handle(String...)
+	protected abstract void writeRow(Row row) throws IOException, SQLException;
+
+	protected void finish() throws IOException {
+	}
+
+	/**
+	 * Reads a column as text, without the blank padding of CHAR columns.
+	 */
+	protected String value(Row row, int column) throws SQLException {
+		String value = row == null ? this._values[column] : row.getString(column + 1);
+		if (value != null && this._types[column] == Types.CHAR) {
+			int end = value.length();
+			while (end > 0 && value.charAt(end - 1) == ' ') {
+				end--;
+			}
+			return value.substring(0, end);
+		}
+		return value;
+	}
+
+	static boolean isNumeric(int type) {
+		switch (type) {
+			case Types.TINYINT:
+			case Types.SMALLINT:
+			case Types.INTEGER:
+			case Types.BIGINT:
+			case Types.NUMERIC:
+			case Types.DECIMAL:
+			case Types.REAL:
+			case Types.FLOAT:
+			case Types.DOUBLE:
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	private static SQLException failed(IOException e) {
+		return new SQLException("Unable to write the report: " + e.getMessage(), e);
+	}
+
+	/**
+	 * Aligned columns.  The first SAMPLE rows are held back to size the
+	 * columns, then every row is written as it comes.
+	 */
+	static final class Text extends ReportWriter {
+		static final int SAMPLE = 1000;
+		static final int MAX_WIDTH = 60;
+
+		private List<String[]> _sample = new ArrayList<String[]>();
+		private int[] _widths;
+		private char[] _padding = new char[0];
+
+		Text(Writer out, boolean closeOut) {
+			super(out, closeOut);
+		}
+
+		protected void writeHeader() {
+			this._widths = new int[this._columns.length];
+			for (int i = 0; i < this._columns.length; i++) {
+				this._widths[i] = Math.min(MAX_WIDTH, this._columns[i].length());
+			}
+		}
+
+		protected void writeRow(Row row) throws IOException, SQLException {
+			String[] values = new String[this._columns.length];
+			for (int i = 0; i < values.length; i++) {
+				String value = value(row, i);
+				values[i] = value == null ? "" : escape(value);
+			}
+			if (this._sample == null) {
+				line(values);
+				return;
+			}
+			this._sample.add(values);
+			for (int i = 0; i < values.length; i++) {
+				this._widths[i] = Math.max(this._widths[i], Math.min(MAX_WIDTH, values[i].length()));
+			}
+			if (this._sample.size() == SAMPLE) {
+				flushSample();
+			}
+		}
+
+		@Override
+		protected void finish() throws IOException {
+			if (this._sample != null && this._widths != null) {
+				flushSample();
+			}
+		}
+
+		// line breaks and tabs inside a value would break the layout.
+		private static String escape(String value) {
+			for (int i = 0; i < value.length(); i++) {
+				char c = value.charAt(i);
+				if (c == '\n' || c == '\r' || c == '\t') {
+					return value.replace("\n", "\\n").replace("\r", "\\r").replace("\t", "\\t");
+				}
+			}
+			return value;
+		}
+
+		private void flushSample() throws IOException {
+			int width = 0;
+			for (int w : this._widths) {
+				width = Math.max(width, w);
+			}
+			this._padding = new char[width];
+			Arrays.fill(this._padding, ' ');
+			line(this._columns);
+			for (int i = 0; i < this._widths.length; i++) {
+				char[] rule = new char[this._widths[i]];
+				Arrays.fill(rule, '-');
+				if (i > 0) {
+					this._out.write("  ");
+				}
+				this._out.write(rule);
+			}
+			this._out.write('\n');
+			for (String[] values : this._sample) {
+				line(values);
+			}
+			this._sample = null;
+		}
+
+		private void line(String[] values) throws IOException {
+			for (int i = 0; i < values.length; i++) {
+				int pad = Math.max(0, this._widths[i] - values[i].length());
+				if (i > 0) {
+					this._out.write("  ");
+				}
+				if (isNumeric(this._types[i])) {
+					this._out.write(this._padding, 0, pad);
+					this._out.write(values[i]);
+				}
+				else {
+					this._out.write(values[i]);
+					// the last column is not padded, so lines carry no trailing blanks.
+					if (i < values.length - 1) {
+						this._out.write(this._padding, 0, pad);
+					}
+				}
+			}
+			this._out.write('\n');
+		}
+	}
+
+	/**
+	 * RFC 4180 CSV with a header line.
+	 */
+	static final class Csv extends ReportWriter {
+		Csv(Writer out, boolean closeOut) {
+			super(out, closeOut);
+		}
+
+		protected void writeHeader() throws IOException {
+			for (int i = 0; i < this._columns.length; i++) {
+				if (i > 0) {
+					this._out.write(',');
+				}
+				field(this._columns[i]);
+			}
+			this._out.write('\n');
+		}
+
+		protected void writeRow(Row row) throws IOException, SQLException {
+			for (int i = 0; i < this._columns.length; i++) {
+				if (i > 0) {
+					this._out.write(',');
+				}
+				String value = value(row, i);
+				if (value != null) {
+					field(value);
+				}
+			}
+			this._out.write('\n');
+		}
+
+		private void field(String value) throws IOException {
+			boolean quote = value.isEmpty();
+			for (int i = 0; i < value.length() && !quote; i++) {
+				char c = value.charAt(i);
+				quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+			}
+			if (!quote) {
+				this._out.write(value);
+				return;
+			}
+			this._out.write('"');
+			this._out.write(value.replace("\"", "\"\""));
+			this._out.write('"');
+		}
+	}
+
+	/**
+	 * One JSON object per line.
+	 */
+	static final class JsonLines extends ReportWriter {
+		private final StringBuilder _line = new StringBuilder(256);
+		//"name": of every column, quoted once
+		private String[] _keys;
+
+		JsonLines(Writer out, boolean closeOut) {
+			super(out, closeOut);
+		}
+
+		protected void writeHeader() {
+			this._keys = new String[this._columns.length];
+			for (int i = 0; i < this._columns.length; i++) {
+				StringBuilder sb = new StringBuilder();
+				Json.quote(sb, this._columns[i]);
+				this._keys[i] = sb.append(':').toString();
+			}
+		}
+
+		protected void writeRow(Row row) throws IOException, SQLException {
+			StringBuilder sb = this._line;
+			sb.setLength(0);
+			sb.append('{');
+			for (int i = 0; i < this._keys.length; i++) {
+				if (i > 0) {
+					sb.append(',');
+				}
+				sb.append(this._keys[i]);
+				int type = this._types[i];
+				if ((type == Types.BOOLEAN || type == Types.BIT) && row != null) {
+					boolean value = row.getBoolean(i + 1);
+					sb.append(row.wasNull() ? "null" : value ? "true" : "false");
+					continue;
+				}
+				String value = value(row, i);
+				// NaN and Infinity are not JSON numbers.
+				if (value != null && isNumeric(type) && !value.endsWith("Infinity") && !value.equals("NaN")) {
+					sb.append(value);
+				}
+				else {
+					Json.quote(sb, value);
+				}
+			}
+			sb.append("}\n");
+			this._out.append(sb);
+		}
+	}
+}
@@ -0,0 +1,35 @@
+import java.sql.SQLException;
+import java.time.LocalDate;
+
+/**
+ * This class holds one row of the Reservation table.
+ *
+ */
+
+public final class Reservation {
+	//select list matching MAPPER
+	public static final String COLUMNS = "rnum, cid, fid, status, departure_date";
+
+	public static final RowMapper<Reservation> MAPPER = new RowMapper<Reservation>() {
+		public Reservation map(Row row) throws SQLException {
+			String status = row.getString(4);
+			return new Reservation(row.getInt(1), row.getInt(2), row.getInt(3), status == null ? ' ' : status.charAt(0), row.getLocalDate(5));
+		}
+	};
+
+	public final int rnum;
+	public final int cid;
+	public final int fid;
+	//'R' reserved, 'C' confirmed, 'W' waitlisted, ' ' when NULL
+	public final char status;
+	//the flight's departure date, copied on booking; Reservation is partitioned by it
+	public final LocalDate departureDate;
+
+	public Reservation(int rnum, int cid, int fid, char status, LocalDate departureDate) {
+		this.rnum = rnum;
+		this.cid = cid;
+		this.fid = fid;
+		this.status = status;
+		this.departureDate = departureDate;
+	}
+}
@@ -0,0 +1,664 @@
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class finds itineraries of one or more connecting flights between
+ * two airports: the earliest arrival or the cheapest total cost, with at
+ * most a given number of connections and a minimum connect time between
+ * them.  The flights are held in memory as primitive arrays sorted by
+ * departure time, and a query scans the departures of its window once
+ * (connection scan), so it takes milliseconds even with hundreds of
+ * thousands of flights.
+ *
+ * Times are minutes since 1970-01-01.  The Flight table keeps dates only,
+ * so every flight is taken to leave and land at midnight of its dates, and
+ * a minimum connect time of up to a day means the next flight leaves on a
+ * later day.  The connect time must be at least a minute: the scan relies
+ * on a connection leaving strictly after the flight that feeds it.
+ *
+ * The graph is copy-on-write: queries read an immutable snapshot, and
+ * add() and refresh() publish a new one merged from the old in linear
+ * time, so the graph follows AddFlight without a reload.  A query sees
+ * either all or none of a batch.  Flights of the database that arrive
+ * before they depart are left out and counted, see getSkippedCount.
+ *
+ *   java -cp lib/*:bin/ RouteGraph <dbname> <port> <user> <from> <to> <YYYY-MM-DD> [last date] [connections] [connect minutes]
+ *
+ */
+
+public class RouteGraph {
+	static final String FLIGHTS =
+		"SELECT fnum, cost, actual_departure_date, actual_arrival_date, departure_airport, arrival_airport FROM Flight";
+	static final String FLIGHTS_BY_NUMBER = FLIGHTS + " WHERE fnum = ANY(?)";
+	static final int MINUTES_PER_DAY = 1440;
+	static final int UNREACHED = Integer.MAX_VALUE;
+
+	public enum Objective {
+		EARLIEST_ARRIVAL, CHEAPEST
+	}
+
+	/**
+	 * One flight of an itinerary.
+	 */
+	public static final class Leg {
+		public final int fnum;
+		public final String from;
+		public final String to;
+		public final int departure;
+		public final int arrival;
+		public final int cost;
+
+		Leg(int fnum, String from, String to, int departure, int arrival, int cost) {
+			this.fnum = fnum;
+			this.from = from;
+			this.to = to;
+			this.departure = departure;
+			this.arrival = arrival;
+			this.cost = cost;
+		}
+
+		@Override
+		public String toString() {
+			return "Flight " + this.fnum + ": " + this.from + " -> " + this.to + ", departs " + time(this.departure)
+				+ ", arrives " + time(this.arrival) + ", cost " + this.cost;
+		}
+	}
+
+	/**
+	 * The flights of an itinerary, in order, and their total cost.
+	 */
+	public static final class Itinerary {
+		public final List<Leg> legs;
+		public final int cost;
+
+		Itinerary(List<Leg> legs, int cost) {
+			this.legs = Collections.unmodifiableList(legs);
+			this.cost = cost;
+		}
+
+		public int getDeparture() {
+			return this.legs.get(0).departure;
+		}
+
+		public int getArrival() {
+			return this.legs.get(this.legs.size() - 1).arrival;
+		}
+	}
+
+	/**
+	 * Flights to add to the graph, collected into primitive columns.
+	 */
+	public static final class Batch {
+		final IntColumn fnum = new IntColumn();
+		final IntColumn cost = new IntColumn();
+		final IntColumn departure = new IntColumn();
+		final IntColumn arrival = new IntColumn();
+		final List<String> from = new ArrayList<String>();
+		final List<String> to = new ArrayList<String>();
+		//flights of the database left out because they arrive before they depart
+		final IntColumn skipped = new IntColumn();
+
+		/**
+		 * Method to add a flight to the batch.
+		 *
+		 * @param fnum the flight number
+		 * @param from the departure airport code
+		 * @param to the arrival airport code
+		 * @param departure the departure time, in minutes since 1970-01-01
+		 * @param arrival the arrival time, no earlier than the departure
+		 * @param cost the cost of the flight
+		 */
+		public void add(int fnum, String from, String to, int departure, int arrival, int cost) {
+			if (arrival < departure) {
+				throw new IllegalArgumentException("Flight " + fnum + " arrives before it departs");
+			}
+			this.fnum.add(fnum);
+			this.cost.add(cost);
+			this.departure.add(departure);
+			this.arrival.add(arrival);
+			this.from.add(from.trim());
+			this.to.add(to.trim());
+		}
+
+		public int size() {
+			return this.fnum.size();
+		}
+	}
+
+	/**
+	 * An immutable snapshot of the graph.  Flight i (in departure order) goes
+	 * from airport from[i] to to[i]; byArrival lists the flights in arrival
+	 * order.
+	 */
+	private static final class Graph {
+		final String[] codes;
+		final Map<String, Integer> ids;
+		final int[] fnum;
+		final int[] from;
+		final int[] to;
+		final int[] departure;
+		final int[] arrival;
+		final int[] cost;
+		final int[] byArrival;
+		final int[] sortedFnums;
+
+		Graph(String[] codes, Map<String, Integer> ids, int[] fnum, int[] from, int[] to, int[] departure,
+				int[] arrival, int[] cost, int[] byArrival, int[] sortedFnums) {
+			this.codes = codes;
+			this.ids = ids;
+			this.fnum = fnum;
+			this.from = from;
+			this.to = to;
+			this.departure = departure;
+			this.arrival = arrival;
+			this.cost = cost;
+			this.byArrival = byArrival;
+			this.sortedFnums = sortedFnums;
+		}
+
+		int size() {
+			return this.fnum.length;
+		}
+
+		boolean contains(int fnum) {
+			return Arrays.binarySearch(this.sortedFnums, fnum) >= 0;
+		}
+	}
+
+	static final Graph EMPTY = new Graph(new String[0], new HashMap<String, Integer>(), new int[0], new int[0],
+		new int[0], new int[0], new int[0], new int[0], new int[0], new int[0]);
+
+	private final DBproject _db;
+	private volatile Graph _graph = EMPTY;
+	//the flights reload() and refresh() left out, sorted, so refresh() does not fetch them again
+	private volatile int[] _skipped = new int[0];
+
+	/**
+	 * Creates an empty graph.
+	 *
+	 * @param db the database reload() and refresh() read, or null for a graph
+	 *           filled with add() only
+	 */
+	public RouteGraph(DBproject db) {
+		this._db = db;
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 6) {
+			System.err.println("Usage: java [-classpath <classpath>] " + RouteGraph.class.getName() +
+				" <dbname> <port> <user> <from> <to> <YYYY-MM-DD> [last date] [connections] [connect minutes]");
+			return;
+		}
+		LocalDate first = LocalDate.parse(args[5]);
+		LocalDate last = args.length > 6 ? LocalDate.parse(args[6]) : first.plusDays(7);
+		int connections = args.length > 7 ? Integer.parseInt(args[7]) : 2;
+		int connect = args.length > 8 ? Integer.parseInt(args[8]) : 60;
+
+		Class.forName("org.postgresql.Driver");
+		DBproject esql = new DBproject(args[0], args[1], args[2], "");
+		try {
+			long start = System.nanoTime();
+			RouteGraph routes = esql.getRouteGraph();
+			System.out.println(String.format("Loaded %d flights between %d airports in %.1f ms.",
+				routes.size(), routes.airports(), (System.nanoTime() - start) / 1e6));
+			if (routes.getSkippedCount() > 0) {
+				System.out.println(String.format("Skipped %d flights that arrive before they depart.", routes.getSkippedCount()));
+			}
+			for (Objective objective : Objective.values()) {
+				start = System.nanoTime();
+				Itinerary itinerary = routes.find(args[3], args[4], first, last, connections, connect, objective);
+				System.out.println(String.format("%s (%.3f ms):", objective.name().toLowerCase().replace('_', ' '),
+					(System.nanoTime() - start) / 1e6));
+				if (itinerary == null) {
+					System.out.println("\tno itinerary");
+					continue;
+				}
+				for (Leg leg : itinerary.legs) {
+					System.out.println("\t" + leg);
+				}
+				System.out.println("\ttotal cost " + itinerary.cost);
+			}
+		} finally {
+			esql.cleanup();
+		}
+	}
+
+	/**
+	 * Method to replace the graph with every flight of the database.
+	 *
+	 * @return the number of flights loaded
+	 * @throws java.sql.SQLException when the flights cannot be read
+	 */
+	public synchronized int reload() throws SQLException {
+		Batch batch = new Batch();
+		this._db.executeQueryStreamingAcrossShards(FLIGHTS, collector(batch));
+		this._graph = merge(EMPTY, batch);
+		this._skipped = skip(new int[0], batch);
+		return batch.size();
+	}//end reload
+
+	/**
+	 * Method to add the flights of the database that the graph does not have
+	 * yet, e.g. those added by other processes.  Only the flight numbers are
+	 * read in full; the new flights are then fetched by number.
+	 *
+	 * @return the number of flights added
+	 * @throws java.sql.SQLException when the flights cannot be read
+	 */
+	public synchronized int refresh() throws SQLException {
+		Graph graph = this._graph;
+		IntColumn missing = new IntColumn();
+		int[] skipped = this._skipped;
+		for (int fnum : this._db.queryForIntColumnAcrossShards(Queries.FLIGHT_NUMBERS)) {
+			if (!graph.contains(fnum) && Arrays.binarySearch(skipped, fnum) < 0) {
+				missing.add(fnum);
+			}
+		}
+		if (missing.size() == 0) {
+			return 0;
+		}
+		Batch batch = new Batch();
+		this._db.executeQueryStreamingAcrossShards(FLIGHTS_BY_NUMBER, collector(batch), (Object) missing.toArray());
+		this._graph = merge(graph, batch);
+		this._skipped = skip(skipped, batch);
+		return batch.size();
+	}//end refresh
+
+	/**
+	 * Method to add one flight, e.g. right after it is inserted.  A flight
+	 * the graph already has is ignored.
+	 *
+	 * @param flight the new flight
+	 */
+	public void add(Flight flight) {
+		Batch batch = new Batch();
+		batch.add(flight.fnum, flight.departureAirport, flight.arrivalAirport, minutes(flight.actualDepartureDate),
+			minutes(flight.actualArrivalDate), flight.cost);
+		add(batch);
+	}
+
+	/**
+	 * Method to add a batch of flights.  Flights the graph already has are
+	 * ignored.
+	 *
+	 * @param batch the new flights
+	 */
+	public synchronized void add(Batch batch) {
+		this._graph = merge(this._graph, batch);
+	}
+
+	/**
+	 * Method to return the number of flights in the graph.
+	 *
+	 * @return the number of flights
+	 */
+	public int size() {
+		return this._graph.size();
+	}
+
+	/**
+	 * Method to return the number of flights of the database left out
+	 * because they arrive before they depart.
+	 *
+	 * @return the number of flights skipped by the last reload and the refreshes since
+	 */
+	public int getSkippedCount() {
+		return this._skipped.length;
+	}
+
+	//the flights skipped so far and those of a batch, sorted
+	private static int[] skip(int[] skipped, Batch batch) {
+		if (batch.skipped.size() == 0) {
+			return skipped;
+		}
+		int[] added = batch.skipped.toArray();
+		int[] result = Arrays.copyOf(skipped, skipped.length + added.length);
+		System.arraycopy(added, 0, result, skipped.length, added.length);
+		Arrays.sort(result);
+		return result;
+	}
+
+	/**
+	 * Method to return the number of airports in the graph.
+	 *
+	 * @return the number of airports
+	 */
+	public int airports() {
+		return this._graph.codes.length;
+	}
+
+	/**
+	 * Method to find the best itinerary between two airports.
+	 *
+	 * @param from the departure airport code
+	 * @param to the arrival airport code
+	 * @param first the earliest departure date
+	 * @param last the latest arrival date
+	 * @param maxConnections the most connections, 0 for direct flights only
+	 * @param minConnectMinutes the least time between landing and the next departure, at least 1
+	 * @param objective whether to arrive earliest or pay least; ties go to the other
+	 * @return the itinerary, or null when there is none
+	 */
+	public Itinerary find(String from, String to, LocalDate first, LocalDate last, int maxConnections,
+			int minConnectMinutes, Objective objective) {
+		return find(from, to, minutes(first), minutes(last.plusDays(1)) - 1, maxConnections, minConnectMinutes, objective);
+	}
+
+	/**
+	 * Method to find the best itinerary between two airports departing no
+	 * earlier than start and arriving no later than end, in minutes since
+	 * 1970-01-01.
+	 */
+	public Itinerary find(String from, String to, int start, int end, int maxConnections, int minConnectMinutes,
+			Objective objective) {
+		if (maxConnections < 0 || minConnectMinutes < 1) {
+			throw new IllegalArgumentException("Connections cannot be negative and the connect time must be at least a minute");
+		}
+		Graph g = this._graph;
+		Integer origin = g.ids.get(from.trim());
+		Integer destination = g.ids.get(to.trim());
+		if (origin == null || destination == null || origin.intValue() == destination.intValue()) {
+			return null;
+		}
+
+		// the flights departing in the window are lo .. hi-1.
+		int lo = lowerBound(g.departure, start);
+		int hi = lowerBound(g.departure, end + 1);
+		int width = hi - lo;
+		int levels = maxConnections + 1;
+		int airports = g.codes.length;
+		// label: least cost of being on flight lo+i as leg l+1; via: the flight of leg l.
+		int[] label = new int[levels * width];
+		int[] via = new int[levels * width];
+		Arrays.fill(label, UNREACHED);
+		// least cost of having landed at an airport after l+1 legs, ready to connect.
+		int[] ready = new int[levels * airports];
+		int[] readyVia = new int[levels * airports];
+		Arrays.fill(ready, UNREACHED);
+
+		int best = -1;
+		int bestArrival = UNREACHED;
+		int bestCost = UNREACHED;
+		int next = lowerBoundByArrival(g, start);
+		for (int c = lo; c < hi; c++) {
+			int t = g.departure[c];
+			if (objective == Objective.EARLIEST_ARRIVAL && t > bestArrival) {
+				break;
+			}
+			// connections that landed in time for this departure become usable.
+			while (next < g.byArrival.length) {
+				int r = g.byArrival[next];
+				if (g.arrival[r] > t - minConnectMinutes) {
+					break;
+				}
+				next++;
+				if (r < lo) {
+					continue;
+				}
+				for (int l = 0; l < maxConnections; l++) {
+					int v = label[l * width + r - lo];
+					int slot = l * airports + g.to[r];
+					if (v < ready[slot]) {
+						ready[slot] = v;
+						readyVia[slot] = r;
+					}
+				}
+			}
+
+			int i = c - lo;
+			if (g.from[c] == origin) {
+				label[i] = g.cost[c];
+				via[i] = -1;
+			}
+			for (int l = 1; l < levels; l++) {
+				int v = ready[(l - 1) * airports + g.from[c]];
+				if (v != UNREACHED && v + g.cost[c] < label[l * width + i]) {
+					label[l * width + i] = v + g.cost[c];
+					via[l * width + i] = readyVia[(l - 1) * airports + g.from[c]];
+				}
+			}
+
+			if (g.to[c] == destination && g.arrival[c] <= end) {
+				for (int l = 0; l < levels; l++) {
+					int v = label[l * width + i];
+					if (v == UNREACHED) {
+						continue;
+					}
+					boolean better = objective == Objective.EARLIEST_ARRIVAL
+						? g.arrival[c] < bestArrival || (g.arrival[c] == bestArrival && v < bestCost)
+						: v < bestCost || (v == bestCost && g.arrival[c] < bestArrival);
+					if (better) {
+						best = l * width + i;
+						bestArrival = g.arrival[c];
+						bestCost = v;
+					}
+				}
+			}
+		}
+		if (best < 0) {
+			return null;
+		}
+
+		// walk the legs back from the last one.
+		List<Leg> legs = new ArrayList<Leg>();
+		int level = best / width;
+		int c = lo + best % width;
+		while (true) {
+			legs.add(new Leg(g.fnum[c], g.codes[g.from[c]], g.codes[g.to[c]], g.departure[c], g.arrival[c], g.cost[c]));
+			if (level == 0) {
+				break;
+			}
+			c = via[level * width + c - lo];
+			level--;
+		}
+		Collections.reverse(legs);
+		return new Itinerary(legs, bestCost);
+	}//end find
+
+	/**
+	 * Merges a batch into a snapshot.  The batch is sorted on its own, then
+	 * both orders are merged with the snapshot's in one pass each.
+	 */
+	private static Graph merge(Graph g, Batch batch) {
+		int n = g.size();
+		// drop the flights the graph has, and duplicates within the batch.
+		IntColumn keep = new IntColumn(batch.size());
+		int[] fnums = batch.fnum.toArray();
+		int[] sortedNew = new int[fnums.length];
+		int kept = 0;
+		int[] order = sortByKey(fnums);
+		for (int k = 0; k < order.length; k++) {
+			int f = fnums[order[k]];
+			if (!g.contains(f) && (kept == 0 || sortedNew[kept - 1] != f)) {
+				sortedNew[kept++] = f;
+				keep.add(order[k]);
+			}
+		}
+		if (kept == 0) {
+			return g;
+		}
+
+		String[] codes = g.codes;
+		Map<String, Integer> ids = g.ids;
+		int m = keep.size();
+		int[] bFrom = new int[m];
+		int[] bTo = new int[m];
+		int[] bDeparture = new int[m];
+		int[] bArrival = new int[m];
+		for (int k = 0; k < m; k++) {
+			int j = keep.get(k);
+			String[] names = {batch.from.get(j), batch.to.get(j)};
+			int[] airport = new int[2];
+			for (int e = 0; e < 2; e++) {
+				Integer id = ids.get(names[e]);
+				if (id == null) {
+					// a new airport: the snapshot's map and codes are never changed in place.
+					if (ids == g.ids) {
+						ids = new HashMap<String, Integer>(g.ids);
+					}
+					id = ids.size();
+					ids.put(names[e], id);
+					codes = Arrays.copyOf(codes, id + 1);
+					codes[id] = names[e];
+				}
+				airport[e] = id;
+			}
+			bFrom[k] = airport[0];
+			bTo[k] = airport[1];
+			bDeparture[k] = batch.departure.get(j);
+			bArrival[k] = batch.arrival.get(j);
+		}
+
+		// departure order: each new flight goes after the old ones leaving at
+		// the same time, and the old flights between two new ones move as a block.
+		int[] byDeparture = sortByKey(bDeparture);
+		int[] at = new int[m];
+		int[] bFnum = new int[m];
+		int[] bCost = new int[m];
+		for (int k = 0; k < m; k++) {
+			int j = keep.get(byDeparture[k]);
+			bFnum[k] = batch.fnum.get(j);
+			bCost[k] = batch.cost.get(j);
+			at[k] = lowerBound(g.departure, bDeparture[byDeparture[k]] + 1);
+		}
+		int[] fnum = insert(g.fnum, at, bFnum);
+		int[] from = insert(g.from, at, permute(bFrom, byDeparture));
+		int[] to = insert(g.to, at, permute(bTo, byDeparture));
+		int[] departure = insert(g.departure, at, permute(bDeparture, byDeparture));
+		int[] arrival = insert(g.arrival, at, permute(bArrival, byDeparture));
+		int[] cost = insert(g.cost, at, bCost);
+		// new index of the k-th new flight in departure order, by batch position.
+		int[] newIndex = new int[m];
+		for (int k = 0; k < m; k++) {
+			newIndex[byDeparture[k]] = at[k] + k;
+		}
+
+		// arrival order: renumber the old order, then insert the batch's.
+		int[] renumbered = new int[n];
+		for (int a = 0; a < n; a++) {
+			int old = g.byArrival[a];
+			// an old flight moves up by the new flights inserted at or before it.
+			renumbered[a] = old + lowerBound(at, old + 1);
+		}
+		int[] bByArrival = sortByKey(bArrival);
+		int[] arrivalAt = new int[m];
+		int[] arrivalIndex = new int[m];
+		for (int k = 0; k < m; k++) {
+			arrivalAt[k] = lowerBoundByArrival(g, bArrival[bByArrival[k]] + 1);
+			arrivalIndex[k] = newIndex[bByArrival[k]];
+		}
+		int[] byArrival = insert(renumbered, arrivalAt, arrivalIndex);
+
+		int[] fnumAt = new int[kept];
+		for (int k = 0; k < kept; k++) {
+			fnumAt[k] = lowerBound(g.sortedFnums, sortedNew[k]);
+		}
+		int[] sortedFnums = insert(g.sortedFnums, fnumAt, Arrays.copyOf(sortedNew, kept));
+		return new Graph(codes, ids, fnum, from, to, departure, arrival, cost, byArrival, sortedFnums);
+	}//end merge
+
+	/**
+	 * Returns a copy of the sorted array with values[k] inserted before
+	 * sorted[at[k]]; at must be ascending.  The runs between insertions are
+	 * block copies, so adding a few flights costs little more than copying.
+	 */
+	static int[] insert(int[] sorted, int[] at, int[] values) {
+		int[] merged = new int[sorted.length + values.length];
+		int copied = 0;
+		for (int k = 0; k < values.length; k++) {
+			System.arraycopy(sorted, copied, merged, copied + k, at[k] - copied);
+			copied = at[k];
+			merged[copied + k] = values[k];
+		}
+		System.arraycopy(sorted, copied, merged, copied + values.length, sorted.length - copied);
+		return merged;
+	}
+
+	static int[] permute(int[] values, int[] order) {
+		int[] permuted = new int[order.length];
+		for (int i = 0; i < order.length; i++) {
+			permuted[i] = values[order[i]];
+		}
+		return permuted;
+	}
+
+	/**
+	 * Returns the indexes of the values in ascending order of value (stable),
+	 * sorting packed longs instead of boxed indexes.
+	 */
+	static int[] sortByKey(int[] values) {
+		long[] packed = new long[values.length];
+		for (int i = 0; i < values.length; i++) {
+			packed[i] = ((long) values[i] << 32) | i;
+		}
+		Arrays.sort(packed);
+		int[] order = new int[values.length];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = (int) packed[i];
+		}
+		return order;
+	}
+
+	// first index whose value is >= key.
+	static int lowerBound(int[] sorted, int key) {
+		int lo = 0;
+		int hi = sorted.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (sorted[mid] < key) {
+				lo = mid + 1;
+			}
+			else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	// first position in arrival order of a flight landing at or after key.
+	private static int lowerBoundByArrival(Graph g, int key) {
+		int lo = 0;
+		int hi = g.byArrival.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (g.arrival[g.byArrival[mid]] < key) {
+				lo = mid + 1;
+			}
+			else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	private static RowHandler collector(final Batch batch) {
+		return new RowHandler() {
+			public void handle(Row row) throws SQLException {
+				int departure = minutes(row.getLocalDate(3));
+				int arrival = minutes(row.getLocalDate(4));
+				if (arrival < departure) {
+					// one bad row must not keep every other flight out of the graph.
+					batch.skipped.add(row.getInt(1));
+					return;
+				}
+				batch.add(row.getInt(1), row.getString(5), row.getString(6), departure, arrival, row.getInt(2));
+			}
+		};
+	}
+
+	static int minutes(LocalDate date) {
+		return Math.toIntExact(date.toEpochDay() * MINUTES_PER_DAY);
+	}
+
+	static LocalDateTime time(int minutes) {
+		return LocalDateTime.ofEpochSecond(minutes * 60L, 0, ZoneOffset.UTC);
+	}
+}
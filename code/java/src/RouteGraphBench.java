@@ -0,0 +1,100 @@
+import java.util.Random;
+
+/**
+ * This class measures RouteGraph on generated flights, so it needs no
+ * database: for each graph size it times building the graph, adding flights
+ * one at a time as AddFlight does, and itinerary queries between random
+ * airports for both objectives, printing latency percentiles.
+ *
+ * Flights leave on random days of the period between random airports, with
+ * a quarter of the traffic through a few hubs as real networks have, and
+ * land the same day or the next.
+ *
+ *   java -cp bin/ RouteGraphBench [flights, e.g. 100000,1000000] [airports] [days] [queries]
+ *
+ */
+
+public class RouteGraphBench {
+	static final int HUBS = 10;
+
+	public static void main(String[] args) {
+		String[] sizes = (args.length > 0 ? args[0] : "100000,400000,1000000").split(",");
+		int airports = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+		int days = args.length > 2 ? Integer.parseInt(args[2]) : 365;
+		int queries = args.length > 3 ? Integer.parseInt(args[3]) : 2000;
+		if (airports <= HUBS) {
+			System.err.println("Usage: java [-classpath <classpath>] " + RouteGraphBench.class.getName() +
+				" [flights, e.g. 100000,1000000] [airports, more than " + HUBS + "] [days] [queries]");
+			return;
+		}
+
+		System.out.println(String.format("%9s %10s %12s %-16s %8s %9s %9s %9s %9s", "flights", "build(ms)", "add(us/op)",
+			"objective", "found", "mean(ms)", "p50(ms)", "p99(ms)", "max(ms)"));
+		for (String value : sizes) {
+			int flights = Integer.parseInt(value.trim());
+			Random random = new Random(42);
+			RouteGraph.Batch batch = new RouteGraph.Batch();
+			for (int fnum = 0; fnum < flights; fnum++) {
+				addRandom(batch, random, fnum, airports, days);
+			}
+			long start = System.nanoTime();
+			RouteGraph routes = new RouteGraph(null);
+			routes.add(batch);
+			double buildMillis = (System.nanoTime() - start) / 1e6;
+			batch = null;
+
+			// single flights, as AddFlight adds them, each copying the snapshot; the
+			// first 20 warm up the JIT and are not counted.
+			int adds = 100;
+			for (int i = -20; i < adds; i++) {
+				if (i == 0) {
+					start = System.nanoTime();
+				}
+				RouteGraph.Batch one = new RouteGraph.Batch();
+				addRandom(one, random, flights + 20 + i, airports, days);
+				routes.add(one);
+			}
+			double addMicros = (System.nanoTime() - start) / 1e3 / adds;
+
+			for (RouteGraph.Objective objective : RouteGraph.Objective.values()) {
+				LatencyHistogram latency = new LatencyHistogram();
+				int found = 0;
+				// the first tenth warms up the JIT and is not counted.
+				int warmup = Math.max(10, queries / 10);
+				for (int i = -warmup; i < queries; i++) {
+					String from = airport(random, airports);
+					String to = airport(random, airports);
+					int first = random.nextInt(Math.max(1, days - 7)) * RouteGraph.MINUTES_PER_DAY;
+					long began = System.nanoTime();
+					RouteGraph.Itinerary itinerary = routes.find(from, to, first, first + 7 * RouteGraph.MINUTES_PER_DAY, 2, 60, objective);
+					if (i >= 0) {
+						latency.recordSince(began);
+						if (itinerary != null) {
+							found++;
+						}
+					}
+				}
+				System.out.println(String.format("%9d %10.1f %12.1f %-16s %8d %9.3f %9.3f %9.3f %9.3f", flights, buildMillis, addMicros,
+					objective.name().toLowerCase(), found, latency.getMean() / 1000, latency.getPercentile(50) / 1000.0,
+					latency.getPercentile(99) / 1000.0, latency.getMax() / 1000.0));
+			}
+		}
+	}
+
+	private static void addRandom(RouteGraph.Batch batch, Random random, int fnum, int airports, int days) {
+		String from = airport(random, airports);
+		String to = airport(random, airports);
+		while (to.equals(from)) {
+			to = airport(random, airports);
+		}
+		int departure = random.nextInt(days) * RouteGraph.MINUTES_PER_DAY;
+		int arrival = departure + (random.nextInt(4) == 0 ? RouteGraph.MINUTES_PER_DAY : 0);
+		batch.add(fnum, from, to, departure, arrival, 100 + random.nextInt(900));
+	}
+
+	// a quarter of the picks are hubs.
+	private static String airport(Random random, int airports) {
+		int id = random.nextInt(4) == 0 ? random.nextInt(HUBS) : random.nextInt(airports);
+		return String.format("A%04d", id);
+	}
+}
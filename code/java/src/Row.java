@@ -0,0 +1,91 @@
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.time.LocalDate;
+
+/**
+ * This class gives typed access to the current row of a streaming query.
+ * One Row is re-used for every row of a result set, so it must not be kept
+ * after the handler or cursor has moved on: copy the values out instead.
+ * Columns are numbered from 1, as in JDBC.
+ *
+ */
+
+public class Row {
+	private final ResultSet _rs;
+	private ResultSetMetaData _rsmd = null;
+
+	Row(ResultSet rs) {
+		this._rs = rs;
+	}
+
+	public int getInt(int column) throws SQLException {
+		return this._rs.getInt(column);
+	}
+
+	public long getLong(int column) throws SQLException {
+		return this._rs.getLong(column);
+	}
+
+	public double getDouble(int column) throws SQLException {
+		return this._rs.getDouble(column);
+	}
+
+	public boolean getBoolean(int column) throws SQLException {
+		return this._rs.getBoolean(column);
+	}
+
+	public String getString(int column) throws SQLException {
+		return this._rs.getString(column);
+	}
+
+	/**
+	 * Method to read a DATE column.
+	 *
+	 * @param column the column number
+	 * @return the date, or null for SQL NULL
+	 * @throws java.sql.SQLException when the column is not a date
+	 */
+	public LocalDate getLocalDate(int column) throws SQLException {
+		Date date = this._rs.getDate(column);
+		return date == null ? null : date.toLocalDate();
+	}
+
+	/**
+	 * Method to tell whether the last column read was SQL NULL, for the
+	 * primitive accessors that return 0 in that case.
+	 *
+	 * @return true if the last value read was NULL
+	 * @throws java.sql.SQLException when no column has been read
+	 */
+	public boolean wasNull() throws SQLException {
+		return this._rs.wasNull();
+	}
+
+	public int getColumnCount() throws SQLException {
+		return metaData().getColumnCount();
+	}
+
+	public String getColumnName(int column) throws SQLException {
+		return metaData().getColumnName(column);
+	}
+
+	/**
+	 * Method to return the SQL type of a column.
+	 *
+	 * @param column the column number
+	 * @return the type, one of java.sql.Types
+	 * @throws java.sql.SQLException when the column does not exist
+	 */
+	public int getColumnType(int column) throws SQLException {
+		return metaData().getColumnType(column);
+	}
+
+	private ResultSetMetaData metaData() throws SQLException {
+		if (this._rsmd == null) {
+			this._rsmd = this._rs.getMetaData();
+		}
+		return this._rsmd;
+	}
+}
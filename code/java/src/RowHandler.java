@@ -0,0 +1,17 @@
+import java.sql.SQLException;
+
+/**
+ * This interface receives the rows of a streaming query one at a time.
+ *
+ */
+
+public interface RowHandler {
+	/**
+	 * Method called once per row, in result order.  The row object is
+	 * re-used for the next row once this method returns.
+	 *
+	 * @param row the current row
+	 * @throws java.sql.SQLException to stop the query and propagate the failure
+	 */
+	void handle(Row row) throws SQLException;
+}
@@ -0,0 +1,20 @@
+import java.sql.SQLException;
+
+/**
+ * This interface turns the current row of a query into a typed object,
+ * reading each column with the matching primitive accessor instead of
+ * going through strings.
+ *
+ */
+
+public interface RowMapper<T> {
+	/**
+	 * Method called once per row.  The row object is re-used for the next
+	 * row, so the result must not keep a reference to it.
+	 *
+	 * @param row the current row
+	 * @return the mapped object
+	 * @throws java.sql.SQLException when a column cannot be read
+	 */
+	T map(Row row) throws SQLException;
+}
@@ -0,0 +1,98 @@
+import java.util.List;
+
+/**
+ * This class compares the string-based result path with the typed row
+ * mappers on the same queries: a full read of Flight and Reservation, and
+ * the seat lookup that BookFlight and ListNumberOfAvailableSeats run.  For
+ * each it prints the time, throughput, bytes allocated per query and the
+ * collections triggered.
+ *
+ *   java -cp lib/*:bin/ RowMappingBench <dbname> <port> <user> [iterations]
+ *
+ */
+
+public class RowMappingBench {
+	public static void main(String[] args) throws Exception {
+		if (args.length < 3) {
+			System.err.println("Usage: java [-classpath <classpath>] " + RowMappingBench.class.getName() +
+				" <dbname> <port> <user> [iterations]");
+			return;
+		}
+		final int iterations = args.length > 3 ? Integer.parseInt(args[3]) : 200;
+		final int warmup = Math.max(10, iterations / 10);
+
+		Class.forName("org.postgresql.Driver");
+		final DBproject esql = new DBproject(args[0], args[1], args[2], "");
+		try {
+			final String flights = "SELECT " + Flight.COLUMNS + " FROM Flight";
+			final String reservations = "SELECT " + Reservation.COLUMNS + " FROM Reservation";
+			final int fnum = 1;
+
+			System.out.println(Bench.Result.header());
+			System.out.println(Bench.measure("flights.strings", warmup, iterations, new Bench.Op() {
+				public void run() throws Exception {
+					long sum = 0;
+					for (List<String> row : esql.executeQueryAndReturnResult(flights)) {
+						sum += Integer.parseInt(row.get(2));
+					}
+					consume(sum);
+				}
+			}));
+			System.out.println(Bench.measure("flights.typed", warmup, iterations, new Bench.Op() {
+				public void run() throws Exception {
+					long sum = 0;
+					for (Flight flight : esql.queryForList(flights, Flight.MAPPER)) {
+						sum += flight.numSold;
+					}
+					consume(sum);
+				}
+			}));
+			System.out.println(Bench.measure("reservations.strings", warmup, iterations, new Bench.Op() {
+				public void run() throws Exception {
+					long sum = 0;
+					for (List<String> row : esql.executeQueryAndReturnResult(reservations)) {
+						sum += Integer.parseInt(row.get(2));
+					}
+					consume(sum);
+				}
+			}));
+			System.out.println(Bench.measure("reservations.typed", warmup, iterations, new Bench.Op() {
+				public void run() throws Exception {
+					long sum = 0;
+					for (Reservation reservation : esql.queryForList(reservations, Reservation.MAPPER)) {
+						sum += reservation.fid;
+					}
+					consume(sum);
+				}
+			}));
+			System.out.println(Bench.measure("reservations.fid-column", warmup, iterations, new Bench.Op() {
+				public void run() throws Exception {
+					long sum = 0;
+					for (int fid : esql.queryForIntColumn("SELECT fid FROM Reservation")) {
+						sum += fid;
+					}
+					consume(sum);
+				}
+			}));
+			System.out.println(Bench.measure("seats-left.strings", warmup, iterations * 10, new Bench.Op() {
+				public void run() throws Exception {
+					consume(Integer.parseInt(esql.executeQueryAndReturnResult(Queries.SEATS_LEFT, fnum).get(0).get(0)));
+				}
+			}));
+			System.out.println(Bench.measure("seats-left.typed", warmup, iterations * 10, new Bench.Op() {
+				public void run() throws Exception {
+					consume(esql.queryForInt(Queries.SEATS_LEFT, Integer.MIN_VALUE, fnum));
+				}
+			}));
+		} finally {
+			esql.cleanup();
+		}
+	}
+
+	static volatile long sink;
+
+	// keeps the JIT from discarding the work being measured.
+	static void consume(long value) {
+		sink += value;
+	}
+}
@@ -0,0 +1,30 @@
+import java.sql.SQLException;
+import java.time.LocalDate;
+
+/**
+ * This class holds one row of the Schedule table.
+ *
+ */
+
+public final class Schedule {
+	//select list matching MAPPER
+	public static final String COLUMNS = "id, flightNum, departure_time, arrival_time";
+
+	public static final RowMapper<Schedule> MAPPER = new RowMapper<Schedule>() {
+		public Schedule map(Row row) throws SQLException {
+			return new Schedule(row.getInt(1), row.getInt(2), row.getLocalDate(3), row.getLocalDate(4));
+		}
+	};
+
+	public final int id;
+	public final int flightNum;
+	public final LocalDate departureTime;
+	public final LocalDate arrivalTime;
+
+	public Schedule(int id, int flightNum, LocalDate departureTime, LocalDate arrivalTime) {
+		this.id = id;
+		this.flightNum = flightNum;
+		this.departureTime = departureTime;
+		this.arrivalTime = arrivalTime;
+	}
+}
@@ -0,0 +1,443 @@
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * This class allocates seats on flights.  A booking is a single SQL
+ * statement: a data-modifying CTE increments Flight.num_sold only while it
+ * is below the plane's capacity, and the Reservation row is inserted with
+ * status 'R' when that increment happened or 'W' when the flight is full
+ * and the caller accepts the waitlist.  Both writes commit together in one
+ * round trip, and concurrent bookings of the last seat serialize on the
+ * Flight row, so a flight can never be oversold.
+ *
+ * Every booking writes its result through to the seat availability cache
+ * of DBproject: a reserved seat caches the exact number of seats left, and
+ * any other outcome drops the cached entry.
+ *
+ * Cancelling a reservation that holds a seat ('R' or 'C') hands the seat
+ * to the head of the flight's waitlist, the 'W' reservation with the lowest
+ * reservation number, in the same transaction that deletes the cancelled
+ * row; Flight.num_sold only drops when nobody is waiting.  The head is
+ * found through the (fid, status, rnum) index, so a promotion costs the
+ * same however large Reservation grows.  Cancellations lock the Flight row
+ * first, like bookings, so a seat freed by one is never missed by a
+ * concurrent booking or promotion.
+ *
+ * With airline.booking.procedure=true bookings call the book_flight
+ * function of create_booking_function.sql instead, which also picks the
+ * reservation number on the server, so a booking is always exactly one
+ * round trip (the statement path occasionally spends a second one on a
+ * new block of reservation numbers).
+ *
+ * Bookings and cancellations of the same flight from this process also
+ * queue on one of a fixed number of lock stripes, so a hot flight ties up
+ * one pooled connection at a time instead of the whole pool.  Transient
+ * failures (serialization failures, deadlocks, duplicate reservation
+ * numbers) are retried.
+ *
+ * With airline.shards, bookings and cancellations run on the shard of the
+ * flight, see ShardRouter; only the reservation number, which must be
+ * unique across shards, comes from the first database, and a cancellation
+ * first finds which shard holds the reservation by asking all of them.
+ * book_flight numbers reservations from the sequence of whichever shard
+ * runs it, so the procedure path is refused when shards are configured.
+ *
+ */
+
+public class SeatAllocator {
+	/**
+	 * The outcome of a booking attempt.
+	 */
+	public enum Outcome {
+		RESERVED, WAITLISTED, SOLD_OUT, NO_SUCH_FLIGHT, NO_SUCH_CUSTOMER
+	}
+
+	/**
+	 * The outcome of a booking attempt and the reservation number it created,
+	 * or -1 when no reservation was created.
+	 */
+	public static final class Result {
+		public final Outcome outcome;
+		public final int rnum;
+
+		Result(Outcome outcome, int rnum) {
+			this.outcome = outcome;
+			this.rnum = rnum;
+		}
+
+		@Override
+		public String toString() {
+			return this.outcome + (this.rnum >= 0 ? " (reservation " + this.rnum + ")" : "");
+		}
+	}
+
+	/*
+	 * Takes a seat if one is left and inserts the reservation as 'R', or as
+	 * 'W' when the flight is full and the last parameter is true.  The
+	 * reservation carries the flight's departure date, which routes it to
+	 * its Reservation partition.  Returns the status of the inserted row and
+	 * the seats left after it, or no row at all.
+	 */
+	static final String BOOK =
+		"WITH seat AS (" +
+			"UPDATE Flight F SET num_sold = F.num_sold + 1 FROM FlightInfo I, Plane P " +
+			"WHERE F.fnum = ? AND I.flight_id = F.fnum AND I.plane_id = P.id AND F.num_sold < P.seats " +
+			"RETURNING P.seats - F.num_sold AS seats_left), " +
+		"booked AS (" +
+			"INSERT INTO Reservation (rnum, cid, fid, status, departure_date) " +
+			"SELECT ?, ?, F.fnum, CASE WHEN EXISTS (SELECT 1 FROM seat) THEN 'R' ELSE 'W' END, F.actual_departure_date " +
+			"FROM Flight F WHERE F.fnum = ? AND (EXISTS (SELECT 1 FROM seat) OR ?) " +
+			"RETURNING status) " +
+		"SELECT B.status, S.seats_left FROM booked B LEFT JOIN seat S ON true";
+	static final String FLIGHT_EXISTS = "SELECT 1 FROM Flight WHERE fnum = ?";
+	//the same booking done by the database function, numbering included
+	static final String BOOK_PROCEDURE = "SELECT outcome, reservation, seats_left FROM book_flight(?, ?, ?)";
+
+	/*
+	 * Cancellation, run as one transaction: the flight row is locked before
+	 * any reservation row, in the same order as BOOK.  Every statement on
+	 * Reservation names the departure date, so only that month's partition
+	 * is read; the reservation is looked up through ReservationNumber, which
+	 * gives its flight and departure date.
+	 */
+	static final String RESERVATION_BY_NUMBER =
+		"SELECT R.rnum, R.cid, R.fid, R.status, R.departure_date FROM ReservationNumber N " +
+		"JOIN Reservation R ON R.rnum = N.rnum AND R.departure_date = N.departure_date WHERE N.rnum = ?";
+	static final String LOCK_FLIGHT =
+		"SELECT P.seats - F.num_sold FROM Flight F " +
+		"LEFT JOIN FlightInfo I ON I.flight_id = F.fnum LEFT JOIN Plane P ON P.id = I.plane_id " +
+		"WHERE F.fnum = ? FOR UPDATE OF F";
+	static final String DELETE_RESERVATION = "DELETE FROM Reservation WHERE rnum = ? AND fid = ? AND departure_date = ? RETURNING status";
+	static final String PROMOTE_HEAD =
+		"UPDATE Reservation SET status = 'R' WHERE departure_date = ? AND rnum = " +
+		"(SELECT rnum FROM Reservation WHERE fid = ? AND departure_date = ? AND status = 'W' ORDER BY rnum LIMIT 1) " +
+		"RETURNING rnum";
+	static final String RELEASE_SEAT = "UPDATE Flight SET num_sold = num_sold - 1 WHERE fnum = ? AND num_sold > 0";
+
+	/**
+	 * The outcome of a cancellation: the status the reservation had and the
+	 * waitlisted reservation promoted into its seat, or -1.
+	 */
+	public static final class Cancellation {
+		public final int rnum;
+		public final int fnum;
+		public final char status;
+		public final int promoted;
+
+		Cancellation(int rnum, int fnum, char status, int promoted) {
+			this.rnum = rnum;
+			this.fnum = fnum;
+			this.status = status;
+			this.promoted = promoted;
+		}
+
+		@Override
+		public String toString() {
+			return "cancelled " + this.status + " reservation " + this.rnum + " on flight " + this.fnum
+				+ (this.promoted >= 0 ? ", promoted reservation " + this.promoted : "");
+		}
+	}
+
+	//SQLSTATEs the allocator reacts to
+	static final String UNIQUE_VIOLATION = "23505";
+	static final String FOREIGN_KEY_VIOLATION = "23503";
+	static final String SERIALIZATION_FAILURE = "40001";
+	static final String DEADLOCK_DETECTED = "40P01";
+
+	private final DBproject _db;
+	private final ReentrantLock[] _stripes;
+	private final int _maxRetries;
+	private final boolean _procedure;
+
+	//statistics
+	private final AtomicLong _reserved = new AtomicLong();
+	private final AtomicLong _waitlisted = new AtomicLong();
+	private final AtomicLong _soldOut = new AtomicLong();
+	private final AtomicLong _retries = new AtomicLong();
+	private final AtomicLong _cancelled = new AtomicLong();
+	private final AtomicLong _promoted = new AtomicLong();
+
+	public SeatAllocator(DBproject db, int stripes, int maxRetries, boolean procedure) {
+		if (stripes <= 0) {
+			throw new IllegalArgumentException("Lock stripe count must be positive: " + stripes);
+		}
+		this._db = db;
+		this._stripes = new ReentrantLock[stripes];
+		for (int i = 0; i < stripes; i++) {
+			this._stripes[i] = new ReentrantLock();
+		}
+		this._maxRetries = maxRetries;
+		this._procedure = procedure;
+	}
+
+	/**
+	 * Method to book a seat on a flight for a customer.
+	 *
+	 * @param cid the customer id
+	 * @param fnum the flight number
+	 * @param allowWaitlist whether to waitlist the customer when the flight is full
+	 * @return the outcome and the reservation number created, if any
+	 * @throws java.sql.SQLException when the booking fails for a reason other than a full flight or a missing key
+	 */
+	public Result book(int cid, int fnum, boolean allowWaitlist) throws SQLException {
+		return book(cid, fnum, allowWaitlist, this._procedure);
+	}
+
+	/**
+	 * Method to book a seat on a flight for a customer with a chosen
+	 * implementation, e.g. to compare them.
+	 *
+	 * @param cid the customer id
+	 * @param fnum the flight number
+	 * @param allowWaitlist whether to waitlist the customer when the flight is full
+	 * @param procedure whether to call book_flight instead of running the booking statement, not allowed with shards
+	 * @return the outcome and the reservation number created, if any
+	 * @throws java.sql.SQLException when the booking fails for a reason other than a full flight or a missing key
+	 */
+	public Result book(int cid, int fnum, boolean allowWaitlist, boolean procedure) throws SQLException {
+		if (procedure && this._db.getShardRouter() != null) {
+			throw new IllegalStateException("book_flight cannot be used with airline.shards: reservation numbers would repeat across shards");
+		}
+		ReentrantLock stripe = this._stripes[Math.floorMod(fnum, this._stripes.length)];
+		for (int attempt = 0; ; attempt++) {
+			stripe.lock();
+			try {
+				return procedure ? callProcedure(cid, fnum, allowWaitlist) : attempt(cid, fnum, allowWaitlist);
+			}catch (SQLException e) {
+				if (FOREIGN_KEY_VIOLATION.equals(e.getSQLState())) {
+					// the reservation references a flight or customer that does not exist.
+					return new Result(flightExists(fnum) ? Outcome.NO_SUCH_CUSTOMER : Outcome.NO_SUCH_FLIGHT, -1);
+				}
+				if (attempt >= this._maxRetries || !isTransient(e)) {
+					throw e;
+				}
+				this._retries.incrementAndGet();
+			}finally {
+				stripe.unlock();
+			}
+		}
+	}//end book
+
+	private Result attempt(int cid, int fnum, boolean allowWaitlist) throws SQLException {
+		// reserves the id before borrowing, a new id block needs a connection of its own.
+		int rnum = this._db.getIdGenerator().next(IdGenerator.RESERVATION);
+		PooledConnection conn = this._db.getConnection(fnum);
+		try {
+			ResultSet rs = conn.prepare(BOOK, fnum, rnum, cid, fnum, allowWaitlist).executeQuery();
+			try {
+				if (rs.next()) {
+					if ("R".equals(rs.getString(1).trim())) {
+						// still under the stripe lock, so writes of one flight reach the cache in order.
+						this._db.getSeatCache().put(fnum, rs.getInt(2));
+						this._reserved.incrementAndGet();
+						return new Result(Outcome.RESERVED, rnum);
+					}
+					this._db.getSeatCache().invalidate(fnum);
+					this._waitlisted.incrementAndGet();
+					return new Result(Outcome.WAITLISTED, rnum);
+				}
+			}finally {
+				rs.close();
+			}
+		}finally {
+			conn.close();
+		}
+
+		// nothing was inserted: the flight is either full or unknown.
+		this._db.getSeatCache().invalidate(fnum);
+		if (!flightExists(fnum)) {
+			return new Result(Outcome.NO_SUCH_FLIGHT, -1);
+		}
+		this._soldOut.incrementAndGet();
+		return new Result(Outcome.SOLD_OUT, -1);
+	}//end attempt
+
+	private Result callProcedure(int cid, int fnum, boolean allowWaitlist) throws SQLException {
+		Outcome outcome;
+		int rnum;
+		Integer seatsLeft;
+		PooledConnection conn = this._db.getConnection(fnum);
+		try {
+			ResultSet rs = conn.prepare(BOOK_PROCEDURE, cid, fnum, allowWaitlist).executeQuery();
+			try {
+				rs.next();
+				outcome = Outcome.valueOf(rs.getString(1));
+				rnum = rs.getInt(2);
+				int value = rs.getInt(3);
+				seatsLeft = rs.wasNull() ? null : value;
+			}finally {
+				rs.close();
+			}
+		}finally {
+			conn.close();
+		}
+
+		// still under the stripe lock, so writes of one flight reach the cache in order.
+		if (outcome == Outcome.RESERVED && seatsLeft != null) {
+			this._db.getSeatCache().put(fnum, seatsLeft);
+		}
+		else {
+			this._db.getSeatCache().invalidate(fnum);
+		}
+		switch (outcome) {
+			case RESERVED:
+				this._reserved.incrementAndGet();
+				break;
+			case WAITLISTED:
+				this._waitlisted.incrementAndGet();
+				break;
+			case SOLD_OUT:
+				this._soldOut.incrementAndGet();
+				break;
+			default:
+				break;
+		}
+		return new Result(outcome, rnum);
+	}//end callProcedure
+
+	/**
+	 * Method to cancel a reservation.  When it held a seat, the head of the
+	 * flight's waitlist is promoted to 'R' in the same transaction, or the
+	 * seat is given back to the flight when nobody is waiting.
+	 *
+	 * @param rnum the reservation number
+	 * @return what was cancelled and promoted, or null when the reservation does not exist
+	 * @throws java.sql.SQLException when the cancellation fails
+	 */
+	public Cancellation cancel(int rnum) throws SQLException {
+		for (int attempt = 0; ; attempt++) {
+			// a reservation never changes flight, so its stripe can be chosen before locking.
+			List<Reservation> found = this._db.queryForListAcrossShards(RESERVATION_BY_NUMBER, Reservation.MAPPER, rnum);
+			if (found.isEmpty()) {
+				return null;
+			}
+			int fnum = found.get(0).fid;
+			Date departure = Date.valueOf(found.get(0).departureDate);
+			ReentrantLock stripe = this._stripes[Math.floorMod(fnum, this._stripes.length)];
+			stripe.lock();
+			try {
+				Cancellation result = cancel(rnum, fnum, departure);
+				if (result == null) {
+					continue; // cancelled by someone else meanwhile; look again.
+				}
+				return result;
+			}catch (SQLException e) {
+				if (attempt >= this._maxRetries || !isTransient(e)) {
+					throw e;
+				}
+				this._retries.incrementAndGet();
+			}finally {
+				stripe.unlock();
+			}
+		}
+	}//end cancel
+
+	private Cancellation cancel(int rnum, int fnum, Date departure) throws SQLException {
+		PooledConnection conn = this._db.getConnection(fnum);
+		try {
+			Connection c = conn.getConnection();
+			c.setAutoCommit(false);
+			ResultSet rs = conn.prepare(LOCK_FLIGHT, fnum).executeQuery();
+			Integer seatsLeft = null;
+			try {
+				if (rs.next()) {
+					int value = rs.getInt(1);
+					seatsLeft = rs.wasNull() ? null : value;
+				}
+			}finally {
+				rs.close();
+			}
+
+			char status;
+			rs = conn.prepare(DELETE_RESERVATION, rnum, fnum, departure).executeQuery();
+			try {
+				if (!rs.next()) {
+					return null;
+				}
+				status = rs.getString(1).charAt(0);
+			}finally {
+				rs.close();
+			}
+
+			int promoted = -1;
+			if (status != 'W') {
+				rs = conn.prepare(PROMOTE_HEAD, departure, fnum, departure).executeQuery();
+				try {
+					if (rs.next()) {
+						promoted = rs.getInt(1);
+					}
+				}finally {
+					rs.close();
+				}
+				if (promoted < 0 && conn.prepare(RELEASE_SEAT, fnum).executeUpdate() > 0 && seatsLeft != null) {
+					seatsLeft = seatsLeft + 1;
+				}
+			}
+			c.commit();
+
+			// still under the stripe lock, so writes of one flight reach the cache in order.
+			if (seatsLeft != null) {
+				this._db.getSeatCache().put(fnum, seatsLeft);
+			}
+			else {
+				this._db.getSeatCache().invalidate(fnum);
+			}
+			this._cancelled.incrementAndGet();
+			if (promoted >= 0) {
+				this._promoted.incrementAndGet();
+			}
+			return new Cancellation(rnum, fnum, status, promoted);
+		}finally {
+			// gives the connection back, rolling back whatever was not committed.
+			conn.close();
+		}
+	}
+
+	private boolean flightExists(int fnum) throws SQLException {
+		PooledConnection conn = this._db.getConnection(fnum);
+		try {
+			ResultSet rs = conn.prepare(FLIGHT_EXISTS, fnum).executeQuery();
+			try {
+				return rs.next();
+			}finally {
+				rs.close();
+			}
+		}finally {
+			conn.close();
+		}
+	}
+
+	static boolean isTransient(SQLException e) {
+		String state = e.getSQLState();
+		return UNIQUE_VIOLATION.equals(state) || SERIALIZATION_FAILURE.equals(state) || DEADLOCK_DETECTED.equals(state);
+	}
+
+	public long getReservedCount() {
+		return this._reserved.get();
+	}
+
+	public long getWaitlistedCount() {
+		return this._waitlisted.get();
+	}
+
+	public long getSoldOutCount() {
+		return this._soldOut.get();
+	}
+
+	public long getCancelledCount() {
+		return this._cancelled.get();
+	}
+
+	public long getPromotedCount() {
+		return this._promoted.get();
+	}
+
+	public long getRetryCount() {
+		return this._retries.get();
+	}
+}
@@ -0,0 +1,156 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class drives a running BookingServer with many concurrent clients and
+ * reports the latency percentiles and throughput.  Each client loops for the
+ * given duration, asking for the free seats of a random flight and, for
+ * airline.load.bookingPercent percent of its requests (10 by default),
+ * booking a random customer onto it.  Bookings change the data, so point it
+ * at a scratch database.
+ *
+ *   java -cp bin/ ServerLoadTest <base url> <clients> <seconds> <max fnum> <max cid>
+ *
+ */
+
+public class ServerLoadTest {
+	private final String _base;
+	private final int _maxFnum;
+	private final int _maxCid;
+	private final int _bookingPercent;
+
+	private final LatencyHistogram _reads = new LatencyHistogram();
+	private final LatencyHistogram _bookings = new LatencyHistogram();
+	private final AtomicLong _rejected = new AtomicLong();
+	private final AtomicLong _failed = new AtomicLong();
+
+	public ServerLoadTest(String base, int maxFnum, int maxCid, int bookingPercent) {
+		this._base = base.endsWith("/") ? base.substring(0, base.length() - 1) : base;
+		this._maxFnum = maxFnum;
+		this._maxCid = maxCid;
+		this._bookingPercent = bookingPercent;
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length != 5) {
+			System.err.println("Usage: java [-classpath <classpath>] " + ServerLoadTest.class.getName() +
+				" <base url> <clients> <seconds> <max fnum> <max cid>");
+			return;
+		}
+		int clients = Integer.parseInt(args[1]);
+		// keeps one connection alive per client instead of the default five.
+		System.setProperty("http.maxConnections", String.valueOf(clients));
+
+		ServerLoadTest test = new ServerLoadTest(args[0], Integer.parseInt(args[3]), Integer.parseInt(args[4]),
+			Integer.getInteger("airline.load.bookingPercent", 10));
+		double seconds = test.run(clients, Integer.parseInt(args[2]) * 1000L);
+
+		long total = test._reads.getCount() + test._bookings.getCount();
+		System.out.println(String.format("%d clients, %.1f s, %d requests, %.0f requests/sec, %d rejected (503), %d failed",
+			clients, seconds, total, total / seconds, test._rejected.get(), test._failed.get()));
+		System.out.println("seats    " + test._reads);
+		System.out.println("bookings " + test._bookings);
+	}
+
+	/**
+	 * Method to run the clients until the duration has passed.
+	 *
+	 * @param clients the number of concurrent clients
+	 * @param durationMillis how long each client keeps sending
+	 * @return the elapsed time in seconds
+	 * @throws java.lang.InterruptedException when interrupted while waiting for the clients
+	 */
+	public double run(int clients, final long durationMillis) throws InterruptedException {
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(clients);
+		for (int i = 0; i < clients; i++) {
+			final Random random = new Random(i);
+			// small stacks so thousands of clients fit in memory.
+			Thread t = new Thread(null, new Runnable() {
+				public void run() {
+					try {
+						start.await();
+						long end = System.currentTimeMillis() + durationMillis;
+						while (System.currentTimeMillis() < end) {
+							request(random);
+						}
+					}catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}finally {
+						done.countDown();
+					}
+				}
+			}, "client-" + i, 256 * 1024);
+			t.setDaemon(true);
+			t.start();
+		}
+		long begin = System.nanoTime();
+		start.countDown();
+		done.await();
+		return (System.nanoTime() - begin) / 1e9;
+	}//end run
+
+	void request(Random random) {
+		int fnum = random.nextInt(this._maxFnum + 1);
+		boolean booking = random.nextInt(100) < this._bookingPercent;
+		long begin = System.nanoTime();
+		int status;
+		try {
+			if (booking) {
+				status = call("POST", "/bookings", new Json.ObjectWriter()
+					.field("cid", random.nextInt(this._maxCid + 1))
+					.field("fnum", fnum)
+					.field("allow_waitlist", true).toString());
+			}
+			else {
+				status = call("GET", "/flights/" + fnum + "/seats", null);
+			}
+		}catch (IOException e) {
+			this._failed.incrementAndGet();
+			return;
+		}
+		if (status == 503) {
+			this._rejected.incrementAndGet();
+			return;
+		}
+		if (status >= 500) {
+			this._failed.incrementAndGet();
+		}
+		(booking ? this._bookings : this._reads).recordSince(begin);
+	}
+
+	int call(String method, String path, String body) throws IOException {
+		HttpURLConnection http = (HttpURLConnection) new URL(this._base + path).openConnection();
+		http.setRequestMethod(method);
+		http.setConnectTimeout(10000);
+		http.setReadTimeout(30000);
+		if (body != null) {
+			http.setDoOutput(true);
+			http.setRequestProperty("Content-Type", "application/json");
+			OutputStream out = http.getOutputStream();
+			out.write(body.getBytes(StandardCharsets.UTF_8));
+			out.close();
+		}
+		int status = http.getResponseCode();
+		// the body is drained so the connection can be reused.
+		InputStream in = status < 400 ? http.getInputStream() : http.getErrorStream();
+		if (in != null) {
+			ByteArrayOutputStream ignored = new ByteArrayOutputStream();
+			byte[] buffer = new byte[1024];
+			int n;
+			while ((n = in.read(buffer)) > 0) {
+				ignored.write(buffer, 0, n);
+			}
+			in.close();
+		}
+		return status;
+	}
+}
@@ -0,0 +1,345 @@
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class spreads the flight inventory of a DBproject over several
+ * PostgreSQL nodes.  The database named on the command line is shard 0 and
+ * airline.shards lists the others as a comma separated host:port[/dbname]
+ * (the database name defaults to shard 0's).  Every node has the full
+ * schema:
+ *
+ *   Flight, FlightInfo, Schedule and Reservation rows live on the shard of
+ *   their flight number, shardOf(fnum), so a booking, a cancellation or a
+ *   seat lookup touches one node;
+ *   Repairs rows live on the shard of their plane, shardOf(plane_id);
+ *   Customer, Plane, Pilot and Technician are copied to every node, so the
+ *   joins and foreign keys of a shard stay local;
+ *   the id sequences and everything else are used on shard 0 only.
+ *
+ * A flight number is hashed before taking it modulo the shard count, so
+ * consecutive numbers spread evenly.  Reports over many flights or all
+ * repairs run on every shard at once (scatter) and their results are
+ * combined by the caller (gather).  The placement only holds for a fixed
+ * number of shards: moving to another count means loading and pruning
+ * again.
+ *
+ * To shard an existing database, load the same data into every node and
+ * prune the rows each node does not own:
+ *
+ *   java -cp lib/*:bin/ ShardRouter <dbname> <port> <user> <host:port[/dbname],...> [check|prune]
+ *
+ */
+
+public class ShardRouter {
+	//rows of a shard that belong to another one, by flight number or plane
+	static final String REPAIRED_PLANES = "SELECT DISTINCT plane_id FROM Repairs";
+	static final String[] PRUNE_FLIGHTS = {
+		"DELETE FROM Reservation WHERE fid = ANY(?)",
+		"DELETE FROM Schedule WHERE flightNum = ANY(?)",
+		"DELETE FROM FlightInfo WHERE flight_id = ANY(?)",
+		"DELETE FROM Flight WHERE fnum = ANY(?)"
+	};
+	static final String PRUNE_REPAIRS = "DELETE FROM Repairs WHERE plane_id = ANY(?)";
+
+	/**
+	 * A piece of work run on one shard.
+	 */
+	public interface Task<T> {
+		T run(int shard, ConnectionPool pool) throws SQLException;
+	}
+
+	private final String[] _addresses;
+	private final ConnectionPool[] _pools;
+	private final ExecutorService _workers;
+
+	//statistics
+	private final AtomicLong[] _routed;
+	private final AtomicLong _scatters = new AtomicLong();
+
+	public ShardRouter(ConnectionPool home, String homeAddress, List<String> addresses, String dbname, String user, String passwd,
+			int threads) throws SQLException {
+		int count = addresses.size() + 1;
+		this._addresses = new String[count];
+		this._pools = new ConnectionPool[count];
+		this._routed = new AtomicLong[count];
+		this._addresses[0] = homeAddress;
+		this._pools[0] = home;
+		try {
+			for (int i = 1; i < count; i++) {
+				String address = addresses.get(i - 1).trim();
+				String database = dbname;
+				int slash = address.indexOf('/');
+				if (slash >= 0) {
+					database = address.substring(slash + 1);
+					address = address.substring(0, slash);
+				}
+				this._addresses[i] = address;
+				// every shard is needed, so one that is down fails here like shard 0 would.
+				this._pools[i] = ConnectionPool.fromSystemProperties("jdbc:postgresql://" + address + "/" + database +
+					"?reWriteBatchedInserts=true", user, passwd);
+			}
+		}catch (SQLException e) {
+			for (int i = 1; i < count; i++) {
+				if (this._pools[i] != null) {
+					this._pools[i].close();
+				}
+			}
+			throw e;
+		}
+		for (int i = 0; i < count; i++) {
+			this._routed[i] = new AtomicLong();
+		}
+		this._workers = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			private final AtomicInteger _count = new AtomicInteger();
+
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "shard-worker-" + this._count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Method to create the router configured by airline.shards and
+	 * airline.shard.threads (default 4 per remote shard).
+	 *
+	 * @param home the pool of shard 0
+	 * @param homeAddress the host:port of shard 0, for the statistics
+	 * @param dbname the database name used for shards that do not give one
+	 * @param user the database user
+	 * @param passwd the database password
+	 * @return the router, or null when airline.shards is not set
+	 * @throws java.sql.SQLException when a shard cannot be connected to
+	 */
+	public static ShardRouter fromSystemProperties(ConnectionPool home, String homeAddress, String dbname, String user, String passwd) throws SQLException {
+		String shards = System.getProperty("airline.shards", "").trim();
+		if (shards.isEmpty()) {
+			return null;
+		}
+		List<String> addresses = new ArrayList<String>();
+		for (String address : shards.split(",")) {
+			if (!address.trim().isEmpty()) {
+				addresses.add(address.trim());
+			}
+		}
+		return new ShardRouter(home, homeAddress, addresses, dbname, user, passwd,
+			Integer.getInteger("airline.shard.threads", 4 * Math.max(1, addresses.size())));
+	}
+
+	public int getShardCount() {
+		return this._pools.length;
+	}
+
+	/**
+	 * Method to return the shard that owns a flight number, or a plane for
+	 * Repairs.
+	 *
+	 * @param key the flight number or plane id
+	 * @return the shard, from 0 to getShardCount() - 1
+	 */
+	public int shardOf(int key) {
+		return shardOf(key, this._pools.length);
+	}
+
+	static int shardOf(int key, int shards) {
+		// the murmur3 finalizer: every bit of the key moves the result.
+		int h = key;
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return Math.floorMod(h, shards);
+	}
+
+	/**
+	 * Method to return the pool of the shard that owns a flight number.
+	 *
+	 * @param fnum the flight number
+	 * @return the pool of its shard
+	 */
+	public ConnectionPool poolOf(int fnum) {
+		int shard = shardOf(fnum);
+		this._routed[shard].incrementAndGet();
+		return this._pools[shard];
+	}
+
+	public ConnectionPool getPool(int shard) {
+		return this._pools[shard];
+	}
+
+	/**
+	 * Method to run a task on every shard at once and wait for all of them.
+	 * The calling thread runs shard 0's part itself.
+	 *
+	 * @param task the work, given each shard and its pool
+	 * @return the result of each shard, by shard
+	 * @throws java.sql.SQLException when the task fails on any shard, the first such error
+	 */
+	public <T> List<T> scatter(final Task<T> task) throws SQLException {
+		this._scatters.incrementAndGet();
+		List<Future<T>> futures = new ArrayList<Future<T>>(this._pools.length);
+		for (int i = 1; i < this._pools.length; i++) {
+			final int shard = i;
+			futures.add(this._workers.submit(new Callable<T>() {
+				public T call() throws SQLException {
+					return task.run(shard, ShardRouter.this._pools[shard]);
+				}
+			}));
+		}
+		List<T> results = new ArrayList<T>(this._pools.length);
+		SQLException failure = null;
+		try {
+			results.add(task.run(0, this._pools[0]));
+		}catch (SQLException e) {
+			failure = e;
+			results.add(null);
+		}
+		// waits for every shard even after a failure, so none is still running on return.
+		for (Future<T> future : futures) {
+			try {
+				results.add(future.get());
+			}catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof RuntimeException) {
+					throw (RuntimeException) cause;
+				}
+				if (cause instanceof Error) {
+					throw (Error) cause;
+				}
+				SQLException error = cause instanceof SQLException ? (SQLException) cause : new SQLException(cause);
+				if (failure == null) {
+					failure = error;
+				}
+				else {
+					failure.addSuppressed(error);
+				}
+				results.add(null);
+			}catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				for (Future<T> other : futures) {
+					other.cancel(true);
+				}
+				throw new SQLException("Interrupted while waiting for the shards", e);
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+		return results;
+	}//end scatter
+
+	/**
+	 * Method to summarize the shards on one line.
+	 *
+	 * @return the statistics
+	 */
+	public String getStats() {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < this._pools.length; i++) {
+			sb.append(String.format("%d:%s routed=%d active=%d, ", i, this._addresses[i], this._routed[i].get(),
+				this._pools[i].getActiveCount()));
+		}
+		return sb.append("scatters=").append(this._scatters.get()).toString();
+	}
+
+	/**
+	 * Method to stop the workers and close the pools of the shards other
+	 * than shard 0, which belongs to DBproject.
+	 */
+	public void close() {
+		this._workers.shutdownNow();
+		for (int i = 1; i < this._pools.length; i++) {
+			this._pools[i].close();
+		}
+	}
+
+	/**
+	 * Method to count, or delete, the rows of a shard that belong to another
+	 * shard: flights with their FlightInfo, Schedule and Reservation rows,
+	 * and repairs of planes placed elsewhere.  Deletes run in one
+	 * transaction.
+	 *
+	 * @param shard the shard
+	 * @param delete whether to delete the rows or only count them
+	 * @return {flights kept, flights misplaced, planes with repairs misplaced}
+	 * @throws java.sql.SQLException when the rows cannot be read or deleted
+	 */
+	int[] prune(int shard, boolean delete) throws SQLException {
+		PooledConnection conn = this._pools[shard].borrow();
+		try {
+			IntColumn flights = new IntColumn();
+			int kept = misplaced(conn, Queries.FLIGHT_NUMBERS, shard, flights);
+			IntColumn planes = new IntColumn();
+			misplaced(conn, REPAIRED_PLANES, shard, planes);
+			if (delete) {
+				Connection c = conn.getConnection();
+				c.setAutoCommit(false);
+				for (String sql : PRUNE_FLIGHTS) {
+					conn.prepare(sql, (Object) flights.toArray()).executeUpdate();
+				}
+				conn.prepare(PRUNE_REPAIRS, (Object) planes.toArray()).executeUpdate();
+				c.commit();
+			}
+			return new int[] {kept, flights.size(), planes.size()};
+		} finally {
+			// gives the connection back, rolling back whatever was not committed.
+			conn.close();
+		}
+	}//end prune
+
+	//collects the keys returned by sql that another shard owns and counts the others
+	private int misplaced(PooledConnection conn, String sql, int shard, IntColumn keys) throws SQLException {
+		int kept = 0;
+		ResultSet rs = conn.prepare(sql).executeQuery();
+		try {
+			while (rs.next()) {
+				int key = rs.getInt(1);
+				if (shardOf(key) != shard) {
+					keys.add(key);
+				}
+				else {
+					kept++;
+				}
+			}
+		} finally {
+			rs.close();
+		}
+		return kept;
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 4 || (args.length > 4 && !args[4].equals("check") && !args[4].equals("prune"))) {
+			System.err.println("Usage: java [-classpath <classpath>] " + ShardRouter.class.getName() +
+				" <dbname> <port> <user> <host:port[/dbname],...> [check|prune]");
+			return;
+		}
+		System.setProperty("airline.shards", args[3]);
+		boolean delete = args.length > 4 && args[4].equals("prune");
+		Class.forName("org.postgresql.Driver");
+		DBproject esql = new DBproject(args[0], args[1], args[2], "");
+		try {
+			ShardRouter shards = esql.getShardRouter();
+			System.out.println(String.format("%5s %-24s %10s %12s %18s", "shard", "address", "flights", "misplaced",
+				delete ? "planes pruned" : "planes misplaced"));
+			for (int i = 0; i < shards.getShardCount(); i++) {
+				int[] counts = shards.prune(i, delete);
+				System.out.println(String.format("%5d %-24s %10d %12d %18d", i, shards._addresses[i], counts[0], counts[1], counts[2]));
+			}
+		} finally {
+			esql.cleanup();
+		}
+	}
+}
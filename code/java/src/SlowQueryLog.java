@@ -0,0 +1,404 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * This class times every statement DBproject runs, grouped by query shape
+ * (the SQL with literals replaced by '?' and whitespace collapsed).  A
+ * statement slower than airline.slowQuery.thresholdMs (default 100, a
+ * negative value turns the log off) is appended with its parameters to
+ * airline.slowQuery.file (default slow-queries.log) as one JSON line.  A
+ * fraction airline.slowQuery.explainSample (default 0.1) of slow
+ * statements is explained in the background, on the pool the statement
+ * ran on (a replica or a shard), and the plan is logged too, at most once
+ * per shape every airline.slowQuery.explainIntervalMs (default 60000).
+ * Reads are re-run under EXPLAIN (ANALYZE, BUFFERS) in a read-only
+ * transaction that is rolled back.  INSERT, UPDATE, DELETE and WITH
+ * queries that contain them are only planned with EXPLAIN, as are reads
+ * the read-only transaction refuses because a function they call writes,
+ * so a slow write never runs twice.
+ *
+ * summary() ranks the shapes seen by this process by total time.  Run this
+ * class on a log file to rank the slow statements it recorded:
+ *
+ *   java -cp bin/ SlowQueryLog [slow-queries.log] [top]
+ *
+ */
+
+public class SlowQueryLog {
+	static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^']|'')*'");
+	static final Pattern NUMBER_LITERAL = Pattern.compile("(?<![\\w$])-?\\d+(?:\\.\\d+)?");
+	static final Pattern WHITESPACE = Pattern.compile("\\s+");
+	static final Pattern EXPLAINABLE = Pattern.compile("^\\s*(SELECT|INSERT|UPDATE|DELETE|WITH|VALUES)\\b", Pattern.CASE_INSENSITIVE);
+	//statements that write, which are planned but never executed again
+	static final Pattern WRITES = Pattern.compile("^\\s*(INSERT|UPDATE|DELETE)\\b|^\\s*WITH\\b.*\\b(INSERT|UPDATE|DELETE)\\b",
+		Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+	//the SQLSTATE of a write refused by a read-only transaction
+	static final String READ_ONLY_TRANSACTION = "25006";
+	//distinct SQL strings remembered before shapes are recomputed on every call
+	static final int MAX_CACHED_SQL = 10000;
+
+	/**
+	 * The timings of one query shape.
+	 */
+	static final class Shape {
+		final String shape;
+		final AtomicLong calls = new AtomicLong();
+		final AtomicLong totalNanos = new AtomicLong();
+		final AtomicLong maxNanos = new AtomicLong();
+		final AtomicLong slow = new AtomicLong();
+		volatile long lastExplainMillis = 0;
+
+		Shape(String shape) {
+			this.shape = shape;
+		}
+
+		void add(long nanos, boolean isSlow) {
+			this.calls.incrementAndGet();
+			this.totalNanos.addAndGet(nanos);
+			long max;
+			while (nanos > (max = this.maxNanos.get()) && !this.maxNanos.compareAndSet(max, nanos)) {
+				// retry until the maximum is published.
+			}
+			if (isSlow) {
+				this.slow.incrementAndGet();
+			}
+		}
+	}
+
+	private final long _thresholdNanos;
+	private final double _explainSample;
+	private final long _explainIntervalMillis;
+	private final File _file;
+	private final ConcurrentHashMap<String, Shape> _bySql = new ConcurrentHashMap<String, Shape>();
+	private final ConcurrentHashMap<String, Shape> _byShape = new ConcurrentHashMap<String, Shape>();
+	//runs the EXPLAINs; when it is busy further samples are dropped
+	private final ThreadPoolExecutor _explainer;
+	private Writer _out = null;
+
+	public SlowQueryLog(long thresholdMillis, double explainSample, long explainIntervalMillis, File file) {
+		this._thresholdNanos = thresholdMillis < 0 ? Long.MAX_VALUE : thresholdMillis * 1000000L;
+		this._explainSample = explainSample;
+		this._explainIntervalMillis = explainIntervalMillis;
+		this._file = file;
+		this._explainer = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(16),
+			new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "slow-query-explain");
+					t.setDaemon(true);
+					return t;
+				}
+			}, new ThreadPoolExecutor.DiscardPolicy());
+	}
+
+	/**
+	 * Method to create the log configured by the airline.slowQuery.* system
+	 * properties.
+	 *
+	 * @return the slow query log
+	 */
+	public static SlowQueryLog fromSystemProperties() {
+		return new SlowQueryLog(
+			Long.getLong("airline.slowQuery.thresholdMs", 100L),
+			Double.parseDouble(System.getProperty("airline.slowQuery.explainSample", "0.1")),
+			Long.getLong("airline.slowQuery.explainIntervalMs", 60000L),
+			new File(System.getProperty("airline.slowQuery.file", "slow-queries.log")));
+	}
+
+	/**
+	 * Method to normalize a statement into its shape: literals become '?'
+	 * and runs of whitespace a single space.
+	 *
+	 * @param sql the statement text
+	 * @return the shape
+	 */
+	static String shapeOf(String sql) {
+		String shape = STRING_LITERAL.matcher(sql).replaceAll("?");
+		shape = NUMBER_LITERAL.matcher(shape).replaceAll("?");
+		return WHITESPACE.matcher(shape).replaceAll(" ").trim();
+	}
+
+	private Shape shape(String sql) {
+		Shape shape = this._bySql.get(sql);
+		if (shape != null) {
+			return shape;
+		}
+		String normalized = shapeOf(sql);
+		shape = this._byShape.get(normalized);
+		if (shape == null) {
+			Shape created = new Shape(normalized);
+			shape = this._byShape.putIfAbsent(normalized, created);
+			if (shape == null) {
+				shape = created;
+			}
+		}
+		if (this._bySql.size() < MAX_CACHED_SQL) {
+			this._bySql.put(sql, shape);
+		}
+		return shape;
+	}
+
+	/**
+	 * Method to record one execution of a statement, logging it when it was
+	 * slow and sampling it for an EXPLAIN.
+	 *
+	 * @param pool the pool the statement ran on
+	 * @param sql the statement text
+	 * @param params the values bound to its placeholders
+	 * @param startNanos System.nanoTime() when the statement started
+	 * @param rows the rows returned or affected, negative when it failed
+	 */
+	public void observe(final ConnectionPool pool, String sql, Object[] params, long startNanos, long rows) {
+		long nanos = System.nanoTime() - startNanos;
+		boolean isSlow = nanos >= this._thresholdNanos;
+		Shape shape = shape(sql);
+		shape.add(nanos, isSlow);
+		if (!isSlow) {
+			return;
+		}
+
+		log(new Json.ObjectWriter()
+			.field("time", Instant.now().toString())
+			.field("ms", nanos / 1e6)
+			.field("rows", rows)
+			.field("shape", shape.shape)
+			.field("sql", sql)
+			.field("params", render(params))
+			.toString());
+
+		long now = System.currentTimeMillis();
+		if (ThreadLocalRandom.current().nextDouble() < this._explainSample
+				&& now - shape.lastExplainMillis >= this._explainIntervalMillis
+				&& EXPLAINABLE.matcher(sql).find()) {
+			shape.lastExplainMillis = now;
+			final String text = sql;
+			final Object[] values = params.clone();
+			final String key = shape.shape;
+			this._explainer.execute(new Runnable() {
+				public void run() {
+					explain(pool, key, text, values);
+				}
+			});
+		}
+	}//end observe
+
+	/**
+	 * Method to explain a statement on the pool it ran on and log the plan:
+	 * reads under EXPLAIN (ANALYZE, BUFFERS) in a read-only transaction that
+	 * is always rolled back, writes under plain EXPLAIN.
+	 */
+	void explain(ConnectionPool pool, String shape, String sql, Object[] params) {
+		try {
+			boolean analyze = !WRITES.matcher(sql).find();
+			String plan;
+			try {
+				plan = plan(pool, sql, params, analyze);
+			}catch (SQLException e) {
+				if (!analyze || !READ_ONLY_TRANSACTION.equals(e.getSQLState())) {
+					throw e;
+				}
+				// a function the statement calls writes: plan it without running it.
+				analyze = false;
+				plan = plan(pool, sql, params, false);
+			}
+			log(new Json.ObjectWriter()
+				.field("time", Instant.now().toString())
+				.field("shape", shape)
+				.field("params", render(params))
+				.field("analyzed", analyze)
+				.field("plan", plan)
+				.toString());
+		}catch (SQLException e) {
+			log(new Json.ObjectWriter()
+				.field("time", Instant.now().toString())
+				.field("shape", shape)
+				.field("explain_error", e.getMessage())
+				.toString());
+		}
+	}//end explain
+
+	private static String plan(ConnectionPool pool, String sql, Object[] params, boolean analyze) throws SQLException {
+		PooledConnection conn = pool.borrow();
+		try {
+			Connection c = conn.getConnection();
+			c.setAutoCommit(false);
+			try {
+				Statement setup = c.createStatement();
+				try {
+					if (analyze) {
+						setup.execute("SET TRANSACTION READ ONLY");
+					}
+					setup.execute("SET LOCAL statement_timeout = '30s'");
+				} finally {
+					setup.close();
+				}
+				StringBuilder plan = new StringBuilder();
+				// one-off, so it stays out of the statement cache and does not evict the hot statements.
+				PreparedStatement stmt = c.prepareStatement((analyze ? "EXPLAIN (ANALYZE, BUFFERS) " : "EXPLAIN ") + sql);
+				try {
+					conn.bind(stmt, params);
+					ResultSet rs = stmt.executeQuery();
+					try {
+						while (rs.next()) {
+							plan.append(rs.getString(1)).append('\n');
+						}
+					} finally {
+						rs.close();
+					}
+				} finally {
+					stmt.close();
+				}
+				return plan.toString();
+			} finally {
+				c.rollback();
+			}
+		} finally {
+			conn.close();
+		}
+	}
+
+	static String render(Object[] params) {
+		StringBuilder sb = new StringBuilder("[");
+		for (int i = 0; i < params.length; i++) {
+			if (i > 0) {
+				sb.append(", ");
+			}
+			Object p = params[i];
+			sb.append(p instanceof int[] ? Arrays.toString((int[]) p) : String.valueOf(p));
+		}
+		return sb.append(']').toString();
+	}
+
+	private synchronized void log(String line) {
+		try {
+			if (this._out == null) {
+				this._out = new OutputStreamWriter(new FileOutputStream(this._file, true), StandardCharsets.UTF_8);
+			}
+			this._out.write(line);
+			this._out.write('\n');
+			this._out.flush();
+		}catch (IOException e) {
+			System.err.println("Slow query log: unable to write " + this._file + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Method to rank the query shapes seen by this process by total time.
+	 *
+	 * @param top the number of shapes listed
+	 * @return the ranking as a table
+	 */
+	public String summary(int top) {
+		List<Shape> shapes = new ArrayList<Shape>(this._byShape.values());
+		Collections.sort(shapes, new Comparator<Shape>() {
+			public int compare(Shape a, Shape b) {
+				return Long.compare(b.totalNanos.get(), a.totalNanos.get());
+			}
+		});
+		StringBuilder sb = new StringBuilder(header());
+		for (int i = 0; i < shapes.size() && i < top; i++) {
+			Shape s = shapes.get(i);
+			sb.append(line(i + 1, s.calls.get(), s.totalNanos.get() / 1e6, s.maxNanos.get() / 1e6, s.slow.get(), s.shape));
+		}
+		return sb.toString();
+	}
+
+	static String header() {
+		return String.format("%4s %10s %12s %10s %10s %8s  %s%n", "rank", "calls", "total(ms)", "mean(ms)", "max(ms)", "slow", "query shape");
+	}
+
+	static String line(int rank, long calls, double totalMs, double maxMs, long slow, String shape) {
+		return String.format("%4d %10d %12.1f %10.3f %10.3f %8d  %s%n", rank, calls, totalMs,
+			calls == 0 ? 0 : totalMs / calls, maxMs, slow, shape.length() > 120 ? shape.substring(0, 117) + "..." : shape);
+	}
+
+	/**
+	 * Method to stop the EXPLAIN thread and close the log file.
+	 */
+	public synchronized void close() {
+		this._explainer.shutdownNow();
+		if (this._out != null) {
+			try {
+				this._out.close();
+			}catch (IOException e) {
+				// ignored.
+			}
+			this._out = null;
+		}
+	}
+
+	/**
+	 * Ranks the slow statements of a log file by total time.
+	 */
+	public static void main(String[] args) throws IOException {
+		String file = args.length > 0 ? args[0] : "slow-queries.log";
+		int top = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+		Map<String, double[]> shapes = new LinkedHashMap<String, double[]>();
+		BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				Map<String, Object> entry;
+				try {
+					entry = Json.parseObject(line);
+				}catch (IllegalArgumentException e) {
+					continue;
+				}
+				Object ms = entry.get("ms");
+				if (!(ms instanceof Number)) {
+					continue; // a plan or an EXPLAIN error.
+				}
+				double[] totals = shapes.get((String) entry.get("shape"));
+				if (totals == null) {
+					totals = new double[3];
+					shapes.put((String) entry.get("shape"), totals);
+				}
+				double value = ((Number) ms).doubleValue();
+				totals[0]++;
+				totals[1] += value;
+				totals[2] = Math.max(totals[2], value);
+			}
+		} finally {
+			in.close();
+		}
+
+		List<Map.Entry<String, double[]>> ranked = new ArrayList<Map.Entry<String, double[]>>(shapes.entrySet());
+		Collections.sort(ranked, new Comparator<Map.Entry<String, double[]>>() {
+			public int compare(Map.Entry<String, double[]> a, Map.Entry<String, double[]> b) {
+				return Double.compare(b.getValue()[1], a.getValue()[1]);
+			}
+		});
+		System.out.print(header());
+		for (int i = 0; i < ranked.size() && i < top; i++) {
+			double[] t = ranked.get(i).getValue();
+			System.out.print(line(i + 1, (long) t[0], t[1], t[2], (long) t[0], ranked.get(i).getKey()));
+		}
+	}
+}
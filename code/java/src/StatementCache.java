@@ -0,0 +1,96 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class keeps the prepared statements of one physical connection in a
+ * bounded LRU cache keyed by SQL text.  A statement is prepared the first
+ * time its SQL is seen and re-used afterwards, so PostgreSQL can keep its
+ * parsed form and plan instead of re-planning on every call.
+ *
+ */
+
+public class StatementCache {
+	//connection the cached statements belong to
+	private final Connection _connection;
+	//maximum number of statements kept open
+	private final int _capacity;
+	//statements in access order, least recently used first
+	private final LinkedHashMap<String, PreparedStatement> _statements;
+	private long _hits = 0;
+	private long _misses = 0;
+
+	public StatementCache(Connection connection, int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("Statement cache capacity must be positive: " + capacity);
+		}
+		this._connection = connection;
+		this._capacity = capacity;
+		this._statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true);
+	}
+
+	/**
+	 * Method to return the prepared statement for the given SQL, preparing it
+	 * on a cache miss.  When the cache is full the least recently used
+	 * statement is closed and dropped.
+	 *
+	 * @param sql the statement text with '?' placeholders
+	 * @return a prepared statement owned by this cache, do not close it
+	 * @throws java.sql.SQLException when the statement cannot be prepared
+	 */
+	public synchronized PreparedStatement prepare(String sql) throws SQLException {
+		PreparedStatement stmt = this._statements.get(sql);
+		if (stmt != null && !stmt.isClosed()) {
+			this._hits++;
+			return stmt;
+		}
+		this._misses++;
+		stmt = this._connection.prepareStatement(sql);
+		this._statements.put(sql, stmt);
+		evict();
+		return stmt;
+	}//end prepare
+
+	private void evict() {
+		Iterator<Map.Entry<String, PreparedStatement>> it = this._statements.entrySet().iterator();
+		while (this._statements.size() > this._capacity && it.hasNext()) {
+			PreparedStatement eldest = it.next().getValue();
+			it.remove();
+			try {
+				eldest.close();
+			}catch (SQLException e) {
+				// ignored.
+			}
+		}
+	}//end evict
+
+	public synchronized int size() {
+		return this._statements.size();
+	}
+
+	public synchronized long getHits() {
+		return this._hits;
+	}
+
+	public synchronized long getMisses() {
+		return this._misses;
+	}
+
+	/**
+	 * Method to close every cached statement.  The connection itself is left
+	 * open.
+	 */
+	public synchronized void close() {
+		for (PreparedStatement stmt : this._statements.values()) {
+			try {
+				stmt.close();
+			}catch (SQLException e) {
+				// ignored.
+			}
+		}
+		this._statements.clear();
+	}//end close
+}
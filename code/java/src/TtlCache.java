@@ -0,0 +1,150 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class is a bounded in-memory cache whose entries expire a fixed time
+ * after they were written.  When the cache is full the least recently used
+ * entry is dropped.  It keeps hit, miss and eviction counts so its
+ * effectiveness can be watched.
+ *
+ * A TTL of zero or less disables expiry; entries then leave only by LRU
+ * eviction or invalidation.
+ *
+ */
+
+public class TtlCache<K, V> {
+	/**
+	 * A cached value and the time it stops being served.
+	 */
+	private static final class Cached<V> {
+		final V value;
+		final long expiresAtNanos;
+
+		Cached(V value, long expiresAtNanos) {
+			this.value = value;
+			this.expiresAtNanos = expiresAtNanos;
+		}
+	}
+
+	//maximum number of entries kept
+	private final int _capacity;
+	//time an entry is served after it was written
+	private final long _ttlNanos;
+	//entries in access order, least recently used first
+	private final LinkedHashMap<K, Cached<V>> _entries;
+	private long _hits = 0;
+	private long _misses = 0;
+	private long _evictions = 0;
+	private long _expirations = 0;
+
+	public TtlCache(int capacity, long ttlMillis) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("Cache capacity must be positive: " + capacity);
+		}
+		this._capacity = capacity;
+		this._ttlNanos = ttlMillis * 1000000L;
+		this._entries = new LinkedHashMap<K, Cached<V>>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<K, Cached<V>> eldest) {
+				if (size() > TtlCache.this._capacity) {
+					TtlCache.this._evictions++;
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Method to return the cached value of a key.
+	 *
+	 * @param key the key
+	 * @return the value, or null when the key is not cached or has expired
+	 */
+	public synchronized V get(K key) {
+		Cached<V> entry = this._entries.get(key);
+		if (entry != null && this._ttlNanos > 0 && System.nanoTime() - entry.expiresAtNanos >= 0) {
+			this._entries.remove(key);
+			this._expirations++;
+			entry = null;
+		}
+		if (entry == null) {
+			this._misses++;
+			return null;
+		}
+		this._hits++;
+		return entry.value;
+	}//end get
+
+	/**
+	 * Method to cache a value, replacing any value cached for the key.  Use
+	 * it for values that are known to be current, e.g. written through.
+	 *
+	 * @param key the key
+	 * @param value the value, not null
+	 */
+	public synchronized void put(K key, V value) {
+		this._entries.put(key, new Cached<V>(value, System.nanoTime() + this._ttlNanos));
+	}
+
+	/**
+	 * Method to cache a value unless a live value is already cached.  Use it
+	 * for values read from the database, so that a read which started before
+	 * a write-through cannot overwrite the newer value.
+	 *
+	 * @param key the key
+	 * @param value the value, not null
+	 */
+	public synchronized void putIfAbsent(K key, V value) {
+		Cached<V> entry = this._entries.get(key);
+		if (entry == null || (this._ttlNanos > 0 && System.nanoTime() - entry.expiresAtNanos >= 0)) {
+			put(key, value);
+		}
+	}
+
+	/**
+	 * Method to drop the cached value of a key, e.g. when it changed in a way
+	 * the writer cannot compute.
+	 *
+	 * @param key the key
+	 */
+	public synchronized void invalidate(K key) {
+		this._entries.remove(key);
+	}
+
+	public synchronized void clear() {
+		this._entries.clear();
+	}
+
+	public synchronized int size() {
+		return this._entries.size();
+	}
+
+	public synchronized long getHits() {
+		return this._hits;
+	}
+
+	public synchronized long getMisses() {
+		return this._misses;
+	}
+
+	public synchronized long getEvictions() {
+		return this._evictions;
+	}
+
+	public synchronized long getExpirations() {
+		return this._expirations;
+	}
+
+	/**
+	 * Method to summarize the cache statistics for logs and the server.
+	 *
+	 * @return the statistics as text
+	 */
+	public synchronized String getStats() {
+		long lookups = this._hits + this._misses;
+		return String.format("size=%d/%d hits=%d misses=%d hitRatio=%.3f evictions=%d expirations=%d",
+			this._entries.size(), this._capacity, this._hits, this._misses,
+			lookups == 0 ? 0.0 : (double) this._hits / lookups, this._evictions, this._expirations);
+	}
+}
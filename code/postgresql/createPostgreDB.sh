@@ -9,4 +9,12 @@ cp ../data/*.csv /tmp/$USER/myDB/data/.
 
 echo "Initializing tables .. "
 sleep 1
-psql -h localhost -p $PGPORT $USER"_DB" < ../sql/create.sql
\ No newline at end of file
+psql -h localhost -p $PGPORT $USER"_DB" < ../sql/create.sql
+echo "Creating id sequences .. "
+psql -h localhost -p $PGPORT $USER"_DB" < ../sql/create_sequences.sql
+echo "Creating repair counters .. "
+psql -h localhost -p $PGPORT $USER"_DB" < ../sql/create_repair_counters.sql
+echo "Creating booking function .. "
+psql -h localhost -p $PGPORT $USER"_DB" < ../sql/create_booking_function.sql
+echo "Creating reference version .. "
+psql -h localhost -p $PGPORT $USER"_DB" < ../sql/create_reference_version.sql
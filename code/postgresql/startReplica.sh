@@ -0,0 +1,23 @@
+#! /bin/bash
+# Starts a hot standby of the database started by startPostgreSQL.sh,
+# streaming from it on port $PGPORT, to try the replica routing of the
+# reports: -Dairline.replicas=localhost:$REPLICA_PORT
+folder=/tmp/$USER
+export REPLICA_DATA=$folder/myReplica/data
+export REPLICA_SOCKETS=$folder/myReplica/sockets
+export REPLICA_PORT=${REPLICA_PORT:-7255}
+
+#Clear folder
+rm -rf $folder/myReplica
+
+#Initialize folders
+mkdir -p $REPLICA_DATA
+mkdir -p $REPLICA_SOCKETS
+chmod 700 $REPLICA_DATA
+
+#Copy the primary and write the standby settings (-R)
+pg_basebackup -h localhost -p $PGPORT -D $REPLICA_DATA -R -X stream
+
+sleep 1
+#Start the standby
+pg_ctl -o "-c unix_socket_directories=$REPLICA_SOCKETS -p $REPLICA_PORT -c hot_standby=on" -D $REPLICA_DATA -l $folder/replica_logfile start
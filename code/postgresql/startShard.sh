@@ -0,0 +1,24 @@
+#! /bin/bash
+# Starts one more database instance, on port $1 (default 7256), to hold a
+# shard of the flights.  Then create the tables in it with
+# PGPORT=<port> ./createPostgreDB.sh and prune it with ShardRouter.
+folder=/tmp/$USER
+SHARD_PORT=${1:-7256}
+SHARD_DATA=$folder/shard$SHARD_PORT/data
+SHARD_SOCKETS=$folder/shard$SHARD_PORT/sockets
+
+#Clear folder
+rm -rf $folder/shard$SHARD_PORT
+
+#Initialize folders
+mkdir -p $SHARD_DATA
+mkdir -p $SHARD_SOCKETS
+sleep 1
+
+#Initialize DB, with the csv files next to it for COPY
+initdb -D $SHARD_DATA
+cp ../data/*.csv $SHARD_DATA/.
+
+sleep 1
+#Start the instance
+pg_ctl -o "-c unix_socket_directories=$SHARD_SOCKETS -p $SHARD_PORT" -D $SHARD_DATA -l $folder/shard${SHARD_PORT}_logfile start
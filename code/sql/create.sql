@@ -79,17 +79,55 @@ CREATE TABLE Technician
 ---RELATIONS---
 ---------------
 
+-- Reservation and Schedule are partitioned by month of departure (see
+-- create_departure_partitions below); departure_date is the flight's
+-- actual_departure_date, copied when the reservation is made. Primary keys
+-- of partitioned tables must include the partition key, so they only make
+-- (rnum, departure_date) and (id, departure_time) unique; ReservationNumber
+-- below keeps rnum unique on its own. Needs PostgreSQL 11 or later.
 CREATE TABLE Reservation
 (
 	rnum INTEGER NOT NULL,
 	cid INTEGER NOT NULL,
 	fid INTEGER NOT NULL,
 	status _STATUS,
-	PRIMARY KEY (rnum),
+	departure_date DATE NOT NULL,
+	PRIMARY KEY (rnum, departure_date),
 	FOREIGN KEY (cid) REFERENCES Customer(id),
 	FOREIGN KEY (fid) REFERENCES Flight(fnum)
+) PARTITION BY RANGE (departure_date);
+
+-- One row per reservation number, kept by the triggers below, so a number
+-- used twice fails with unique_violation whatever the months, which the
+-- booking paths retry, and a number leads to its flight and partition in
+-- one index probe. It costs every booking and cancellation one more index
+-- write. Rows stay when a partition is detached, so archived numbers are
+-- never handed out again. Schedule ids have no such table: they are only
+-- loaded from schedule.csv and never looked up alone.
+CREATE TABLE ReservationNumber
+(
+	rnum INTEGER NOT NULL,
+	fid INTEGER NOT NULL,
+	departure_date DATE NOT NULL,
+	PRIMARY KEY (rnum)
 );
 
+CREATE OR REPLACE FUNCTION reservation_number_changed()
+RETURNS TRIGGER AS $$
+BEGIN
+	IF TG_OP = 'INSERT' THEN
+		INSERT INTO ReservationNumber (rnum, fid, departure_date) VALUES (NEW.rnum, NEW.fid, NEW.departure_date);
+	ELSE
+		DELETE FROM ReservationNumber WHERE rnum = OLD.rnum;
+	END IF;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER reservation_number
+AFTER INSERT OR DELETE ON Reservation
+FOR EACH ROW EXECUTE PROCEDURE reservation_number_changed();
+
 CREATE TABLE FlightInfo
 (
 	fiid INTEGER NOT NULL,
@@ -122,9 +160,46 @@ CREATE TABLE Schedule
 	flightNum INTEGER NOT NULL,
 	departure_time DATE NOT NULL,
 	arrival_time DATE NOT NULL,
-	PRIMARY KEY (id),
+	PRIMARY KEY (id, departure_time),
 	FOREIGN KEY (flightNum) REFERENCES Flight(fnum)
-);
+) PARTITION BY RANGE (departure_time);
+
+----------------
+---PARTITIONS---
+----------------
+-- Creates the monthly partitions reservation_YYYY_MM and schedule_YYYY_MM
+-- covering p_from to p_to, skipping months that already have one (or were
+-- detached, since the table keeps its name). Returns the number created.
+-- There is no default partition: a row whose month has no partition is
+-- rejected, so `PartitionManager ... create` keeps partitions ahead of the
+-- flights being sold and DBproject.addFlight creates its month's. A
+-- default partition would also rule out DETACH PARTITION CONCURRENTLY.
+CREATE OR REPLACE FUNCTION create_departure_partitions(p_from DATE, p_to DATE)
+RETURNS INTEGER AS $$
+DECLARE
+	v_month DATE := date_trunc('month', p_from)::DATE;
+	v_table TEXT;
+	v_name TEXT;
+	v_created INTEGER := 0;
+BEGIN
+	WHILE v_month <= p_to LOOP
+		FOREACH v_table IN ARRAY ARRAY['reservation', 'schedule'] LOOP
+			v_name := v_table || '_' || to_char(v_month, 'YYYY_MM');
+			IF to_regclass(v_name) IS NULL THEN
+				BEGIN
+					EXECUTE format('CREATE TABLE %I PARTITION OF %I FOR VALUES FROM (%L) TO (%L)',
+						v_name, v_table, v_month, (v_month + INTERVAL '1 month')::DATE);
+					v_created := v_created + 1;
+				EXCEPTION WHEN duplicate_table THEN
+					-- created meanwhile by a concurrent call, e.g. two new flights of the month.
+				END;
+			END IF;
+		END LOOP;
+		v_month := (v_month + INTERVAL '1 month')::DATE;
+	END LOOP;
+	RETURN v_created;
+END;
+$$ LANGUAGE plpgsql;
 
 ----------------------------
 -- INSERT DATA STATEMENTS --
@@ -181,7 +256,10 @@ COPY Flight (
 FROM 'flights.csv'
 WITH DELIMITER ',';
 
-COPY Reservation (
+-- reservation.csv has no departure date: stage it and copy the date from Flight.
+CREATE TEMP TABLE ReservationLoad (rnum INTEGER, cid INTEGER, fid INTEGER, status CHAR(1));
+
+COPY ReservationLoad (
 	rnum,
 	cid,
 	fid,
@@ -210,7 +288,9 @@ COPY Repairs (
 FROM 'repairs.csv'
 WITH DELIMITER ',';
 
-COPY Schedule (
+CREATE TEMP TABLE ScheduleLoad (id INTEGER, flightNum INTEGER, departure_time DATE, arrival_time DATE);
+
+COPY ScheduleLoad (
 	id,
 	flightNum,
 	departure_time,
@@ -219,6 +299,21 @@ COPY Schedule (
 FROM 'schedule.csv'
 WITH DELIMITER ',';
 
+-- partitions for every loaded month and a year ahead of the last flight.
+SELECT create_departure_partitions(
+	LEAST((SELECT MIN(actual_departure_date) FROM Flight), (SELECT MIN(departure_time) FROM ScheduleLoad)),
+	(GREATEST((SELECT MAX(actual_departure_date) FROM Flight), (SELECT MAX(departure_time) FROM ScheduleLoad)) + INTERVAL '1 year')::DATE);
+
+INSERT INTO Reservation (rnum, cid, fid, status, departure_date)
+SELECT R.rnum, R.cid, R.fid, R.status, F.actual_departure_date
+FROM ReservationLoad R JOIN Flight F ON F.fnum = R.fid;
+
+INSERT INTO Schedule (id, flightNum, departure_time, arrival_time)
+SELECT id, flightNum, departure_time, arrival_time FROM ScheduleLoad;
+
+DROP TABLE ReservationLoad;
+DROP TABLE ScheduleLoad;
+
 CREATE INDEX seats_index
 ON Plane(seats);
 
@@ -230,3 +325,12 @@ ON Repairs(repair_date);
 
 CREATE INDEX status_index
 ON Reservation(status);
+
+CREATE INDEX fid_status_rnum_index
+ON Reservation(fid, status, rnum);
+
+CREATE INDEX route_departure_index
+ON Flight(departure_airport, arrival_airport, actual_departure_date, fnum);
+
+CREATE INDEX flightinfo_flight_index
+ON FlightInfo(flight_id);
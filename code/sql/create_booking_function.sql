@@ -0,0 +1,71 @@
+-- book_flight(cid, fnum, allow_waitlist) books a seat in one call: it picks
+-- the reservation number, takes a seat if the plane has one left, inserts
+-- the reservation as 'R' (or 'W' when the flight is full and the caller
+-- accepts the waitlist) and bumps Flight.num_sold, all in the caller's
+-- transaction. It returns the outcome, named like SeatAllocator.Outcome,
+-- the reservation number or -1, and the seats left after a reservation.
+-- The reservation carries the flight's departure date, its partition key.
+-- Run after create_sequences.sql.
+
+-- Reservation numbers come from reservation_rnum_seq, whose nextval reserves
+-- a block of 50 (INCREMENT BY in create_sequences.sql). The block is kept in
+-- two session settings and handed out one number per call, like
+-- IdGenerator does in the application; a rolled-back call gives its number
+-- back to the block, which is safe because it was never committed.
+CREATE OR REPLACE FUNCTION next_reservation_number() RETURNS INTEGER AS $$
+DECLARE
+	v_next INTEGER := NULLIF(current_setting('airline.rnum_next', true), '')::INTEGER;
+	v_limit INTEGER := NULLIF(current_setting('airline.rnum_limit', true), '')::INTEGER;
+BEGIN
+	IF v_next IS NULL OR v_next >= v_limit THEN
+		v_next := nextval('reservation_rnum_seq');
+		v_limit := v_next + 50;
+		PERFORM set_config('airline.rnum_limit', v_limit::TEXT, false);
+	END IF;
+	PERFORM set_config('airline.rnum_next', (v_next + 1)::TEXT, false);
+	RETURN v_next;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION book_flight(p_cid INTEGER, p_fnum INTEGER, p_allow_waitlist BOOLEAN,
+	OUT outcome TEXT, OUT reservation INTEGER, OUT seats_left INTEGER) AS $$
+DECLARE
+	v_status CHAR(1) := 'R';
+	v_departure DATE;
+BEGIN
+	reservation := -1;
+	IF NOT EXISTS (SELECT 1 FROM Customer WHERE id = p_cid) THEN
+		outcome := 'NO_SUCH_CUSTOMER';
+		RETURN;
+	END IF;
+
+	-- concurrent bookings of the last seat serialize on the Flight row.
+	UPDATE Flight F SET num_sold = F.num_sold + 1 FROM FlightInfo I, Plane P
+	WHERE F.fnum = p_fnum AND I.flight_id = F.fnum AND I.plane_id = P.id AND F.num_sold < P.seats
+	RETURNING P.seats - F.num_sold, F.actual_departure_date INTO seats_left, v_departure;
+	IF NOT FOUND THEN
+		SELECT actual_departure_date INTO v_departure FROM Flight WHERE fnum = p_fnum;
+		IF NOT FOUND THEN
+			outcome := 'NO_SUCH_FLIGHT';
+			RETURN;
+		END IF;
+		IF NOT p_allow_waitlist THEN
+			outcome := 'SOLD_OUT';
+			RETURN;
+		END IF;
+		v_status := 'W';
+	END IF;
+
+	LOOP
+		reservation := next_reservation_number();
+		BEGIN
+			INSERT INTO Reservation (rnum, cid, fid, status, departure_date)
+			VALUES (reservation, p_cid, p_fnum, v_status, v_departure);
+			EXIT;
+		EXCEPTION WHEN unique_violation THEN
+			-- the number was taken outside the sequence; the block moves on, try the next one.
+		END;
+	END LOOP;
+	outcome := CASE v_status WHEN 'R' THEN 'RESERVED' ELSE 'WAITLISTED' END;
+END;
+$$ LANGUAGE plpgsql;
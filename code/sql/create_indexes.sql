@@ -9,3 +9,12 @@ ON Repairs(repair_date);
 
 CREATE INDEX status_index
 ON Reservation(status);
+
+CREATE INDEX fid_status_rnum_index
+ON Reservation(fid, status, rnum);
+
+CREATE INDEX route_departure_index
+ON Flight(departure_airport, arrival_airport, actual_departure_date, fnum);
+
+CREATE INDEX flightinfo_flight_index
+ON FlightInfo(flight_id);
@@ -0,0 +1,44 @@
+-- A version number for the reference tables Plane, Pilot, Technician and
+-- FlightInfo, bumped once by every statement that changes one of them, so
+-- a ReferenceSnapshot file can tell whether it is still current by reading
+-- one row. Run after the data is loaded: the script (re)creates the table,
+-- function and triggers.
+
+DROP TRIGGER IF EXISTS reference_version ON Plane;
+DROP TRIGGER IF EXISTS reference_version ON Pilot;
+DROP TRIGGER IF EXISTS reference_version ON Technician;
+DROP TRIGGER IF EXISTS reference_version ON FlightInfo;
+DROP TABLE IF EXISTS ReferenceVersion;
+
+-- exactly one row: the key can only be true.
+CREATE TABLE ReferenceVersion
+(
+	one BOOLEAN NOT NULL DEFAULT true CHECK (one),
+	version BIGINT NOT NULL,
+	PRIMARY KEY (one)
+);
+
+INSERT INTO ReferenceVersion (version) VALUES (1);
+
+CREATE OR REPLACE FUNCTION bump_reference_version() RETURNS trigger AS $$
+BEGIN
+	UPDATE ReferenceVersion SET version = version + 1;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER reference_version
+AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON Plane
+FOR EACH STATEMENT EXECUTE PROCEDURE bump_reference_version();
+
+CREATE TRIGGER reference_version
+AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON Pilot
+FOR EACH STATEMENT EXECUTE PROCEDURE bump_reference_version();
+
+CREATE TRIGGER reference_version
+AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON Technician
+FOR EACH STATEMENT EXECUTE PROCEDURE bump_reference_version();
+
+CREATE TRIGGER reference_version
+AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON FlightInfo
+FOR EACH STATEMENT EXECUTE PROCEDURE bump_reference_version();
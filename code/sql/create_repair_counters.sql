@@ -0,0 +1,77 @@
+-- Repair counts per plane and per year, kept up to date by triggers on
+-- Repairs so reports 7 and 8 read one row per plane or year instead of
+-- scanning Repairs. Run after the data is loaded: the script (re)creates
+-- the tables, functions and triggers and fills the counters from Repairs.
+-- Needs PostgreSQL 9.5 or later (INSERT ... ON CONFLICT).
+
+DROP TRIGGER IF EXISTS repair_counters ON Repairs;
+DROP TRIGGER IF EXISTS repair_counters_truncate ON Repairs;
+DROP TABLE IF EXISTS RepairsPerPlane;
+DROP TABLE IF EXISTS RepairsPerYear;
+
+CREATE TABLE RepairsPerPlane
+(
+	plane_id INTEGER NOT NULL,
+	repair_count INTEGER NOT NULL,
+	PRIMARY KEY (plane_id)
+);
+
+CREATE TABLE RepairsPerYear
+(
+	year INTEGER NOT NULL,
+	repair_count INTEGER NOT NULL,
+	PRIMARY KEY (year)
+);
+
+CREATE OR REPLACE FUNCTION add_repair_count(p_plane_id INTEGER, p_repair_date DATE, p_delta INTEGER)
+RETURNS void AS $$
+BEGIN
+	INSERT INTO RepairsPerPlane (plane_id, repair_count) VALUES (p_plane_id, p_delta)
+	ON CONFLICT (plane_id) DO UPDATE SET repair_count = RepairsPerPlane.repair_count + p_delta;
+	INSERT INTO RepairsPerYear (year, repair_count) VALUES (EXTRACT(year FROM p_repair_date), p_delta)
+	ON CONFLICT (year) DO UPDATE SET repair_count = RepairsPerYear.repair_count + p_delta;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION repair_counters() RETURNS trigger AS $$
+BEGIN
+	IF TG_OP IN ('DELETE', 'UPDATE') THEN
+		PERFORM add_repair_count(OLD.plane_id, OLD.repair_date, -1);
+	END IF;
+	IF TG_OP IN ('INSERT', 'UPDATE') THEN
+		PERFORM add_repair_count(NEW.plane_id, NEW.repair_date, 1);
+	END IF;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION repair_counters_truncate() RETURNS trigger AS $$
+BEGIN
+	TRUNCATE RepairsPerPlane, RepairsPerYear;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Recomputes both counter tables from Repairs. Writers to Repairs wait
+-- until the calling transaction ends, so the counters match when it commits.
+CREATE OR REPLACE FUNCTION rebuild_repair_counters() RETURNS void AS $$
+BEGIN
+	LOCK TABLE Repairs IN SHARE MODE;
+	DELETE FROM RepairsPerPlane;
+	DELETE FROM RepairsPerYear;
+	INSERT INTO RepairsPerPlane (plane_id, repair_count)
+		SELECT plane_id, COUNT(*) FROM Repairs GROUP BY plane_id;
+	INSERT INTO RepairsPerYear (year, repair_count)
+		SELECT EXTRACT(year FROM repair_date), COUNT(*) FROM Repairs GROUP BY EXTRACT(year FROM repair_date);
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER repair_counters
+AFTER INSERT OR DELETE OR UPDATE OF plane_id, repair_date ON Repairs
+FOR EACH ROW EXECUTE PROCEDURE repair_counters();
+
+CREATE TRIGGER repair_counters_truncate
+AFTER TRUNCATE ON Repairs
+FOR EACH STATEMENT EXECUTE PROCEDURE repair_counters_truncate();
+
+SELECT rebuild_repair_counters();
@@ -0,0 +1,22 @@
+-- Sequences backing IdGenerator. Each nextval reserves a block of 50 ids
+-- (IdGenerator.BLOCK_SIZE) that the application hands out from memory, so
+-- INCREMENT BY must stay in step with BLOCK_SIZE. Run after the data is
+-- loaded: setval starts every sequence past the largest existing key.
+
+DROP SEQUENCE IF EXISTS plane_id_seq;
+DROP SEQUENCE IF EXISTS pilot_id_seq;
+DROP SEQUENCE IF EXISTS flight_fnum_seq;
+DROP SEQUENCE IF EXISTS technician_id_seq;
+DROP SEQUENCE IF EXISTS reservation_rnum_seq;
+
+CREATE SEQUENCE plane_id_seq INCREMENT BY 50 MINVALUE 0;
+CREATE SEQUENCE pilot_id_seq INCREMENT BY 50 MINVALUE 0;
+CREATE SEQUENCE flight_fnum_seq INCREMENT BY 50 MINVALUE 0;
+CREATE SEQUENCE technician_id_seq INCREMENT BY 50 MINVALUE 0;
+CREATE SEQUENCE reservation_rnum_seq INCREMENT BY 50 MINVALUE 0;
+
+SELECT setval('plane_id_seq', (SELECT COALESCE(MAX(id), -1) + 1 FROM Plane), false);
+SELECT setval('pilot_id_seq', (SELECT COALESCE(MAX(id), -1) + 1 FROM Pilot), false);
+SELECT setval('flight_fnum_seq', (SELECT COALESCE(MAX(fnum), -1) + 1 FROM Flight), false);
+SELECT setval('technician_id_seq', (SELECT COALESCE(MAX(id), -1) + 1 FROM Technician), false);
+SELECT setval('reservation_rnum_seq', (SELECT COALESCE(MAX(rnum), -1) + 1 FROM Reservation), false);
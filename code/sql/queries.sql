@@ -1,11 +1,14 @@
 -- 6.For flight number and date, find the number of availalbe seats (i.e. total plane capacity minus booked seats )
-SELECT P.seats - F.num_sold FROM Flight F, Plane P, FlightInfo I WHERE F.fnum = I.flight_id AND I.flight_id = P.id AND F.fnum = 1;
+SELECT P.seats - F.num_sold FROM Flight F, Plane P, FlightInfo I WHERE F.fnum = I.flight_id AND I.plane_id = P.id AND F.fnum = 1;
 
 -- 7. Count number of repairs per planes and list them in descending order.
-SELECT plane.id, (SELECT COUNT(*) FROM Repairs R WHERE R.plane_id = plane.id) AS RepairCount FROM Plane ORDER BY RepairCount DESC;
+-- (the counters are maintained by create_repair_counters.sql)
+SELECT P.id, COALESCE(C.repair_count, 0) AS RepairCount FROM Plane P LEFT JOIN RepairsPerPlane C ON C.plane_id = P.id ORDER BY RepairCount DESC;
 
 -- 8. Count repairs per year and list them in ascending order.
-SELECT EXTRACT(year FROM repair_date) AS Year, COUNT(*) FROM Repairs GROUP BY EXTRACT(year FROM repair_date) ORDER BY count ASC;
+SELECT year AS Year, repair_count AS count FROM RepairsPerYear WHERE repair_count > 0 ORDER BY count ASC;
 
 -- 9. Find how many passengers there are with a status (i.e. W,C,R) and list that number.
-SELECT COUNT(*) FROM Reservation WHERE Reservation.fid = 1 AND Reservation.status = 'R';
+SELECT COUNT(*) FROM Flight F JOIN Reservation R ON R.fid = F.fnum AND R.departure_date = F.actual_departure_date WHERE F.fnum = 1 AND R.status = 'R';
+-- or every status of several flights at once:
+SELECT Q.fid, COUNT(R.status) FILTER (WHERE R.status = 'R') AS reserved, COUNT(R.status) FILTER (WHERE R.status = 'C') AS confirmed, COUNT(R.status) FILTER (WHERE R.status = 'W') AS waitlisted FROM (SELECT DISTINCT unnest(ARRAY[1, 2, 3]) AS fid) Q LEFT JOIN Flight F ON F.fnum = Q.fid LEFT JOIN Reservation R ON R.fid = F.fnum AND R.departure_date = F.actual_departure_date GROUP BY Q.fid ORDER BY Q.fid;